@@ -0,0 +1,406 @@
+package com.github.jayield.rapper.processor;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compile time counterpart of MapperSettings. Reads the fields of a DomainObject the same way MapperSettings does,
+ * in the same order, and builds the same SQL statements.
+ * If the type can't be mapped by a generated class, an {@link UnsupportedTypeException} is thrown and the type is left
+ * to MapperSettings, which will report whatever is wrong with it at runtime.
+ */
+class EntityModel {
+    static final String DOMAIN_OBJECT = "com.github.jayield.rapper.DomainObject";
+    static final String EMBEDDED_ID_CLASS = "com.github.jayield.rapper.utils.EmbeddedIdClass";
+    static final String FOREIGN = "com.github.jayield.rapper.mapper.externals.Foreign";
+    private static final String EMBEDDED_ID = "com.github.jayield.rapper.annotations.EmbeddedId";
+    private static final String ID = "com.github.jayield.rapper.annotations.Id";
+    private static final String COLUMN_NAME = "com.github.jayield.rapper.annotations.ColumnName";
+    private static final String VERSION = "com.github.jayield.rapper.annotations.Version";
+    private static final String MAPPER_CONSTRUCTOR = "com.github.jayield.rapper.annotations.MapperConstructor";
+
+    private static final String[] PREDICATE_TYPES = {
+            "java.lang.String", "java.time.Instant", "java.util.concurrent.CompletableFuture", "java.lang.Integer",
+            "java.lang.Double", "java.lang.Long", "java.lang.Boolean", "java.util.function.Function", FOREIGN
+    };
+
+    /**
+     * The types of the built-in TypeConverters, besides the enums and byte[].
+     * Custom TypeConverters are only known at runtime, so a type using them is mapped through reflection instead.
+     */
+    private static final Set<String> CONVERTED_TYPES = new HashSet<>(Arrays.asList(
+            "java.lang.Short", "java.lang.Byte", "java.lang.Float", "java.lang.Character",
+            "java.time.LocalDate", "java.time.LocalDateTime", "java.time.LocalTime", "java.time.OffsetDateTime",
+            "java.time.ZonedDateTime", "java.util.UUID", "java.math.BigDecimal"
+    ));
+
+    private final Types types;
+    private final Elements elements;
+    private final TypeMirror domainObject;
+
+    final TypeElement type;
+    final TypeMirror keyType;
+
+    final List<SqlColumn> ids = new ArrayList<>();
+    final List<SqlColumn> columns = new ArrayList<>();
+    SqlColumn versionField;
+    List<SqlColumn> externals = new ArrayList<>();
+    final List<SqlColumn> allFields = new ArrayList<>();
+    VariableElement primaryKeyField;
+    TypeElement primaryKeyType;
+
+    String selectQuery;
+    String selectCountQuery;
+    String selectByIdQuery;
+    String insertQuery;
+    String updateQuery;
+    String deleteQuery;
+    String pagination;
+
+    EntityModel(ProcessingEnvironment processingEnv, TypeElement type) {
+        this.types = processingEnv.getTypeUtils();
+        this.elements = processingEnv.getElementUtils();
+        this.domainObject = types.erasure(elements.getTypeElement(DOMAIN_OBJECT).asType());
+        this.type = type;
+
+        verifyAccessible(type);
+        if (!type.getTypeParameters().isEmpty())
+            throw new UnsupportedTypeException(type + " has type parameters");
+        if (!hasPublicNoArgConstructor(type))
+            throw new UnsupportedTypeException(type + " doesn't have a public constructor without arguments");
+        verifyNoMapperConstructor(type);
+        keyType = findKeyType(type.asType());
+
+        Map<SqlColumn.Kind, List<SqlColumn>> fieldMap = toSqlColumns(type, "C.");
+
+        addParentsFields(type);
+
+        ids.addAll(fieldMap.get(SqlColumn.Kind.ID));
+        columns.addAll(fieldMap.get(SqlColumn.Kind.COLUMN));
+
+        List<SqlColumn> versions = fieldMap.get(SqlColumn.Kind.VERSION);
+        if (!versions.isEmpty()) {
+            versionField = versions.get(0);
+            columns.addAll(versions);
+        }
+        externals = fieldMap.get(SqlColumn.Kind.EXTERNAL);
+
+        allFields.addAll(ids);
+        allFields.addAll(columns);
+        allFields.addAll(externals);
+
+        buildQueryStrings();
+    }
+
+    private void addParentsFields(TypeElement type) {
+        int i = 1;
+        for (TypeElement clazz = superclass(type); isDomainObjectClass(clazz); clazz = superclass(clazz), i++) {
+            Map<SqlColumn.Kind, List<SqlColumn>> parentFieldMap = toSqlColumns(clazz, String.format("P%d.", i));
+
+            List<SqlColumn> sqlFieldIds = parentFieldMap.get(SqlColumn.Kind.ID);
+            sqlFieldIds.forEach(SqlColumn::setFromParent);
+            ids.addAll(sqlFieldIds);
+
+            allFields.addAll(parentFieldMap.get(SqlColumn.Kind.COLUMN));
+            allFields.addAll(parentFieldMap.get(SqlColumn.Kind.VERSION));
+        }
+    }
+
+    /**
+     * Same as MapperSettings.buildQueryStrings
+     */
+    private void buildQueryStrings() {
+        List<String> idName = ids
+                .stream()
+                .map(sqlColumn -> sqlColumn.selectQueryValue)
+                .collect(Collectors.toList());
+
+        List<String> allFieldsNames = allFields
+                .stream()
+                .filter(sqlColumn -> sqlColumn.kind != SqlColumn.Kind.EXTERNAL || sqlColumn.hasNames())
+                .map(sqlColumn -> sqlColumn.selectQueryValue)
+                .collect(Collectors.toList());
+
+        StringBuilder suffix = new StringBuilder();
+        suffix.append(" from ").append(type.getSimpleName()).append(" C ");
+
+        int i = 1;
+        for (TypeElement clazz = superclass(type); isDomainObjectClass(clazz); clazz = superclass(clazz), i++) {
+            suffix.append("inner join ").append(clazz.getSimpleName()).append(String.format(" P%d ", i)).append("on ");
+
+            for (String id : idName) {
+                String column = id.split("\\.")[1];
+
+                if (i == 1) suffix.append("C.").append(column);
+                else suffix.append(String.format("P%d.", i - 1)).append(column);
+
+                suffix.append(" = ").append(String.format("P%d.", i)).append(column).append(" ");
+            }
+        }
+
+        selectQuery = allFieldsNames
+                .stream()
+                .collect(Collectors.joining(", ", "select ", suffix));
+
+        selectCountQuery = "select COUNT(*) as c " + suffix;
+
+        selectByIdQuery = selectQuery +
+                idName.stream()
+                        .map(id -> id + " = ?")
+                        .collect(Collectors.joining(" and ", " where ", ""));
+
+        idName = ids
+                .stream()
+                .map(sqlColumn -> sqlColumn.name)
+                .collect(Collectors.toList());
+
+        pagination = " order by " + String.join(", ", idName);
+
+        List<String> columnsNames = Stream.concat(
+                columns
+                        .stream()
+                        .map(sqlColumn -> sqlColumn.name),
+                externals
+                        .stream()
+                        .filter(SqlColumn::hasNames)
+                        .flatMap(sqlColumn -> Arrays.stream(sqlColumn.names))
+        ).collect(Collectors.toList());
+
+        columnsNames.remove("Cversion");
+        columns.removeIf(sqlColumn -> sqlColumn.name.equals("Cversion"));
+
+        boolean identity = ids
+                .stream()
+                .anyMatch(sqlColumn -> sqlColumn.identity && !sqlColumn.isFromParent());
+
+        String updateWhereVersion = "";
+        if (versionField != null)
+            updateWhereVersion = String.format(" and %s = ?", versionField.name.substring(1));
+
+        List<String> insertNames = identity ? columnsNames : Stream.concat(idName.stream(), columnsNames.stream()).collect(Collectors.toList());
+        insertQuery = insertNames
+                .stream()
+                .collect(Collectors.joining(", ", "insert into " + type.getSimpleName() + " ( ", " ) "))
+                + insertNames
+                .stream()
+                .map(c -> "?")
+                .collect(Collectors.joining(", ", "values ( ", " )"));
+
+        updateQuery = columnsNames
+                .stream()
+                .map(c -> c + " = ?")
+                .collect(Collectors.joining(", ", "update " + type.getSimpleName() + " set ", " where "))
+                + idName
+                .stream()
+                .map(id -> id + " = ?")
+                .collect(Collectors.joining(" and "))
+                + updateWhereVersion;
+
+        deleteQuery = idName
+                .stream()
+                .map(id -> id + " = ?")
+                .collect(Collectors.joining(" and ", "delete from " + type.getSimpleName() + " where ", ""));
+    }
+
+    /**
+     * Same as MapperSettings.toSqlField applied to every declared field of clazz, grouped by kind
+     */
+    private Map<SqlColumn.Kind, List<SqlColumn>> toSqlColumns(TypeElement clazz, String pref) {
+        Map<SqlColumn.Kind, List<SqlColumn>> fieldMap = new EnumMap<>(SqlColumn.Kind.class);
+        for (SqlColumn.Kind kind : SqlColumn.Kind.values())
+            fieldMap.put(kind, new ArrayList<>());
+
+        for (VariableElement field : ElementFilter.fieldsIn(clazz.getEnclosedElements()))
+            toSqlColumn(field, pref).forEach(sqlColumn -> fieldMap.get(sqlColumn.kind).add(sqlColumn));
+        return fieldMap;
+    }
+
+    private List<SqlColumn> toSqlColumn(VariableElement f, String pref) {
+        String name = f.getSimpleName().toString();
+
+        if (getAnnotation(f, EMBEDDED_ID) != null) {
+            if (primaryKeyField != null)
+                throw new UnsupportedTypeException(type + " has more than one field annotated with @EmbeddedId");
+            if (f.asType().getKind() != TypeKind.DECLARED)
+                throw new UnsupportedTypeException(f + " annotated with @EmbeddedId should extend EmbeddedIdClass");
+            primaryKeyField = f;
+            primaryKeyType = (TypeElement) types.asElement(f.asType());
+
+            TypeMirror embeddedIdClass = types.erasure(elements.getTypeElement(EMBEDDED_ID_CLASS).asType());
+            if (!types.isAssignable(types.erasure(primaryKeyType.asType()), embeddedIdClass))
+                throw new UnsupportedTypeException(f + " annotated with @EmbeddedId should extend EmbeddedIdClass");
+            verifyAccessible(primaryKeyType);
+            if (!hasPublicNoArgConstructor(primaryKeyType))
+                throw new UnsupportedTypeException(primaryKeyType + " doesn't have a public constructor without arguments");
+            verifyNoMapperConstructor(primaryKeyType);
+
+            return ElementFilter.fieldsIn(primaryKeyType.getEnclosedElements())
+                    .stream()
+                    .filter(this::fieldPredicate)
+                    .map(fi -> SqlColumn.id(fi, fi.getSimpleName().toString(), pref + fi.getSimpleName(), false, true))
+                    .collect(Collectors.toList());
+        }
+
+        AnnotationMirror id = getAnnotation(f, ID);
+        if (id != null)
+            return Collections.singletonList(SqlColumn.id(f, name, pref + name, (Boolean) getValue(id, "isIdentity"), false));
+
+        AnnotationMirror columnName = getAnnotation(f, COLUMN_NAME);
+        if (columnName != null)
+            return Collections.singletonList(toExternal(f, pref, columnName));
+
+        if (getAnnotation(f, VERSION) != null) {
+            String prefix = pref.substring(0, pref.length() - 1);
+            return Collections.singletonList(SqlColumn.version(f, prefix + name, String.format("CAST(%s%s as bigint) %s%s", pref, name, prefix, name)));
+        }
+
+        if (fieldPredicate(f))
+            return Collections.singletonList(SqlColumn.column(f, name, pref + name));
+
+        return Collections.emptyList();
+    }
+
+    private SqlColumn toExternal(VariableElement f, String pref, AnnotationMirror columnName) {
+        String[] names = ((List<?>) getValue(columnName, "name"))
+                .stream()
+                .map(value -> (String) ((AnnotationValue) value).getValue())
+                .toArray(String[]::new);
+
+        String selectQueryValue = Arrays.stream(names)
+                .map(n -> pref + n)
+                .collect(Collectors.joining(", "));
+
+        if (names.length == 0)
+            return SqlColumn.external(f, selectQueryValue, names, null);
+
+        //Only a Foreign may have names, its first type argument is the type of the referenced DomainObject
+        TypeMirror foreign = types.erasure(elements.getTypeElement(FOREIGN).asType());
+        if (!types.isSameType(types.erasure(f.asType()), foreign))
+            throw new UnsupportedTypeException("The field annotated with @ColumnName with \"name\" defined must be of type Foreign");
+        List<? extends TypeMirror> typeArguments = ((DeclaredType) f.asType()).getTypeArguments();
+        if (typeArguments.isEmpty() || typeArguments.get(0).getKind() != TypeKind.DECLARED)
+            throw new UnsupportedTypeException(f + " must declare the type of the referenced DomainObject");
+
+        TypeElement domainObjectType = (TypeElement) types.asElement(typeArguments.get(0));
+        verifyAccessible(domainObjectType);
+        return SqlColumn.external(f, selectQueryValue, names, domainObjectType);
+    }
+
+    /**
+     * Same as MapperSettings' fieldPredicate, which checks if the field's type is a supertype of any of the PREDICATE_TYPES
+     * or has a TypeConverter
+     */
+    boolean fieldPredicate(VariableElement field) {
+        TypeMirror fieldType = types.erasure(field.asType());
+        if (fieldType.getKind().isPrimitive() || isConverted(fieldType)) return true;
+
+        return Arrays.stream(PREDICATE_TYPES)
+                .map(elements::getTypeElement)
+                .filter(Objects::nonNull)
+                .anyMatch(typeElement -> types.isAssignable(types.erasure(typeElement.asType()), fieldType));
+    }
+
+    private boolean isConverted(TypeMirror fieldType) {
+        if (fieldType.getKind() == TypeKind.ARRAY)
+            return ((ArrayType) fieldType).getComponentType().getKind() == TypeKind.BYTE;
+        if (fieldType.getKind() != TypeKind.DECLARED) return false;
+
+        TypeElement typeElement = (TypeElement) types.asElement(fieldType);
+        if (typeElement.getKind() == ElementKind.ENUM) {
+            verifyAccessible(typeElement);  //The generated mapper refers to its class
+            return true;
+        }
+        return CONVERTED_TYPES.contains(typeElement.getQualifiedName().toString());
+    }
+
+    private TypeMirror findKeyType(TypeMirror typeMirror) {
+        for (TypeMirror supertype : types.directSupertypes(typeMirror)) {
+            if (types.isSameType(types.erasure(supertype), domainObject)) {
+                List<? extends TypeMirror> typeArguments = ((DeclaredType) supertype).getTypeArguments();
+                if (typeArguments.isEmpty() || typeArguments.get(0).getKind() != TypeKind.DECLARED)
+                    throw new UnsupportedTypeException(type + " doesn't declare the type of its key");
+                return types.erasure(typeArguments.get(0));
+            }
+            if (types.isAssignable(types.erasure(supertype), domainObject))
+                return findKeyType(supertype);
+        }
+        throw new UnsupportedTypeException(type + " isn't a DomainObject");
+    }
+
+    private TypeElement superclass(TypeElement clazz) {
+        TypeMirror superclass = clazz.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+    }
+
+    private boolean isDomainObjectClass(TypeElement clazz) {
+        return clazz != null
+                && !clazz.getQualifiedName().contentEquals("java.lang.Object")
+                && types.isAssignable(types.erasure(clazz.asType()), domainObject);
+    }
+
+    /**
+     * The types created through a constructor annotated with @MapperConstructor are left to the EntityConstructor
+     */
+    private static void verifyNoMapperConstructor(TypeElement typeElement) {
+        boolean annotated = ElementFilter.constructorsIn(typeElement.getEnclosedElements())
+                .stream()
+                .anyMatch(c -> getAnnotation(c, MAPPER_CONSTRUCTOR) != null);
+        if (annotated)
+            throw new UnsupportedTypeException(typeElement + " is created through its constructor annotated with @MapperConstructor");
+    }
+
+    private static boolean hasPublicNoArgConstructor(TypeElement typeElement) {
+        return ElementFilter.constructorsIn(typeElement.getEnclosedElements())
+                .stream()
+                .anyMatch(c -> c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC));
+    }
+
+    /**
+     * The generated class lives in the package of the DomainObject, so every type it names can't be private
+     * and nested types have to be static
+     */
+    private static void verifyAccessible(TypeElement typeElement) {
+        for (Element element = typeElement; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE))
+                throw new UnsupportedTypeException(typeElement + " isn't accessible from its package");
+            if (element.getEnclosingElement().getKind() != ElementKind.PACKAGE && !element.getModifiers().contains(Modifier.STATIC))
+                throw new UnsupportedTypeException(typeElement + " is an inner class");
+        }
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+        return element.getAnnotationMirrors()
+                .stream()
+                .filter(mirror -> ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private Object getValue(AnnotationMirror mirror, String name) {
+        return elements.getElementValuesWithDefaults(mirror)
+                .entrySet()
+                .stream()
+                .filter(entry -> entry.getKey().getSimpleName().contentEquals(name))
+                .map(entry -> entry.getValue().getValue())
+                .findFirst()
+                .orElseThrow(() -> new UnsupportedTypeException("Missing value " + name + " of " + mirror));
+    }
+
+    static class UnsupportedTypeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedTypeException(String message) {
+            super(message);
+        }
+    }
+}
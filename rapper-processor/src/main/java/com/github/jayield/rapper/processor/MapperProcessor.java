@@ -0,0 +1,71 @@
+package com.github.jayield.rapper.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Generates a GeneratedMapper for every concrete DomainObject being compiled, so MapperRegistry doesn't have to
+ * build the SQL statements and map the rows through reflection at runtime.
+ * DomainObjects that can't be mapped by a generated class are skipped and keep using the reflective mapping.
+ */
+@SupportedAnnotationTypes("*")
+public class MapperProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement domainObject = processingEnv.getElementUtils().getTypeElement(EntityModel.DOMAIN_OBJECT);
+        if (domainObject == null) return false;     //rapper isn't on the classpath
+
+        TypeMirror domainObjectType = processingEnv.getTypeUtils().erasure(domainObject.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements()))
+            process(type, domainObjectType);
+        return false;
+    }
+
+    private void process(TypeElement type, TypeMirror domainObjectType) {
+        ElementFilter.typesIn(type.getEnclosedElements()).forEach(nested -> process(nested, domainObjectType));
+
+        if (type.getKind() != ElementKind.CLASS
+                || type.getModifiers().contains(Modifier.ABSTRACT)
+                || !processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), domainObjectType))
+            return;
+
+        String generatedName = MapperWriter.getGeneratedName(processingEnv.getElementUtils(), type);
+        if (!generated.add(generatedName)) return;
+
+        EntityModel model;
+        try {
+            model = new EntityModel(processingEnv, type);
+        } catch (EntityModel.UnsupportedTypeException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No mapper generated, " + e.getMessage(), type);
+            return;
+        }
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(generatedName, type);
+            try (Writer writer = file.openWriter()) {
+                new MapperWriter(processingEnv.getTypeUtils(), processingEnv.getElementUtils(), model).write(writer);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Couldn't write " + generatedName + ": " + e.getMessage(), type);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.github.jayield.rapper.processor;
+
+import javax.lang.model.element.*;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the source of the GeneratedMapper described by an EntityModel
+ */
+class MapperWriter {
+    static final String SUFFIX = "_RapperMapper";
+
+    private final Types types;
+    private final Elements elements;
+    private final EntityModel model;
+    private final Map<VariableElement, String> accessors = new LinkedHashMap<>();
+    private final Set<VariableElement> converted = new LinkedHashSet<>();
+
+    MapperWriter(Types types, Elements elements, EntityModel model) {
+        this.types = types;
+        this.elements = elements;
+        this.model = model;
+
+        if (model.primaryKeyField != null) accessorOf(model.primaryKeyField);
+        model.allFields.forEach(sqlColumn -> accessorOf(sqlColumn.field));
+        model.allFields
+                .stream()
+                .filter(sqlColumn -> sqlColumn.kind != SqlColumn.Kind.EXTERNAL)
+                .forEach(sqlColumn -> converted.add(sqlColumn.field));
+    }
+
+    /**
+     * Same as GeneratedMapper.getGeneratedName, nested types are flattened
+     */
+    static String getGeneratedName(Elements elements, TypeElement type) {
+        return elements.getBinaryName(type).toString().replace('$', '_') + SUFFIX;
+    }
+
+    static String getSimpleName(String generatedName) {
+        return generatedName.substring(generatedName.lastIndexOf('.') + 1);
+    }
+
+    void write(Writer writer) {
+        String generatedName = getGeneratedName(elements, model.type);
+        String packageName = elements.getPackageOf(model.type).getQualifiedName().toString();
+        String entity = model.type.getQualifiedName().toString();
+
+        PrintWriter out = new PrintWriter(writer);
+        if (!packageName.isEmpty()) {
+            out.printf("package %s;%n", packageName);
+            out.println();
+        }
+        out.println("import com.github.jayield.rapper.mapper.GeneratedMapper;");
+        out.println("import com.github.jayield.rapper.mapper.conversions.TypeConverter;");
+        out.println("import com.github.jayield.rapper.mapper.externals.Foreign;");
+        out.println("import com.github.jayield.rapper.utils.EmbeddedIdClass;");
+        out.println("import com.github.jayield.rapper.utils.FieldAccessor;");
+        out.println("import io.vertx.core.json.JsonArray;");
+        out.println();
+        out.println("/**");
+        out.printf(" * Mapper of %s generated by rapper-processor, do not edit.%n", entity);
+        out.println(" */");
+        out.printf("public final class %s extends GeneratedMapper<%s, %s> {%n", getSimpleName(generatedName), entity, model.keyType);
+
+        accessors.forEach((field, constant) -> out.printf("    private static final FieldAccessor %s = accessor(%s.class, \"%s\");%n",
+                constant, ((TypeElement) field.getEnclosingElement()).getQualifiedName(), field.getSimpleName()));
+        converted.forEach(field -> out.printf("    private static final TypeConverter<?> %s = converter(%s.class);%n",
+                converterOf(field), types.erasure(field.asType())));
+        out.println();
+
+        writeQuery(out, "getSelectQuery", model.selectQuery);
+        writeQuery(out, "getSelectCountQuery", model.selectCountQuery);
+        writeQuery(out, "getSelectByIdQuery", model.selectByIdQuery);
+        writeQuery(out, "getInsertQuery", model.insertQuery);
+        writeQuery(out, "getUpdateQuery", model.updateQuery);
+        writeQuery(out, "getDeleteQuery", model.deleteQuery);
+        writeQuery(out, "getPagination", model.pagination);
+
+        writeMap(out, entity);
+        writePrepareCreate(out, entity);
+        writePrepareUpdate(out, entity);
+
+        out.println("}");
+        out.flush();
+    }
+
+    private void writeQuery(PrintWriter out, String method, String query) {
+        out.println("    @Override");
+        out.printf("    public String %s() {%n", method);
+        out.printf("        return \"%s\";%n", escape(query));
+        out.println("    }");
+        out.println();
+    }
+
+    /**
+     * Sets the columns of the select query, in the same order, as DataMapper.mapper does
+     */
+    private void writeMap(PrintWriter out, String entity) {
+        out.println("    @Override");
+        out.printf("    public %s map(JsonArray row) {%n", entity);
+        out.printf("        %s t = new %s();%n", entity, entity);
+
+        long idCount = model.allFields.stream().filter(sqlColumn -> sqlColumn.embeddedId).count();
+        if (model.primaryKeyType != null) {
+            String keyType = model.primaryKeyType.getQualifiedName().toString();
+            out.printf("        %s primaryKey = new %s();%n", keyType, keyType);
+            out.printf("        %s.set(t, primaryKey);%n", accessors.get(model.primaryKeyField));
+            out.printf("        Object[] idValues = new Object[%d];%n", idCount);
+        }
+
+        int index = 0;
+        int idIndex = 0;
+        for (SqlColumn sqlColumn : model.allFields) {
+            if (sqlColumn.kind == SqlColumn.Kind.EXTERNAL) continue;    //The foreign keys are handed to the ExternalsHandler by the DataMapper
+
+            if (model.fieldPredicate(sqlColumn.field)) {
+                String value = String.format("fromColumn(%s, row.getValue(%d))", converterOf(sqlColumn.field), index);
+
+                if (sqlColumn.embeddedId) {
+                    out.printf("        idValues[%d] = %s;%n", idIndex++, value);
+                    out.printf("        %s.set(primaryKey, idValues[%d]);%n", accessors.get(sqlColumn.field), idIndex - 1);
+                } else
+                    out.printf("        %s.set(t, %s);%n", accessors.get(sqlColumn.field), value);
+            }
+            index++;
+        }
+
+        if (model.primaryKeyType != null)
+            out.println("        EmbeddedIdClass.getObjectsAccessor().set(primaryKey, idValues);");
+        out.println("        return t;");
+        out.println("    }");
+        out.println();
+    }
+
+    /**
+     * Binds the parameters in the same order as DataMapper.prepareCreate
+     */
+    private void writePrepareCreate(PrintWriter out, String entity) {
+        List<SqlColumn> ids = model.ids
+                .stream()
+                .filter(sqlColumn -> !sqlColumn.identity || sqlColumn.isFromParent())
+                .collect(Collectors.toList());
+
+        out.println("    @Override");
+        out.printf("    public JsonArray prepareCreate(%s obj) {%n", entity);
+        out.println("        JsonArray params = new JsonArray();");
+        writeKey(out, ids);
+        ids.forEach(sqlColumn -> writeIdValue(out, sqlColumn));
+        model.columns.forEach(sqlColumn -> writeValue(out, sqlColumn));
+        model.externals.stream().filter(SqlColumn::hasNames).forEach(sqlColumn -> writeValue(out, sqlColumn));
+        out.println("        return params;");
+        out.println("    }");
+        out.println();
+    }
+
+    /**
+     * Binds the parameters in the same order as DataMapper.prepareUpdate
+     */
+    private void writePrepareUpdate(PrintWriter out, String entity) {
+        out.println("    @Override");
+        out.printf("    public JsonArray prepareUpdate(%s obj) {%n", entity);
+        out.println("        JsonArray params = new JsonArray();");
+        writeKey(out, model.ids);
+        model.columns.forEach(sqlColumn -> writeValue(out, sqlColumn));
+        model.externals.stream().filter(SqlColumn::hasNames).forEach(sqlColumn -> writeValue(out, sqlColumn));
+        model.ids.forEach(sqlColumn -> writeIdValue(out, sqlColumn));
+        if (model.versionField != null)
+            out.printf("        add(params, %s);%n", valueOf(model.versionField.field, "obj"));
+        out.println("        return params;");
+        out.println("    }");
+    }
+
+    private void writeKey(PrintWriter out, List<SqlColumn> ids) {
+        if (ids.stream().anyMatch(sqlColumn -> sqlColumn.embeddedId))
+            out.println("        Object key = obj.getIdentityKey();");
+    }
+
+    private void writeIdValue(PrintWriter out, SqlColumn sqlColumn) {
+        if (sqlColumn.embeddedId)
+            out.printf("        add(params, key != null ? %s : null);%n", valueOf(sqlColumn.field, "key"));
+        else
+            out.printf("        add(params, toColumn(%s, obj.getIdentityKey()));%n", converterOf(sqlColumn.field));
+    }
+
+    private void writeValue(PrintWriter out, SqlColumn sqlColumn) {
+        if (sqlColumn.kind == SqlColumn.Kind.EXTERNAL)
+            out.printf("        addForeignKey(params, (Foreign<?, ?>) %s.get(obj), %s.class);%n",
+                    accessors.get(sqlColumn.field), sqlColumn.domainObjectType.getQualifiedName());
+        else
+            out.printf("        add(params, %s);%n", valueOf(sqlColumn.field, "obj"));
+    }
+
+    private String valueOf(VariableElement field, String target) {
+        return String.format("toColumn(%s, %s.get(%s))", converterOf(field), accessors.get(field), target);
+    }
+
+    private String converterOf(VariableElement field) {
+        return accessors.get(field) + "_CONVERTER";
+    }
+
+    /**
+     * Registers a constant named after the field and the class declaring it, e.g. COMPANY_PRIMARY_KEY
+     */
+    private void accessorOf(VariableElement field) {
+        if (accessors.containsKey(field)) return;
+
+        String base = toConstant(field.getEnclosingElement().getSimpleName() + "_" + field.getSimpleName());
+        String constant = base;
+        for (int i = 2; accessors.containsValue(constant); i++)
+            constant = base + i;
+        accessors.put(field, constant);
+    }
+
+    private static String toConstant(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(name.charAt(i - 1)))
+                sb.append('_');
+            sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
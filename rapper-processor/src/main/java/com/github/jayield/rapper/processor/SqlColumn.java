@@ -0,0 +1,78 @@
+package com.github.jayield.rapper.processor;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+
+/**
+ * Compile time counterpart of SqlField, SqlFieldId, SqlFieldVersion and SqlFieldExternal
+ */
+class SqlColumn {
+    enum Kind { ID, COLUMN, VERSION, EXTERNAL }
+
+    static final String SQL_FIELD_EXTERNAL = "SqlFieldExternal";
+
+    final Kind kind;
+    final VariableElement field;
+    final String name;
+    final String selectQueryValue;
+    final boolean identity;
+    final boolean embeddedId;
+    final String[] names;               //Only for externals, the columns where the ID of the external is
+    final TypeElement domainObjectType; //Only for externals with names
+    private boolean fromParent = false;
+
+    private SqlColumn(Kind kind, VariableElement field, String name, String selectQueryValue, boolean identity, boolean embeddedId,
+                      String[] names, TypeElement domainObjectType) {
+        this.kind = kind;
+        this.field = field;
+        this.name = name;
+        this.selectQueryValue = selectQueryValue;
+        this.identity = identity;
+        this.embeddedId = embeddedId;
+        this.names = names;
+        this.domainObjectType = domainObjectType;
+    }
+
+    static SqlColumn id(VariableElement field, String name, String selectQueryValue, boolean identity, boolean embeddedId) {
+        return new SqlColumn(Kind.ID, field, name, selectQueryValue, identity, embeddedId, new String[0], null);
+    }
+
+    static SqlColumn column(VariableElement field, String name, String selectQueryValue) {
+        return new SqlColumn(Kind.COLUMN, field, name, selectQueryValue, false, false, new String[0], null);
+    }
+
+    static SqlColumn version(VariableElement field, String name, String selectQueryValue) {
+        return new SqlColumn(Kind.VERSION, field, name, selectQueryValue, false, false, new String[0], null);
+    }
+
+    static SqlColumn external(VariableElement field, String selectQueryValue, String[] names, TypeElement domainObjectType) {
+        return new SqlColumn(Kind.EXTERNAL, field, SQL_FIELD_EXTERNAL, selectQueryValue, false, false, names, domainObjectType);
+    }
+
+    void setFromParent() {
+        fromParent = true;
+    }
+
+    boolean isFromParent() {
+        return fromParent;
+    }
+
+    boolean hasNames() {
+        return names.length != 0;
+    }
+
+    /**
+     * Same as SqlField.byInsert
+     */
+    int byInsert() {
+        if (kind == Kind.ID) return identity && !fromParent ? 3 : 0;
+        return 2;
+    }
+
+    /**
+     * Same as SqlField.byUpdate
+     */
+    int byUpdate() {
+        return kind == Kind.ID ? 1 : 0;
+    }
+}
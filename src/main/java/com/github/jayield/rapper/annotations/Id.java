@@ -1,5 +1,7 @@
 package com.github.jayield.rapper.annotations;
 
+import com.github.jayield.rapper.mapper.ids.IdGenerator;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -9,4 +11,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Id {
     boolean isIdentity() default false;
+
+    /**
+     * The generator of the ids of the new objects whose id is null or 0, which are given before they're inserted.
+     * IdGenerator itself means the ids aren't generated.
+     */
+    Class<? extends IdGenerator> generator() default IdGenerator.class;
 }
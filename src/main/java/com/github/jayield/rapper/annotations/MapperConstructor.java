@@ -0,0 +1,15 @@
+package com.github.jayield.rapper.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.CONSTRUCTOR)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MapperConstructor {
+
+    //Names of the fields set by each parameter, in the same order as the parameters
+    //If not given, the names of the parameters are used, which requires the class to be compiled with -parameters
+    String[] value() default {};
+}
@@ -8,4 +8,9 @@ import java.lang.annotation.Target;
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Version {
+    /**
+     * Whether the DB leaves the version to the mapper, which then writes 1 on insert and version + 1 on update.
+     * Only used on Dialect.STANDARD, where the version is otherwise read back after each write.
+     */
+    boolean isWrittenByMapper() default false;
 }
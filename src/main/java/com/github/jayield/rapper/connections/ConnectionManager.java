@@ -1,5 +1,6 @@
 package com.github.jayield.rapper.connections;
 
+import com.github.jayield.rapper.sql.Dialect;
 import com.github.jayield.rapper.utils.SqlUtils;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -17,9 +18,11 @@ public class ConnectionManager {
 
     private final JDBCClient client;
     private final String url;
+    private final Dialect dialect;
 
     private ConnectionManager(String url, String user, String password){
         this.url = url;
+        dialect = Dialect.of(url);
         client = getDataSource(url, user, password);
     }
 
@@ -91,4 +94,16 @@ public class ConnectionManager {
     public String getUrl() {
         return url;
     }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return the dialect of the existing ConnectionManager, or the standard one if there's none yet
+     */
+    public static Dialect getCurrentDialect() {
+        ConnectionManager manager = connectionManager;
+        return manager == null ? Dialect.STANDARD : manager.dialect;
+    }
 }
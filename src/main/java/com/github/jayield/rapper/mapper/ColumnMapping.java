@@ -0,0 +1,77 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.sql.SqlField;
+import com.github.jayield.rapper.sql.SqlFieldExternal;
+import com.github.jayield.rapper.utils.SqlUtils;
+import io.vertx.core.json.JsonArray;
+
+import java.util.List;
+
+/**
+ * Where the values of a SqlField are in the rows of a ResultSet.
+ * A SqlField has one column, except for the SqlFieldExternal, which has one column per name.
+ * The index of a column missing from the ResultSet is -1, and its value is read as null, like JsonObject.getValue does.
+ * The fields of an EmbeddedIdClass are set on the primary key of the DomainObject instead of on the DomainObject itself.
+ * When the DomainObject is created through an EntityConstructor, the value of a field that is one of its parameters is passed
+ * to it instead of being set.
+ */
+public class ColumnMapping {
+    private final SqlField sqlField;
+    private final int[] indexes;
+    private final boolean primaryKeyField;
+    private final int parameter;
+    private final int idIndex;
+
+    ColumnMapping(SqlField sqlField, List<String> columnNames, boolean primaryKeyField, int parameter, int idIndex) {
+        this.sqlField = sqlField;
+        this.primaryKeyField = primaryKeyField;
+        this.parameter = parameter;
+        this.idIndex = idIndex;
+
+        String[] names = sqlField instanceof SqlFieldExternal
+                ? ((SqlFieldExternal) sqlField).getNames()
+                : new String[]{sqlField.getName()};
+
+        indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+            indexes[i] = SqlUtils.indexOf(columnNames, names[i]);
+    }
+
+    public SqlField getSqlField() {
+        return sqlField;
+    }
+
+    public boolean isPrimaryKeyField() {
+        return primaryKeyField;
+    }
+
+    /**
+     * @return the index of the parameter of the EntityConstructor that receives the value, or -1 if the value is set on the field
+     */
+    public int getParameter() {
+        return parameter;
+    }
+
+    /**
+     * @return the index of the SqlField in the ids of the DomainObject, or -1 if it isn't an id
+     */
+    public int getIdIndex() {
+        return idIndex;
+    }
+
+    public Object getValue(JsonArray row) {
+        return getValue(row, 0);
+    }
+
+    public Object[] getValues(JsonArray row) {
+        Object[] values = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; i++)
+            values[i] = getValue(row, i);
+        return values;
+    }
+
+    private Object getValue(JsonArray row, int i) {
+        int index = indexes[i];
+        return index != -1 ? row.getValue(index) : null;
+    }
+}
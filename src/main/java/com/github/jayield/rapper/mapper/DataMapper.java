@@ -1,9 +1,17 @@
 package com.github.jayield.rapper.mapper;
 
 import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.connections.ConnectionManager;
+import com.github.jayield.rapper.exceptions.ConcurrencyException;
 import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.conditions.*;
+import com.github.jayield.rapper.mapper.conversions.TypeConverters;
 import com.github.jayield.rapper.mapper.externals.ExternalsHandler;
+import com.github.jayield.rapper.mapper.externals.Foreign;
+import com.github.jayield.rapper.mapper.externals.PopulateSingleReference;
+import com.github.jayield.rapper.mapper.externals.PopulateWithExternalTable;
+import com.github.jayield.rapper.mapper.ids.IdGenerator;
+import com.github.jayield.rapper.sql.Dialect;
 import com.github.jayield.rapper.sql.SqlField;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
 import com.github.jayield.rapper.sql.SqlFieldId;
@@ -12,36 +20,35 @@ import com.github.jayield.rapper.utils.SqlUtils;
 import com.github.jayield.rapper.unitofwork.UnitOfWork;
 import com.github.jayield.rapper.utils.*;
 import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
-import io.vertx.ext.sql.UpdateResult;
+import io.vertx.ext.sql.SQLRowStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import static com.github.jayield.rapper.connections.ConnectionManager.getConnectionManager;
 import static com.github.jayield.rapper.sql.SqlField.*;
 
 public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     private static final String QUERY_ERROR = "Couldn't execute {} on {} on Unit of Work {} due to {}";
     private static final Logger logger = LoggerFactory.getLogger(DataMapper.class);
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final String NO_ROWS_UPDATED = "No rows affected by update, object's version might be wrong";
 
     private final Class<T> type;
     private final ExternalsHandler<T, K> externalsHandler;
     private final MapperSettings mapperSettings;
-    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
     private final UnitOfWork unit;
     private final Comparator<T> comparator;
 
@@ -87,6 +94,290 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return processNewObjects(future);
     }
 
+    @Override
+    public CompletableFuture<List<T>> find(FetchPlan fetchPlan, Condition<?>... values) {
+        CompletableFuture<List<T>> future = fetchPlan.getJoinedFields().isEmpty()
+                ? find(values)
+                : findJoined(fetchPlan.getJoinedFields(), values);
+        return future.thenCompose(ts -> prefetch(fetchPlan.getFields(), ts).thenApply(ignored -> ts));
+    }
+
+    private CompletableFuture<List<T>> findJoined(Set<String> fields, Condition<?>... values) {
+        List<SqlFieldExternal> joined = fields.stream().map(this::getExternal).collect(Collectors.toList());
+        Query query = new Query(mapperSettings.getSelectQuery(), Arrays.stream(values)
+                .filter(condition -> !(condition instanceof OrderCondition))
+                .toArray(Condition[]::new));
+        String orderBy = Arrays.stream(values)
+                .filter(OrderCondition.class::isInstance)
+                .map(condition -> {
+                    String column = condition.getColumnName();
+                    return String.format("M.%s %s", column.substring(column.lastIndexOf('.') + 1), condition.getComparand());
+                })
+                .collect(Collectors.joining(", ", " ORDER BY ", ""));
+        String joinQuery = mapperSettings.getSelectJoinQuery(query.getQueryString(), joined)
+                + (orderBy.equals(" ORDER BY ") ? "" : orderBy);
+
+        return SqlUtils.query(joinQuery, unit, prepareFind(values))
+                .thenCompose(rs -> {
+                    logger.info("Queried database for {}{} joined with {} with Unit of Work {}", type.getSimpleName(), query.getConditions(), fields, unit.hashCode());
+                    return assemble(rs, joined);
+                })
+                .exceptionally(throwable -> {
+                    logger.warn(QUERY_ERROR, "Find", type.getSimpleName(), unit.hashCode(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    private SqlFieldExternal getExternal(String field) {
+        for (Class<?> clazz = type; clazz != Object.class && DomainObject.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            Optional<SqlFieldExternal> external = MapperRegistry.getMapperSettings((Class) clazz)
+                    .getExternals()
+                    .stream()
+                    .filter(sqlFieldExternal -> sqlFieldExternal.getField().getName().equals(field))
+                    .findFirst();
+            if (external.isPresent()) return external.get();
+        }
+        throw new DataMapperException(type.getSimpleName() + " has no reference named " + field);
+    }
+
+    private CompletableFuture<List<T>> assemble(ResultSet rs, List<SqlFieldExternal> joined) {
+        int columns = mapperSettings.getNumberOfSelectColumns();
+        Function<JsonArray, T> rowMapper = rowMapper(rs.getColumnNames().subList(0, columns));
+        Map<Object, T> found = new LinkedHashMap<>();
+        List<Object> rowKeys = new ArrayList<>();
+        for (JsonArray row : rs.getResults()) {
+            T t = rowMapper.apply(slice(row, 0, columns));
+            rowKeys.add(t.getIdentityKey());
+            if (found.putIfAbsent(t.getIdentityKey(), t) == null) handleLoaded(t);
+        }
+        CompletableFuture<List<T>> ts = CollectionUtils.listToCompletableFuture(unit.processNewObjects(type, new ArrayList<>(found.values()), comparator));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int start = columns;
+        for (SqlFieldExternal external : joined) {
+            DataMapper<?, ?> mapper = MapperRegistry.getMapper((Class) external.getDomainObjectType(), unit);
+            futures.add(assembleJoined(rs, start, external, mapper, rowKeys, found.values()));
+            start += mapper.mapperSettings.getNumberOfSelectColumns() + Math.max(external.getNames().length, external.getForeignNames().length);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).thenCompose(ignored -> ts);
+    }
+
+    //The rows where the columns of the join are null have no object of external
+    private <N extends DomainObject<V>, V> CompletableFuture<Void> assembleJoined(ResultSet rs, int start, SqlFieldExternal external, DataMapper<N, V> mapper,
+                                                                                 List<Object> rowKeys, Collection<T> ts) {
+        int columns = mapper.mapperSettings.getNumberOfSelectColumns();
+        Function<JsonArray, N> rowMapper = mapper.rowMapper(rs.getColumnNames().subList(start, start + columns));
+        Map<Object, N> objects = new LinkedHashMap<>();
+        Map<Object, Set<Object>> references = new HashMap<>();
+
+        List<JsonArray> rows = rs.getResults();
+        for (int i = 0; i < rows.size(); i++) {
+            JsonArray row = rows.get(i);
+            if (row.getValue(start + columns) == null) continue;
+
+            N n = rowMapper.apply(slice(row, start, start + columns));
+            if (objects.putIfAbsent(n.getIdentityKey(), n) == null) mapper.handleLoaded(n);
+            references.computeIfAbsent(rowKeys.get(i), key -> new LinkedHashSet<>()).add(n.getIdentityKey());
+        }
+
+        return CollectionUtils.listToCompletableFuture(unit.processNewObjects(mapper.type, new ArrayList<>(objects.values()), mapper.comparator))
+                .thenAccept(merged -> {
+                    if (external.getNames().length != 0) return;
+
+                    Map<Object, N> byKey = new HashMap<>();
+                    merged.forEach(n -> byKey.put(n.getIdentityKey(), n));
+                    ts.forEach(t -> unit.putExternals(external, getIdValues(t), references.getOrDefault(t.getIdentityKey(), Collections.emptySet())
+                            .stream()
+                            .map(byKey::get)
+                            .collect(Collectors.toList())));
+                });
+    }
+
+    private static JsonArray slice(JsonArray row, int from, int to) {
+        return new JsonArray(new ArrayList<>(row.getList().subList(from, to)));
+    }
+
+    private CompletableFuture<Void> prefetch(Set<String> fields, List<? extends T> ts) {
+        Set<String> remaining = new LinkedHashSet<>(fields);
+        List<CompletableFuture<Void>> futures = mapperSettings.getExternals()
+                .stream()
+                .filter(external -> remaining.remove(external.getField().getName()))
+                .map(external -> prefetch(external, ts))
+                .collect(Collectors.toList());
+
+        if (!remaining.isEmpty()) {
+            Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+            futures.add(parentMapper
+                    .map(parent -> parent.prefetch(remaining, ts))
+                    .orElseThrow(() -> new DataMapperException(type.getSimpleName() + " has no reference named " + remaining)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+    }
+
+    private CompletableFuture<Void> prefetch(SqlFieldExternal external, List<? extends T> ts) {
+        if (external.getPopulateStrategy() != PopulateSingleReference.class)
+            return prefetchCollections(external, ts, MapperRegistry.getMapper((Class) external.getDomainObjectType(), unit));
+
+        List<Object> keys = ts.stream()
+                .map(t -> (Foreign<?, ?>) external.getAccessor().get(t))
+                .filter(Objects::nonNull)
+                .map(Foreign::getForeignKey)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        DataMapper<?, Object> mapper = MapperRegistry.getMapper((Class) external.getDomainObjectType(), unit);
+        return mapper.loadByIds(keys);
+    }
+
+    private <N extends DomainObject<V>, V> CompletableFuture<Void> prefetchCollections(SqlFieldExternal external, List<? extends T> ts, DataMapper<N, V> mapper) {
+        Map<List<Object>, List<N>> externals = new LinkedHashMap<>();
+        ts.forEach(t -> externals.putIfAbsent(getIdValues(t), new ArrayList<>()));
+
+        List<SqlFieldId> ids = mapperSettings.getIds();
+        List<List<Object>> idValues = new ArrayList<>(externals.keySet());
+        BiFunction<Integer, Object, Object> fromColumn = (i, value) -> ids.get(i).fromColumn(value);
+        CompletableFuture<Map<List<Object>, List<N>>> future = external.getPopulateStrategy() == PopulateWithExternalTable.class
+                ? mapper.findThroughTable(external, idValues, fromColumn)
+                : mapper.findByColumns(external.getForeignNames(), idValues, fromColumn);
+
+        return future.thenAccept(found -> externals.forEach((key, objects) -> {
+            objects.addAll(found.getOrDefault(key, Collections.emptyList()));
+            unit.putExternals(external, key, objects);
+        }));
+    }
+
+    private List<Object> getIdValues(T t) {
+        Object primaryKey = mapperSettings.getPrimaryKeyType() != null ? mapperSettings.getPrimaryKeyAccessor().get(t) : t;
+        return mapperSettings.getIds()
+                .stream()
+                .map(id -> id.getAccessor().get(primaryKey))
+                .collect(Collectors.toList());
+    }
+
+    private CompletableFuture<Map<List<Object>, List<T>>> findByColumns(String[] columns, List<List<Object>> rows, BiFunction<Integer, Object, Object> fromColumn) {
+        return findGrouped(columns.length, rows, batchSize -> mapperSettings.getSelectByColumnsQuery(Arrays.asList(columns), batchSize), fromColumn);
+    }
+
+    /**
+     * Reads the T's referenced through the relation table of sqlFieldExternal by the objects with idValues
+     */
+    public CompletableFuture<Map<List<Object>, List<T>>> findThroughTable(SqlFieldExternal sqlFieldExternal, List<List<Object>> idValues, BiFunction<Integer, Object, Object> fromColumn) {
+        return findGrouped(sqlFieldExternal.getForeignNames().length, idValues,
+                batchSize -> mapperSettings.getSelectThroughTableQuery(sqlFieldExternal, batchSize), fromColumn);
+    }
+
+    private CompletableFuture<Map<List<Object>, List<T>>> findGrouped(int keyColumns, List<List<Object>> rows, IntFunction<String> query,
+                                                                     BiFunction<Integer, Object, Object> fromColumn) {
+        Map<List<Object>, List<T>> found = new HashMap<>();
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < rows.size(); i += DEFAULT_BATCH_SIZE) {
+            List<List<Object>> batch = rows.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, rows.size()));
+            JsonArray params = batch.stream().flatMap(List::stream).collect(CollectionUtils.toJsonArray());
+
+            future = future.thenCompose(ignored -> SqlUtils.query(query.apply(batch.size()), unit, params))
+                    .thenCompose(rs -> {
+                        int columns = rs.getNumColumns() - keyColumns;
+                        Function<JsonArray, T> rowMapper = rowMapper(rs.getColumnNames().subList(0, columns));
+                        List<List<Object>> keys = new ArrayList<>();
+                        List<T> ts = new ArrayList<>();
+                        for (JsonArray row : rs.getResults()) {
+                            keys.add(IntStream.range(0, keyColumns)
+                                    .mapToObj(index -> fromColumn.apply(index, row.getValue(columns + index)))
+                                    .collect(Collectors.toList()));
+                            T t = rowMapper.apply(slice(row, 0, columns));
+                            handleLoaded(t);
+                            ts.add(t);
+                        }
+                        logger.info("Loaded {} {} for {} rows with Unit of Work {}", ts.size(), type.getSimpleName(), batch.size(), unit.hashCode());
+
+                        return CollectionUtils.listToCompletableFuture(unit.processNewObjects(type, ts, comparator))
+                                .thenAccept(merged -> {
+                                    for (int j = 0; j < merged.size(); j++)
+                                        found.computeIfAbsent(keys.get(j), key -> new ArrayList<>()).add(merged.get(j));
+                                });
+                    });
+        }
+        return future.thenApply(ignored -> found);
+    }
+
+    //The keys of T's that don't exist are left out of the identity map, so findById still tells they're missing
+    private CompletableFuture<Void> loadByIds(List<K> keys) {
+        ConcurrentMap<Object, CompletableFuture<? extends DomainObject>> identityMap = unit.getIdentityMap(type);
+        List<K> missing = keys.stream().filter(k -> !identityMap.containsKey(k)).collect(Collectors.toList());
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < missing.size(); i += DEFAULT_BATCH_SIZE) {
+            List<K> batch = missing.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, missing.size()));
+            future = future.thenCompose(ignored -> findByIds(batch))
+                    .thenAccept(found -> {
+                        logger.info("Prefetched {} {} of {} keys", found.size(), type.getSimpleName(), batch.size());
+                        unit.processNewObjects(type, found, comparator);
+                    });
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<List<T>> findAfter(K lastKey, int pageSize, Condition<?>... values) {
+        Query query = new Query(mapperSettings.getSelectQuery(), lastKey != null, pageSize, values);
+
+        JsonArray params = lastKey != null
+                ? SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), lastKey)
+                : new JsonArray();
+        params.addAll(prepareFind(values));
+
+        CompletableFuture<List<T>> future = findAux(query, params);
+        if (lastKey != null) future = future.thenCompose(ts -> ts.isEmpty() ? checkLastKey(lastKey).thenApply(ignored -> ts) : CompletableFuture.completedFuture(ts));
+        return processNewObjects(future);
+    }
+
+    //If the row of lastKey was removed, the page after it is empty, which would look like the last one
+    private CompletableFuture<Void> checkLastKey(K lastKey) {
+        return SqlUtils.query(mapperSettings.getSelectByIdQuery(), unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), lastKey))
+                .thenAccept(rs -> {
+                    if (rs.getNumRows() == 0)
+                        throw new DataMapperException("The " + type.getSimpleName() + " with the last key " + lastKey + " no longer exists, so the page after it can't be found");
+                });
+    }
+
+    @Override
+    public EntityStream<T> stream(Condition<?>... values) {
+        return stream(0, values);
+    }
+
+    @Override
+    public EntityStream<T> stream(int fetchSize, Condition<?>... values) {
+        Query query = new Query(mapperSettings.getSelectQuery(), values);
+        JsonArray params = prepareFind(values);
+
+        CompletableFuture<SQLRowStream> rowStream = SqlUtils.queryStream(query.getQueryString(), unit, params, fetchSize)
+                .whenComplete((sqlRowStream, throwable) -> {
+                    if (throwable != null)
+                        logger.warn(QUERY_ERROR, "Stream", type.getSimpleName(), unit.hashCode(), throwable.getMessage());
+                    else
+                        logger.info("Streaming {}{} with Unit of Work {}", type.getSimpleName(), query.getConditions(), unit.hashCode());
+                });
+
+        return new EntityStream<>(rowStream, columnNames -> {
+            Function<JsonArray, T> rowMapper = rowMapper(columnNames);
+            return row -> {
+                T t = rowMapper.apply(row);
+                handleExternals(t);
+                return fromIdentityMap(t);
+            };
+        });
+    }
+
+    //stream doesn't put t in the identity map, but if t is already there the newest of the two is returned
+    private T fromIdentityMap(T t) {
+        CompletableFuture<? extends DomainObject> future = unit.getIdentityMap(type).get(t.getIdentityKey());
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) return t;
+
+        T t1 = (T) future.join();
+        return comparator.compare(t1, t) < 0 ? t : t1;
+    }
+
     @Override
     public CompletableFuture<Optional<T>> findById(K id) {
         CompletableFuture<T> completableFuture = unit
@@ -104,57 +395,411 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     }
 
     private CompletableFuture<T> findByIdAux(K id) {
-        String selectByIdQuery = mapperSettings.getSelectByIdQuery();
-        return SqlUtils.query(selectByIdQuery, unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), id))
-                .thenApply(rs -> {
-                    logger.info("Queried database for {} with id {} with Unit of Work {}", type.getSimpleName(), id, unit.hashCode());
-                    Optional<T> optionalT = stream(rs).findFirst();
-                    optionalT.ifPresent(this::handleExternals);
-                    return optionalT;
+        EntityCache<K> cache = MapperRegistry.getCache(type);
+        EntityCache.Row row = cache != null ? cache.get(id) : null;
+        if (row != null) {
+            logger.info("Found {} with id {} in the second-level cache with Unit of Work {}", type.getSimpleName(), id, unit.hashCode());
+            T t = rowMapper(row.getColumnNames()).apply(row.getValues());
+            handleLoaded(t);
+            return CompletableFuture.completedFuture(t);
+        }
+
+        return unit.loadById(type, id, this::readByIds)
+                .thenApply(t -> t.orElseThrow(() -> new DataMapperException(type.getSimpleName() + " was not found")));
+    }
+
+    private CompletableFuture<Map<K, T>> readByIds(List<K> keys) {
+        CompletableFuture<List<T>> future;
+        if (keys.size() == 1) {
+            future = SqlUtils.query(mapperSettings.getSelectByIdQuery(), unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), keys.get(0)))
+                    .thenApply(this::readRows);
+        } else {
+            List<T> found = new ArrayList<>();
+            future = CompletableFuture.completedFuture(found);
+            for (int i = 0; i < keys.size(); i += DEFAULT_BATCH_SIZE) {
+                List<K> batch = keys.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, keys.size()));
+                String query = mapperSettings.getSelectQuery() + " where " + mapperSettings.getIdsInCondition(batch.size(), SqlField::getSelectQueryValue);
+                future = future.thenCompose(ignored -> SqlUtils.query(query, unit, getIdsParams(batch))).thenApply(rs -> {
+                    found.addAll(readRows(rs));
+                    return found;
+                });
+            }
+        }
+
+        return future
+                .thenApply(ts -> {
+                    logger.info("Queried database for {} with ids {} with Unit of Work {}", type.getSimpleName(), keys, unit.hashCode());
+                    Map<K, T> byKey = new HashMap<>();
+                    ts.forEach(t -> byKey.put(t.getIdentityKey(), t));
+                    return byKey;
                 })
                 .exceptionally(throwable -> {
                     logger.warn(QUERY_ERROR, "FindById", type.getSimpleName(), unit.hashCode(), throwable.getMessage());
                     throw new DataMapperException(throwable);
-                })
-                .thenApply(t -> t.orElseThrow(() -> new DataMapperException(type.getSimpleName() + " was not found")));
+                });
+    }
+
+    private List<T> readRows(ResultSet rs) {
+        EntityCache<K> cache = MapperRegistry.getCache(type);
+        Function<JsonArray, T> rowMapper = rowMapper(rs.getColumnNames());
+        List<T> ts = new ArrayList<>();
+        for (JsonArray row : rs.getResults()) {
+            T t = rowMapper.apply(row);
+            handleLoaded(t);
+            if (cache != null) {
+                EntityCache.Row cachedRow = new EntityCache.Row(rs.getColumnNames(), row, t.getVersion());
+                long epoch = unit.getStartEpoch();
+                unit.cacheOnCommit(() -> cache.put(t.getIdentityKey(), cachedRow, epoch));
+            }
+            ts.add(t);
+        }
+        return ts;
     }
 
     @Override
     public CompletableFuture<Void> create(T obj) {
         unit.registerNew(obj);
+        if (unit.defersWrites()) {
+            unit.deferNew(type, obj);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (mapperSettings.getIds().stream().anyMatch(SqlFieldId::isIdentity)) {
+            //The rows of the subtypes need the key the DB generates for the row of the root, so they're inserted one after the other
+            Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+            return parentMapper.map(parent -> parent.create(obj))
+                    .orElse(CompletableFuture.completedFuture(null))
+                    .thenCompose(ignored -> createAux(obj));
+        }
+
+        List<T> objs = Collections.singletonList(obj);
+        return assignHierarchyIds(objs)
+                .thenCompose(ignored -> unit.getConnection())
+                .thenCompose(con -> pipelineCreate(obj));
+    }
+
+    //The connection runs its statements in the order they're submitted, so the rows of the parents are still inserted first
+    private CompletableFuture<Void> pipelineCreate(T obj) {
         Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        CompletableFuture<Void> parentRows = parentMapper.map(parent -> parent.pipelineCreate(obj)).orElse(CompletableFuture.completedFuture(null));
+        return CompletableFuture.allOf(parentRows, createAux(obj));
+    }
 
-        return parentMapper.map(parent -> parent.create(obj))
+    private CompletableFuture<Void> assignHierarchyIds(List<? extends T> objs) {
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        return parentMapper.map(parent -> parent.assignHierarchyIds(objs))
                 .orElse(CompletableFuture.completedFuture(null))
-                .thenCompose(ignored -> createAux(obj));
+                .thenCompose(ignored -> assignIds(objs));
     }
 
     @Override
     public CompletableFuture<Void> createAll(Iterable<T> t) {
-        return reduceCompletableFutures(t, this::create);
+        return createAll(DEFAULT_BATCH_SIZE, t);
+    }
+
+    @Override
+    public CompletableFuture<Void> createAll(int batchSize, Iterable<T> t) {
+        return createAll(batchSize, t, unit.defersWrites());
+    }
+
+    /**
+     * @param defer false to write straight to the DB, as when the unit flushes the writes it deferred
+     */
+    public CompletableFuture<Void> createAll(int batchSize, Iterable<T> t, boolean defer) {
+        if (batchSize <= 0) throw new DataMapperException("The batch size must be positive");
+        List<T> objs = new ArrayList<>();
+        t.forEach(objs::add);
+        if (objs.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        if (defer) {
+            objs.forEach(this::create);
+            return CompletableFuture.completedFuture(null);
+        }
+        return createAllAux(batchSize, objs);
+    }
+
+    //The JDBC client doesn't return the generated keys of a batch, so rows with an identity are inserted one at a time
+    private CompletableFuture<Void> createAllAux(int batchSize, List<? extends T> objs) {
+        objs.forEach(unit::registerNew);
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        Dialect dialect = ConnectionManager.getCurrentDialect();
+
+        boolean identity = mapperSettings.getIds()
+                .stream()
+                .anyMatch(f -> f.isIdentity() && !f.isFromParent());
+        boolean versionsKnown = knowsVersions(dialect, identity);
+
+        return assignIds(objs)
+                .thenCompose(ignored -> parentMapper.map(parent -> parent.createAllAux(batchSize, objs)).orElse(CompletableFuture.completedFuture(null)))
+                .thenCompose(ignored -> identity
+                        ? reduceCompletableFutures(objs, obj -> insert(dialect, obj).thenAccept(version -> {
+                            if (versionsKnown) processWritten(obj, version);
+                        }))
+                        : executeBatches(batchSize, objs, getBatchInsertQuery(dialect), this::prepareCreate, (batch, updateCounts) -> {
+                            if (versionsKnown) batch.forEach(obj -> processWritten(obj, 1));
+                            logger.info("Inserted a batch of {} {}", batch.size(), type.getSimpleName());
+                        }))
+                .thenCompose(ignored -> versionsKnown ? CompletableFuture.completedFuture(null) : refreshVersions(batchSize, objs))
+                .thenAccept(ignored -> logger.info("Created {} new {}", objs.size(), type.getSimpleName()))
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't create {} due to {}", type.getSimpleName(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    //The ids of subtypes come from their parents, so only the mapper of the type that declares them gives them
+    private CompletableFuture<Void> assignIds(List<? extends T> objs) {
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (SqlFieldId id : mapperSettings.getIds()) {
+            IdGenerator<?> generator = id.getGenerator();
+            if (generator == null || id.isFromParent() || !id.getAccessor().isWritable()) continue;
+
+            List<T> withoutId = objs.stream()
+                    .filter(obj -> isUnset(id.getAccessor().get(obj)))
+                    .collect(Collectors.toList());
+            if (withoutId.isEmpty()) continue;
+
+            future = future.thenCompose(ignored -> generator.nextIds(unit, withoutId.size()))
+                    .thenAccept(ids -> {
+                        for (int i = 0; i < withoutId.size(); i++)
+                            id.getAccessor().set(withoutId.get(i), id.fromColumn(ids.get(i)));
+                    });
+        }
+        return future;
+    }
+
+    private static boolean isUnset(Object id) {
+        return id == null || id instanceof Number && ((Number) id).longValue() == 0;
+    }
+
+    private String getBatchInsertQuery(Dialect dialect) {
+        return dialect.returnsVersion() ? mapperSettings.getInsertQuery() : mapperSettings.getInsertQuery(dialect);
+    }
+
+    private CompletableFuture<Long> insert(Dialect dialect, T obj) {
+        String insertQuery = mapperSettings.getInsertQuery(dialect);
+        if (mapperSettings.getVersionField() != null && dialect.returnsVersion()) {
+            return SqlUtils.query(insertQuery, unit, prepareCreate(obj))
+                    .thenApply(rs -> {
+                        JsonArray row = rs.getResults().get(0);
+                        setGeneratedKeys(obj, row);
+                        return row.getLong(row.size() - 1);
+                    });
+        }
+        return SqlUtils.update(insertQuery, unit, prepareCreate(obj))
+                .thenApply(updateResult -> {
+                    setGeneratedKeys(obj, updateResult.getKeys());
+                    return 1L;
+                });
+    }
+
+    //The params of a batch are only prepared after the previous batches, as the ids may come from the parents
+    private CompletableFuture<Void> executeBatches(int batchSize, List<? extends T> objs, String sql, Function<T, JsonArray> prepare,
+                                                   BiConsumer<List<? extends T>, List<Integer>> processBatch) {
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < objs.size(); i += batchSize) {
+            List<? extends T> batch = objs.subList(i, Math.min(i + batchSize, objs.size()));
+            future = future.thenCompose(ignored -> SqlUtils.batch(sql, unit, batch.stream().map(prepare).collect(Collectors.toList())))
+                    .thenAccept(updateCounts -> processBatch.accept(batch, updateCounts));
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> refreshVersions(int batchSize, List<? extends T> objs) {
+        if (mapperSettings.getVersionField() == null) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < objs.size(); i += batchSize) {
+            List<? extends T> batch = objs.subList(i, Math.min(i + batchSize, objs.size()));
+            future = future.thenCompose(ignored -> findByIds(batch.stream().map(DomainObject::getIdentityKey).collect(Collectors.toList())))
+                    .thenAccept(found -> {
+                        Map<Object, T> byKey = new HashMap<>();
+                        found.forEach(item -> {
+                            unit.invalidate(type, item.getIdentityKey());
+                            byKey.put(item.getIdentityKey(), item);
+                        });
+                        unit.processNewObjects(type, found, comparator);
+                        batch.forEach(obj -> {
+                            T item = byKey.get(obj.getIdentityKey());
+                            if (item != null) setVersion(obj, item.getVersion());
+                        });
+                    });
+        }
+        return future;
+    }
+
+    private CompletableFuture<List<T>> findByIds(List<K> keys) {
+        String query = mapperSettings.getSelectQuery() + " where " + mapperSettings.getIdsInCondition(keys.size(), SqlField::getSelectQueryValue);
+        return SqlUtils.query(query, unit, getIdsParams(keys))
+                .thenApply(rs -> stream(rs).peek(this::handleLoaded).collect(Collectors.toList()));
     }
 
     @Override
     public CompletableFuture<Void> update(T obj) {
         unit.registerDirty(obj);
-        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        if (unit.defersWrites()) {
+            unit.deferDirty(type, obj);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!getParentMapper().isPresent()) return updateAux(obj);
+        return unit.getConnection().thenCompose(con -> pipelineUpdate(obj));
+    }
 
-        if (parentMapper.isPresent()) {
-            return parentMapper
-                    .get()
-                    .update(obj)
-                    .thenCompose(ignored -> updateAux(obj));
-        } else
-            return updateAux(obj);
+    //If a version is stale, the rows of the other tables may have been updated, so the unit must be rolled back
+    private CompletableFuture<Void> pipelineUpdate(T obj) {
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        CompletableFuture<Void> parentRows = parentMapper.map(parent -> parent.pipelineUpdate(obj)).orElse(CompletableFuture.completedFuture(null));
+        return CompletableFuture.allOf(parentRows, updateAux(obj));
     }
 
     @Override
     public CompletableFuture<Void> updateAll(Iterable<T> t) {
-        return reduceCompletableFutures(t, this::update);
+        return updateAll(DEFAULT_BATCH_SIZE, t);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAll(int batchSize, Iterable<T> t) {
+        return updateAll(batchSize, t, unit.defersWrites());
+    }
+
+    /**
+     * @param defer false to write straight to the DB, as when the unit flushes the writes it deferred
+     */
+    public CompletableFuture<Void> updateAll(int batchSize, Iterable<T> t, boolean defer) {
+        if (batchSize <= 0) throw new DataMapperException("The batch size must be positive");
+        List<T> objs = new ArrayList<>();
+        t.forEach(objs::add);
+        if (objs.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        if (defer) {
+            objs.forEach(this::update);
+            return CompletableFuture.completedFuture(null);
+        }
+        return updateAllAux(batchSize, objs);
+    }
+
+    private CompletableFuture<Void> updateAllAux(int batchSize, List<? extends T> objs) {
+        objs.forEach(unit::registerDirty);
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+
+        return parentMapper.map(parent -> parent.updateAllAux(batchSize, objs))
+                .orElse(CompletableFuture.completedFuture(null))
+                .thenCompose(ignored -> updateChangedColumns(batchSize, objs))
+                .thenAccept(updated -> logger.info("Updated {} {}", updated.size(), type.getSimpleName()))
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't update {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof ConcurrencyException) throw (ConcurrencyException) cause;
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    private CompletableFuture<List<T>> updateChangedColumns(int batchSize, List<? extends T> objs) {
+        Dialect dialect = ConnectionManager.getCurrentDialect();
+        boolean versionsKnown = knowsVersions(dialect, false);
+
+        //The objects without snapshot are under null, so all their columns are set
+        Map<BitSet, List<T>> byChangedColumns = new LinkedHashMap<>();
+        for (T obj : objs) {
+            BitSet changedColumns = getChangedColumns(obj, prepareUpdate(obj));
+            if (changedColumns == null || !changedColumns.isEmpty())
+                byChangedColumns.computeIfAbsent(changedColumns, k -> new ArrayList<>()).add(obj);
+        }
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (Map.Entry<BitSet, List<T>> entry : byChangedColumns.entrySet()) {
+            BitSet changedColumns = entry.getKey();
+            String updateQuery = dialect.returnsVersion() ? getUpdateQuery(changedColumns) : mapperSettings.getUpdateQuery(dialect, changedColumns);
+            future = future.thenCompose(ignored -> executeBatches(batchSize, entry.getValue(), updateQuery,
+                    obj -> getUpdateParams(prepareUpdate(obj), changedColumns), (batch, updateCounts) -> {
+                        processUpdateBatch(batch, updateCounts);
+                        if (versionsKnown) batch.forEach(obj -> processWritten(obj, getNextVersion(obj)));
+                    }));
+        }
+
+        List<T> updated = byChangedColumns.values().stream().flatMap(List::stream).collect(Collectors.toList());
+        return future
+                .thenCompose(ignored -> versionsKnown ? CompletableFuture.completedFuture(null) : refreshVersions(batchSize, updated))
+                .thenApply(ignored -> {
+                    if (!versionsKnown) updated.forEach(obj -> unit.snapshot(type, obj.getIdentityKey(), getColumnValues(prepareUpdate(obj))));
+                    return updated;
+                });
+    }
+
+    private void processUpdateBatch(List<? extends T> batch, List<Integer> updateCounts) {
+        List<K> stale = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (updateCounts.get(i) == 0) stale.add(batch.get(i).getIdentityKey());
+        }
+        if (!stale.isEmpty())
+            throw new ConcurrencyException("No rows affected by the update of " + type.getSimpleName() + " with ids " + stale + ", their versions might be wrong");
+    }
+
+    @Override
+    public CompletableFuture<Void> upsert(T obj) {
+        return upsertAll(DEFAULT_BATCH_SIZE, Collections.singletonList(obj));
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAll(Iterable<T> t) {
+        return upsertAll(DEFAULT_BATCH_SIZE, t);
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAll(int batchSize, Iterable<T> t) {
+        return upsertAll(batchSize, t, unit.defersWrites());
+    }
+
+    /**
+     * @param defer false to write straight to the DB, as when the unit flushes the writes it deferred
+     */
+    public CompletableFuture<Void> upsertAll(int batchSize, Iterable<T> t, boolean defer) {
+        if (batchSize <= 0) throw new DataMapperException("The batch size must be positive");
+        if (mapperSettings.getIds().stream().anyMatch(SqlFieldId::isIdentity))
+            throw new DataMapperException("The keys of " + type.getSimpleName() + " are generated by the DB, so it can't be upserted");
+        List<T> objs = new ArrayList<>();
+        t.forEach(objs::add);
+        if (objs.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        if (defer) {
+            objs.forEach(obj -> {
+                unit.registerDirty(obj);
+                unit.deferUpsert(type, obj);
+            });
+            return CompletableFuture.completedFuture(null);
+        }
+        return upsertAllAux(batchSize, objs);
+    }
+
+    //Whether each row was inserted or updated isn't known, so the new versions are read back
+    private CompletableFuture<Void> upsertAllAux(int batchSize, List<? extends T> objs) {
+        objs.forEach(unit::registerDirty);
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        Dialect dialect = ConnectionManager.getCurrentDialect();
+        String upsertQuery = mapperSettings.getUpsertQuery(dialect);
+
+        return parentMapper.map(parent -> parent.upsertAllAux(batchSize, objs))
+                .orElse(CompletableFuture.completedFuture(null))
+                .thenCompose(ignored -> executeBatches(batchSize, objs, upsertQuery, obj -> prepareUpsert(dialect, obj),
+                        (batch, updateCounts) -> logger.info("Upserted a batch of {} {}", batch.size(), type.getSimpleName())))
+                .thenCompose(ignored -> refreshVersions(batchSize, objs))
+                .thenAccept(ignored -> {
+                    objs.forEach(obj -> unit.snapshot(type, obj.getIdentityKey(), getColumnValues(prepareUpdate(obj))));
+                    logger.info("Upserted {} {}", objs.size(), type.getSimpleName());
+                })
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't upsert {} due to {}", type.getSimpleName(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
     }
 
     @Override
     public CompletableFuture<Void> deleteById(K k) {
+        if (unit.defersWrites()) {
+            registerRemoved(Collections.singletonList(k));
+            unit.deferRemovedKey(type, k);
+            return CompletableFuture.completedFuture(null);
+        }
+
         CompletableFuture<? extends DomainObject> future = unit.getIdentityMap(type).computeIfPresent(k, (key, tCompletableFuture) -> tCompletableFuture.thenApply(t -> {
             unit.registerRemoved(t);
             return t;
@@ -169,13 +814,8 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     }
 
     private CompletableFuture<Void> deleteByIdAux(K k) {
-        return SqlUtils.update(mapperSettings.getDeleteQuery(), unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), k))
-                .thenCompose(updateResult -> {
-                    logger.info("Deleted {} with id {} with Unit of Work {}", type.getSimpleName(), k, unit.hashCode());
-                    return getParentMapper()
-                            .map(objectDataMapper -> objectDataMapper.deleteById(k))
-                            .orElse(CompletableFuture.completedFuture(null));
-                })
+        return unit.getConnection()
+                .thenCompose(con -> pipelineDelete(k))
                 .exceptionally(throwable -> {
                     logger.warn("Couldn't deleteById {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
                     throw new DataMapperException(throwable);
@@ -185,24 +825,184 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     @Override
     public CompletableFuture<Void> delete(T obj) {
         unit.registerRemoved(obj);
-        return SqlUtils.update(mapperSettings.getDeleteQuery(), unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), obj))
-                .thenCompose(updateResult -> {
-                    logger.info("Deleted {} with id {} with Unit of Work {}", type.getSimpleName(), obj.getIdentityKey(), unit.hashCode());
+        if (unit.defersWrites()) {
+            unit.deferRemoved(type, obj);
+            return CompletableFuture.completedFuture(null);
+        }
+        return unit.getConnection()
+                .thenCompose(con -> pipelineDelete(obj.getIdentityKey()))
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't delete {} due to {}", type.getSimpleName(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    private CompletableFuture<Void> pipelineDelete(K k) {
+        unit.evict(type, k);
+        CompletableFuture<Void> row = SqlUtils.update(mapperSettings.getDeleteQuery(), unit, SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), k))
+                .thenAccept(updateResult -> logger.info("Deleted {} with id {} with Unit of Work {}", type.getSimpleName(), k, unit.hashCode()));
+
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        return parentMapper
+                .map(parent -> {
+                    parent.registerRemoved(Collections.singletonList(k));
+                    return CompletableFuture.allOf(row, parent.pipelineDelete(k));
+                })
+                .orElse(row);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll(Iterable<K> keys) {
+        return deleteAll(keys, unit.defersWrites());
+    }
+
+    /**
+     * @param defer false to write straight to the DB, as when the unit flushes the writes it deferred
+     */
+    public CompletableFuture<Void> deleteAll(Iterable<K> keys, boolean defer) {
+        Set<K> keySet = new LinkedHashSet<>();
+        keys.forEach(keySet::add);
+        if (keySet.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        if (defer) {
+            keySet.forEach(this::deleteById);
+            return CompletableFuture.completedFuture(null);
+        }
+        return deleteAllAux(new ArrayList<>(keySet));
+    }
+
+    //The objects that aren't in the identity map aren't read first, since a rollback has nothing to put back for them
+    private CompletableFuture<Void> deleteAllAux(List<? extends K> keys) {
+        registerRemoved(keys);
+        keys.forEach(k -> unit.evict(type, k));
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < keys.size(); i += DEFAULT_BATCH_SIZE) {
+            List<? extends K> batch = keys.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, keys.size()));
+            String deleteQuery = "delete from " + type.getSimpleName() + " where " + mapperSettings.getIdsInCondition(batch.size(), SqlField::getName);
+            future = future.thenCompose(ignored -> SqlUtils.update(deleteQuery, unit, getIdsParams(batch)))
+                    .thenAccept(updateResult -> {
+                        if (updateResult.getUpdated() < batch.size())
+                            throw new DataMapperException((batch.size() - updateResult.getUpdated()) + " objects to delete were not found");
+                    });
+        }
+
+        return future
+                .thenCompose(ignored -> {
+                    logger.info("Deleted {} {} with Unit of Work {}", keys.size(), type.getSimpleName(), unit.hashCode());
                     return getParentMapper()
-                            .map(objectDataMapper -> objectDataMapper.delete(obj))
+                            .map(parentMapper -> parentMapper.deleteAllAux(keys))
                             .orElse(CompletableFuture.completedFuture(null));
                 })
                 .exceptionally(throwable -> {
-                    logger.warn("Couldn't delete {} due to {}", type.getSimpleName(), throwable.getMessage());
+                    logger.warn("Couldn't deleteAll {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
                     throw new DataMapperException(throwable);
                 });
     }
 
     @Override
-    public CompletableFuture<Void> deleteAll(Iterable<K> keys) {
-        List<CompletableFuture<Void>> completableFutures = new ArrayList<>();
-        keys.forEach(k -> completableFutures.add(deleteById(k)));
-        return CompletableFuture.allOf(completableFutures.toArray(new CompletableFuture[completableFutures.size()]));
+    public CompletableFuture<Integer> updateWhere(Map<String, Object> assignments, Condition<?>... values) {
+        if (assignments.isEmpty()) throw new DataMapperException("There are no columns to update");
+        checkWhereConditions(values);
+        List<String> updateColumns = mapperSettings.getUpdateColumns();
+        List<String> columns = new ArrayList<>();
+        JsonArray params = new JsonArray();
+        assignments.forEach((column, value) -> {
+            String updateColumn = updateColumns.stream()
+                    .filter(column::equalsIgnoreCase)
+                    .findFirst()
+                    .orElseThrow(() -> new DataMapperException(column + " isn't a column of " + type.getSimpleName() + " that can be updated"));
+            columns.add(updateColumn);
+            params.add(value == null ? null : toColumn(value));
+        });
+        params.addAll(prepareFind(values));
+
+        String updateQuery = mapperSettings.getUpdateSetQuery(ConnectionManager.getCurrentDialect(), columns) + getWhereClause(values);
+        return unit.flush()
+                .thenCompose(ignored -> SqlUtils.update(updateQuery, unit, params))
+                .thenApply(updateResult -> {
+                    unit.invalidate(type);
+                    logger.info("Updated {} {}{} with Unit of Work {}", updateResult.getUpdated(), type.getSimpleName(), getWhereClause(values), unit.hashCode());
+                    return updateResult.getUpdated();
+                })
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't updateWhere {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    //Once the row of a subtype is removed, the rows of its parents can't be matched by values, so its keys are read first
+    @Override
+    public CompletableFuture<Integer> deleteWhere(Condition<?>... values) {
+        checkWhereConditions(values);
+        if (getParentMapper().isPresent()) {
+            return unit.flush()
+                    .thenCompose(ignored -> SqlUtils.query(getSelectIdsQuery() + new Query("", values).getConditions(), unit, prepareFind(values)))
+                    .thenCompose(rs -> {
+                        List<K> keys = rs.getResults().stream().map(this::toKey).collect(Collectors.toList());
+                        if (keys.isEmpty()) return CompletableFuture.completedFuture(0);
+                        return deleteAllAux(keys).thenApply(ignored -> {
+                            unit.invalidate(type);
+                            return keys.size();
+                        });
+                    });
+        }
+
+        String deleteQuery = "delete from " + type.getSimpleName() + getWhereClause(values);
+        return unit.flush()
+                .thenCompose(ignored -> SqlUtils.update(deleteQuery, unit, prepareFind(values)))
+                .thenApply(updateResult -> {
+                    unit.invalidate(type);
+                    logger.info("Deleted {} {}{} with Unit of Work {}", updateResult.getUpdated(), type.getSimpleName(), getWhereClause(values), unit.hashCode());
+                    return updateResult.getUpdated();
+                })
+                .exceptionally(throwable -> {
+                    logger.warn("Couldn't deleteWhere {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
+                    throw new DataMapperException(throwable);
+                });
+    }
+
+    private K toKey(JsonArray idValues) {
+        List<SqlFieldId> ids = mapperSettings.getIds();
+        Object[] values = new Object[ids.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = ids.get(i).fromColumn(idValues.getValue(i));
+        return (K) (mapperSettings.getPrimaryKeyType() != null ? mapperSettings.newPrimaryKey(values) : values[0]);
+    }
+
+    private static void checkWhereConditions(Condition<?>[] values) {
+        if (Arrays.stream(values).anyMatch(OrderCondition.class::isInstance))
+            throw new DataMapperException("The rows to write can't be ordered");
+    }
+
+    //With parents, the columns of values may be in their tables, so the ids are matched against the ones selected by values
+    private String getWhereClause(Condition<?>[] values) {
+        Query query = new Query("", values);
+        if (!getParentMapper().isPresent()) return query.getConditions();
+
+        List<SqlFieldId> ids = mapperSettings.getIds();
+        String columns = ids.stream().map(SqlField::getName).collect(Collectors.joining(", "));
+        return String.format(ids.size() == 1 ? " where %s in (%s)" : " where (%s) in (%s)", columns, getSelectIdsQuery() + query.getConditions());
+    }
+
+    private String getSelectIdsQuery() {
+        return mapperSettings.getIds().stream()
+                .map(SqlField::getSelectQueryValue)
+                .collect(Collectors.joining(", ", "select ", mapperSettings.getFromClause()));
+    }
+
+    private void registerRemoved(List<? extends K> keys) {
+        ConcurrentMap<Object, CompletableFuture<? extends DomainObject>> identityMap = unit.getIdentityMap(type);
+        keys.forEach(k -> identityMap.computeIfPresent(k, (key, tCompletableFuture) -> tCompletableFuture.thenApply(t -> {
+            unit.registerRemoved(t);
+            return t;
+        })));
+    }
+
+    private JsonArray getIdsParams(List<? extends K> keys) {
+        JsonArray params = new JsonArray();
+        keys.forEach(key -> params.addAll(SqlUtils.getValuesForStatement(mapperSettings.getIds().stream(), key)));
+        return params;
     }
 
     private void handleExternals(T t) {
@@ -211,8 +1011,73 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
         externalsHandler.populateExternals(t);
     }
 
+    private void handleLoaded(T t) {
+        handleExternals(t);
+        snapshot(t);
+    }
+
+    //The values bound to the update query, so comparing them with the ones of a later update tells the columns that changed
+    private void snapshot(T t) {
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        parentMapper.ifPresent(mapper -> mapper.snapshot(t));
+        unit.snapshot(type, t.getIdentityKey(), getColumnValues(prepareUpdate(t)));
+    }
+
+    /**
+     * @return if the columns of obj changed since the unit last read or wrote it, false if it has no snapshot
+     */
+    public boolean hasChanges(T obj) {
+        BitSet changedColumns = getChangedColumns(obj, prepareUpdate(obj));
+        if (changedColumns != null && !changedColumns.isEmpty()) return true;
+
+        Optional<DataMapper<? super T, ? super K>> parentMapper = getParentMapper();
+        return parentMapper.map(mapper -> mapper.hasChanges(obj)).orElse(false);
+    }
+
+    //The version, if there's one, follows the values of the columns
+    private Object[] getColumnValues(JsonArray updateParams) {
+        List<Object> params = updateParams.getList();
+        List<Object> values = new ArrayList<>(params.subList(0, mapperSettings.getUpdateColumns().size()));
+        if (mapperSettings.getVersionField() != null) values.add(params.get(params.size() - 1));
+        return values.toArray();
+    }
+
+    /**
+     * @return the update columns that changed since the snapshot, or null to set all of them, when there's no snapshot
+     * or when none changed but the version did, so the update still checks it
+     */
+    private BitSet getChangedColumns(T obj, JsonArray updateParams) {
+        Object[] snapshot = unit.getSnapshot(type, obj.getIdentityKey());
+        if (snapshot == null) return null;
+
+        Object[] values = getColumnValues(updateParams);
+        int columns = mapperSettings.getUpdateColumns().size();
+        BitSet changed = new BitSet(columns);
+        for (int i = 0; i < columns; i++) {
+            if (!Objects.deepEquals(values[i], snapshot[i])) changed.set(i);
+        }
+        if (changed.isEmpty() && values.length > columns && !Objects.equals(values[columns], snapshot[columns])) return null;
+        return changed;
+    }
+
+    private String getUpdateQuery(BitSet changedColumns) {
+        return changedColumns == null ? mapperSettings.getUpdateQuery() : mapperSettings.getUpdateQuery(changedColumns);
+    }
+
+    private JsonArray getUpdateParams(JsonArray updateParams, BitSet changedColumns) {
+        if (changedColumns == null) return updateParams;
+
+        List<Object> values = updateParams.getList();
+        List<Object> params = changedColumns.stream().mapToObj(values::get).collect(Collectors.toList());
+        params.addAll(values.subList(mapperSettings.getUpdateColumns().size(), values.size()));
+        return new JsonArray(params);
+    }
+
     private CompletableFuture<List<T>> findAux(Query query, Condition<?>[] values) {
-        JsonArray params = prepareFind(values);
+        return findAux(query, prepareFind(values));
+    }
+
+    private CompletableFuture<List<T>> findAux(Query query, JsonArray params) {
         return SqlUtils.query(query.getQueryString(), unit, params)
                 .thenApply(resultSet -> processFind(resultSet, query.getConditions(), params))
                 .exceptionally(throwable -> {
@@ -222,38 +1087,80 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     }
 
     private JsonArray prepareFind(Condition<?>[] values) {
-        return Arrays.stream(values).map(Condition::getValue).filter(Objects::nonNull).collect(CollectionUtils.toJsonArray());
+        return Arrays.stream(values)
+                .map(Condition::getValue)
+                .filter(Objects::nonNull)
+                .map(DataMapper::toColumn)
+                .collect(CollectionUtils.toJsonArray());
+    }
+
+    private static Object toColumn(Object value) {
+        Class<?> valueType = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+        return TypeConverters.toColumn(MapperRegistry.getTypeConverter(valueType), value);
     }
 
     private List<T> processFind(ResultSet resultSet, String conditions, JsonArray params) {
         for (int i = 0; i < params.size(); i++) conditions = conditions.replaceFirst("\\?", params.getValue(i).toString());
         logger.info("Queried database for {}{} with Unit of Work {}", type.getSimpleName(), conditions, unit.hashCode());
-        return stream(resultSet).peek(this::handleExternals).collect(Collectors.toList());
+        return stream(resultSet).peek(this::handleLoaded).collect(Collectors.toList());
     }
 
     private CompletableFuture<Void> createAux(T obj) {
-        return SqlUtils.update(mapperSettings.getInsertQuery(), unit, prepareCreate(obj))
-                .thenCompose(updateResult -> processCreate(obj, updateResult))
-                .thenAccept(result -> {
-                    result.ifPresent(item -> setVersion(obj, item.getVersion()));
-                    logger.info("Created new {}", type.getSimpleName());
-                })
+        Dialect dialect = ConnectionManager.getCurrentDialect();
+        return insert(dialect, obj)
+                .thenCompose(version -> processWrite(dialect, obj, version))
+                .thenAccept(ignored -> logger.info("Created new {}", type.getSimpleName()))
                 .exceptionally(throwable -> {
                     logger.warn("Couldn't create {} due to {}", type.getSimpleName(), throwable.getMessage());
                     throw new DataMapperException(throwable);
                 });
     }
 
-    private CompletionStage<Optional<T>> processCreate(T obj, UpdateResult ur) {
-        setGeneratedKeys(obj, ur.getKeys());
+    private CompletableFuture<Void> processWrite(Dialect dialect, T obj, long version) {
+        if (knowsVersions(dialect, true)) {
+            processWritten(obj, version);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (isVersionWritable()) return refreshVersions(1, Collections.singletonList(obj));
+        unit.invalidate(type, obj.getIdentityKey());
+        return findById(obj.getIdentityKey()).thenAccept(ignored -> { });
+    }
+
+    private void processWritten(T obj, long version) {
         if (mapperSettings.getVersionField() != null) {
-            unit.invalidate(type, obj.getIdentityKey());
-            return this.findById(obj.getIdentityKey());
+            setVersion(obj, version);
+            unit.getIdentityMap(type).put(obj.getIdentityKey(), CompletableFuture.completedFuture(obj));
         }
-        return CompletableFuture.completedFuture(Optional.of(obj));
+        unit.snapshot(type, obj.getIdentityKey(), getColumnValues(prepareUpdate(obj)));
+    }
+
+    /**
+     * @param returned if the statement was executed as a query, so it returned the new version on the dialects that can
+     * @return if the new versions are known without reading them back
+     */
+    private boolean knowsVersions(Dialect dialect, boolean returned) {
+        return isVersionWritable() && (mapperSettings.getVersionField() == null
+                || returned && dialect.returnsVersion() || mapperSettings.writesVersions(dialect));
+    }
+
+    private boolean isVersionWritable() {
+        SqlFieldVersion versionField = mapperSettings.getVersionField();
+        return versionField == null || versionField.getAccessor().isWritable();
+    }
+
+    private long getVersion(T obj) {
+        //Since each object has its own version, we want the version from type not from the subClass
+        return ((FieldAccessor.LongAccessor) mapperSettings.getVersionField().getAccessor()).getLong(obj);
+    }
+
+    private long getNextVersion(T obj) {
+        return mapperSettings.getVersionField() == null ? 0 : getVersion(obj) + 1;
     }
 
     private JsonArray prepareCreate(T obj) {
+        GeneratedMapper<T, K> generatedMapper = getGeneratedMapper();
+        if (generatedMapper != null) return generatedMapper.prepareCreate(obj);
+
         Stream<SqlFieldId> ids = mapperSettings
                 .getIds()
                 .stream()
@@ -272,55 +1179,76 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return SqlUtils.getValuesForStatement(fields, obj);
     }
 
+    //On the dialects that merge, the params of the insert are preceded by the ids and the values of the update columns
+    private JsonArray prepareUpsert(Dialect dialect, T obj) {
+        JsonArray createParams = prepareCreate(obj);
+        if (dialect == Dialect.POSTGRESQL) return createParams;
+
+        List<Object> updateParams = prepareUpdate(obj).getList();
+        int columns = mapperSettings.getUpdateColumns().size();
+        int ids = updateParams.size() - columns - (mapperSettings.getVersionField() == null ? 0 : 1);
+
+        List<Object> params = new ArrayList<>(updateParams.subList(columns, columns + ids));
+        params.addAll(updateParams.subList(0, columns));
+        params.addAll(createParams.getList());
+        return new JsonArray(params);
+    }
+
+    //If obj was read by the unit, only the columns that changed since then are set
     private CompletableFuture<Void> updateAux(T obj) {
-        return SqlUtils.update(mapperSettings.getUpdateQuery(), unit, prepareUpdate(obj))
-                .thenCompose(updateResult -> processUpdate(obj, updateResult))
-                .thenAccept(result -> {
-                    result.ifPresent(item -> setVersion(obj, item.getVersion()));
-                    logger.info("Updated {} with id {}", type.getSimpleName(), obj.getIdentityKey());
-                })
+        JsonArray updateParams = prepareUpdate(obj);
+        BitSet changedColumns = getChangedColumns(obj, updateParams);
+        if (changedColumns != null && changedColumns.isEmpty()) {
+            logger.info("Skipped the update of {} with id {}, none of its columns changed", type.getSimpleName(), obj.getIdentityKey());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Dialect dialect = ConnectionManager.getCurrentDialect();
+        return updateRow(dialect, obj, changedColumns, updateParams)
+                .thenCompose(version -> processWrite(dialect, obj, version))
+                .thenAccept(ignored -> logger.info("Updated {} with id {}", type.getSimpleName(), obj.getIdentityKey()))
                 .exceptionally(throwable -> {
                     logger.warn("Couldn't update {}. \nReason: {}", type.getSimpleName(), throwable.getMessage());
                     throw new DataMapperException(throwable);
                 });
     }
 
-    private CompletableFuture<Optional<T>> processUpdate(T obj, UpdateResult ur) {
-        int updateCount = ur.getUpdated();
-        if (updateCount == 0) throw new DataMapperException("No rows affected by update, object's version might be wrong");
-        if (mapperSettings.getVersionField() != null) {
-            unit.invalidate(type, obj.getIdentityKey());
-            return this.findById(obj.getIdentityKey());
+    private CompletableFuture<Long> updateRow(Dialect dialect, T obj, BitSet changedColumns, JsonArray updateParams) {
+        String updateQuery = mapperSettings.getUpdateQuery(dialect, changedColumns);
+        JsonArray params = getUpdateParams(updateParams, changedColumns);
+        if (mapperSettings.getVersionField() != null && dialect.returnsVersion()) {
+            return SqlUtils.query(updateQuery, unit, params)
+                    .thenApply(rs -> {
+                        if (rs.getNumRows() == 0) throw new DataMapperException(NO_ROWS_UPDATED);
+                        return rs.getResults().get(0).getLong(0);
+                    });
         }
-        return CompletableFuture.completedFuture(Optional.of(obj));
+        return SqlUtils.update(updateQuery, unit, params)
+                .thenApply(updateResult -> {
+                    if (updateResult.getUpdated() == 0) throw new DataMapperException(NO_ROWS_UPDATED);
+                    return getNextVersion(obj);
+                });
     }
 
     private JsonArray prepareUpdate(T obj) {
-        try {
-            Stream<SqlFieldId> ids = mapperSettings.getIds().stream();
-            Stream<SqlField> columns = mapperSettings.getColumns().stream();
-            Stream<SqlFieldExternal> externals = mapperSettings
-                    .getExternals()
-                    .stream()
-                    .filter(sqlFieldExternal -> sqlFieldExternal.getNames().length != 0);
+        GeneratedMapper<T, K> generatedMapper = getGeneratedMapper();
+        if (generatedMapper != null) return generatedMapper.prepareUpdate(obj);
+
+        Stream<SqlFieldId> ids = mapperSettings.getIds().stream();
+        Stream<SqlField> columns = mapperSettings.getColumns().stream();
+        Stream<SqlFieldExternal> externals = mapperSettings
+                .getExternals()
+                .stream()
+                .filter(sqlFieldExternal -> sqlFieldExternal.getNames().length != 0);
 
-            Stream<SqlField> fields = Stream.concat(Stream.concat(ids, columns), externals)
-                    .sorted(Comparator.comparing(SqlField::byUpdate));
+        Stream<SqlField> fields = Stream.concat(Stream.concat(ids, columns), externals)
+                .sorted(Comparator.comparing(SqlField::byUpdate));
 
-            JsonArray jsonArray = SqlUtils.getValuesForStatement(fields, obj);
+        JsonArray jsonArray = SqlUtils.getValuesForStatement(fields, obj);
 
-            //Since each object has its own version, we want the version from type not from the subClass
-            SqlFieldVersion versionField = mapperSettings.getVersionField();
-            if(versionField != null) {
-                Field f = versionField.getField();
-                f.setAccessible(true);
-                long version = (long) f.get(obj);
-                jsonArray.add(version);
-            }
-            return jsonArray;
-        } catch ( IllegalAccessException e) {
-            throw new DataMapperException(e);
-        }
+        if(mapperSettings.getVersionField() != null)
+            jsonArray.add(getVersion(obj));
+        return jsonArray;
     }
 
     private CompletableFuture<List<T>> processNewObjects(CompletableFuture<List<T>> future) {
@@ -335,42 +1263,52 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     }
 
     private Stream<T> stream(ResultSet rs) {
-        return rs.getRows(true).stream().map(this::mapper);
+        return rs.getResults().stream().map(rowMapper(rs.getColumnNames()));
     }
 
-    private T mapper(JsonObject rs) {
-        try {
-            T t = (T) mapperSettings.getConstructor().newInstance();
-            Constructor primaryKeyConstructor = mapperSettings.getPrimaryKeyConstructor();
-            Object primaryKey = primaryKeyConstructor != null ? primaryKeyConstructor.newInstance() : null;
-            Class<?> primaryKeyType = mapperSettings.getPrimaryKeyType();
+    private Function<JsonArray, T> rowMapper(List<String> columnNames) {
+        GeneratedMapper<T, K> generatedMapper = getGeneratedMapper();
+        if (generatedMapper != null)
+            return row -> mapGenerated(generatedMapper, row);
 
-            //Set t's primary key field to primaryKey if its a composed primary key
-            if (primaryKey != null) {
-                Arrays.stream(type.getDeclaredFields())
-                        .filter(field -> field.getType() == primaryKeyType)
-                        .findFirst()
-                        .ifPresent(field -> {
-                            try {
-                                field.setAccessible(true);
-                                field.set(t, primaryKey);
-                            } catch (IllegalAccessException e) {
-                                throw new DataMapperException(e);
-                            }
-                        });
-            }
+        List<ColumnMapping> rowPlan = mapperSettings.getRowPlan(columnNames);
+        return row -> mapper(rowPlan, row);
+    }
+
+    private GeneratedMapper<T, K> getGeneratedMapper() {
+        return (GeneratedMapper<T, K>) mapperSettings.getGeneratedMapper();
+    }
 
+    //The columns of the external references are the last ones of the select query, in the same order as the externals
+    private T mapGenerated(GeneratedMapper<T, K> generatedMapper, JsonArray row) {
+        T t = generatedMapper.map(row);
+
+        List<SqlFieldExternal> externals = mapperSettings.getExternals();
+        int index = row.size() - externals.stream().mapToInt(sqlFieldExternal -> sqlFieldExternal.getNames().length).sum();
+        for (SqlFieldExternal sqlFieldExternal : externals) {
+            Object[] foreignKey = new Object[sqlFieldExternal.getNames().length];
+            for (int i = 0; i < foreignKey.length; i++)
+                foreignKey[i] = row.getValue(index++);
+            sqlFieldExternal.setForeignKey(foreignKey);
+        }
+        return t;
+    }
+
+    private T mapper(List<ColumnMapping> rowPlan, JsonArray row) {
+        EntityConstructor entityConstructor = mapperSettings.getEntityConstructor();
+        if (entityConstructor != null)
+            return construct(entityConstructor, rowPlan, row);
+
+        try {
+            T t = (T) mapperSettings.getConstructor().newInstance();
             List<Object> idValues = new ArrayList<>();
 
-            mapperSettings.getAllFields()
-                    .stream()
-                    .filter(field -> mapperSettings.getFieldPredicate().test(field.getField()))
-                    .forEach(sqlField -> setField(rs, t, primaryKey, sqlField, idValues));
+            for (ColumnMapping columnMapping : rowPlan)
+                setField(row, t, columnMapping, idValues);
 
-            if(primaryKey != null) {
-                //!! DON'T FORGET TO SET VALUES ON "objects" FIELD ON EMBEDDED ID CLASS !!>
-                EmbeddedIdClass.getObjectsField().set(primaryKey, idValues.toArray());
-            }
+            //Set t's primary key field to primaryKey if its a composed primary key
+            if (mapperSettings.getPrimaryKeyType() != null)
+                mapperSettings.getPrimaryKeyAccessor().set(t, mapperSettings.newPrimaryKey(idValues.toArray()));
 
             return t;
         } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
@@ -378,47 +1316,67 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
         }
     }
 
-    private void setField(JsonObject rs, T t, Object primaryKey, SqlField sqlField, List<Object> idValues) {
-        Field field = sqlField.getField();
-        String name = sqlField.getName();
-        try {
-            field.setAccessible(true);
-            //Get the Id from foreign table if the field annotated with ColumnName has NAME defined
-            if(name.equals(SQL_FIELD_EXTERNAL)){
-                SqlFieldExternal sqlFieldExternal = (SqlFieldExternal) sqlField;
-
-                String[] names = sqlFieldExternal.getNames();
-                Object[] objects = new Object[names.length];
-                for (int i = 0; i < names.length; i++) {
-                    String s = names[i];
-                    objects[i] = rs.getValue(s);
-                }
-
-                sqlFieldExternal.setForeignKey(objects);
-            }
-            else
-                field.set(t, rs.getValue(name));
-        } catch (IllegalArgumentException e) { //If IllegalArgumentException is caught, is because field is from primaryKeyClass
-            try {
-                field.setAccessible(true);
-                if (primaryKey != null) {
-                    Object object = rs.getValue(name);
-                    idValues.add(object);
-                    field.set(primaryKey, object);
-                }
-                else
-                    field.set(t, field.getType() == Instant.class ?  sdf.parse(rs.getString(name)).toInstant() : rs.getValue(name));
-                /*
-                 * This "if else" is done because sql server jdbc might not convert to the right type in the first rs.getObject, but in the second it will
-                 * Ex: for a field of type "short" rs.getObject(name, field.getType()) will return null, but rs.getObject(name) will return an Integer
-                 * if we execute first rs.getObject(name) and then rs.getObject(name, field.getType()), it will return a "short" value...
-                 */
-            } catch (IllegalAccessException | ParseException e1) {
-                throw new DataMapperException(e1);
+    private void setField(JsonArray row, T t, ColumnMapping columnMapping, List<Object> idValues) {
+        SqlField sqlField = columnMapping.getSqlField();
+
+        //Get the Id from foreign table if the field annotated with ColumnName has NAME defined
+        if (sqlField.getName().equals(SQL_FIELD_EXTERNAL)) {
+            ((SqlFieldExternal) sqlField).setForeignKey(columnMapping.getValues(row));
+            return;
+        }
+
+        Object value = sqlField.fromColumn(columnMapping.getValue(row));
+        if (columnMapping.isPrimaryKeyField())
+            idValues.add(value);
+        else
+            sqlField.getAccessor().set(t, value);
+    }
+
+    //The externals that are parameters of the constructor get their values here, since they can't be set once t is created
+    private T construct(EntityConstructor entityConstructor, List<ColumnMapping> rowPlan, JsonArray row) {
+        Object[] arguments = entityConstructor.newArguments();
+        Object[] ids = new Object[mapperSettings.getIds().size()];
+        List<Object> idValues = new ArrayList<>();
+
+        for (ColumnMapping columnMapping : rowPlan) {
+            SqlField sqlField = columnMapping.getSqlField();
+            if (sqlField.getName().equals(SQL_FIELD_EXTERNAL)) {
+                ((SqlFieldExternal) sqlField).setForeignKey(columnMapping.getValues(row));
+                continue;
             }
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
+
+            Object value = sqlField.fromColumn(columnMapping.getValue(row));
+            if (columnMapping.getIdIndex() != -1)
+                ids[columnMapping.getIdIndex()] = value;
+            if (columnMapping.isPrimaryKeyField())
+                idValues.add(value);
+            else if (columnMapping.getParameter() != -1)
+                arguments[columnMapping.getParameter()] = value;
+        }
+
+        Object primaryKey = null;
+        if (mapperSettings.getPrimaryKeyType() != null) {
+            primaryKey = mapperSettings.newPrimaryKey(idValues.toArray());
+            entityConstructor.setArgument(arguments, mapperSettings.getPrimaryKeyAccessor().getField(), primaryKey);
+        }
+
+        List<Object> idList = Arrays.asList(ids);
+        for (SqlFieldExternal sqlFieldExternal : mapperSettings.getExternals()) {
+            int parameter = entityConstructor.indexOf(sqlFieldExternal.getField());
+            if (parameter != -1)
+                arguments[parameter] = externalsHandler.getExternalValue(sqlFieldExternal, idList);
+        }
+
+        T t = (T) entityConstructor.newInstance(arguments);
+
+        if (primaryKey != null && entityConstructor.indexOf(mapperSettings.getPrimaryKeyAccessor().getField()) == -1)
+            mapperSettings.getPrimaryKeyAccessor().set(t, primaryKey);
+        for (ColumnMapping columnMapping : rowPlan) {
+            SqlField sqlField = columnMapping.getSqlField();
+            if (columnMapping.getParameter() == -1 && !columnMapping.isPrimaryKeyField() && !sqlField.getName().equals(SQL_FIELD_EXTERNAL))
+                sqlField.getAccessor().set(t, sqlField.fromColumn(columnMapping.getValue(row)));
         }
+        return t;
     }
 
     /**
@@ -439,36 +1397,16 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
     private void setGeneratedKeys(T obj, JsonArray keys) {
         mapperSettings.getIds()
                 .stream()
-                .filter(f -> f.isIdentity() && !f.isFromParent())
-                .forEach(field -> {
-                    try {
-                        field.getField().setAccessible(true);
-
-                        String url = getConnectionManager().getUrl();
-                        Object value;
-                        if (url.toLowerCase().contains("sqlserver"))
-                            value = field.getField().getType() == Integer.class ? (Object) keys.getInteger(0) : keys.getLong(0);
-                        else
-                            value = keys.getValue(0); //Doesn't work on sqlServer, the type of GeneratedKey is always bigDecimal
-
-                        field.getField().set(obj, value);
-                    } catch (IllegalAccessException e) {
-                        throw new DataMapperException(e);
-                    }
-                });
+                .filter(f -> f.isIdentity() && !f.isFromParent() && f.getAccessor().isWritable())
+                //On sqlServer the type of GeneratedKey is always bigDecimal, the field's converter narrows it to the field's type
+                .forEach(field -> field.getAccessor().set(obj, field.fromColumn(keys.getValue(0))));
     }
 
     private void setVersion(T obj, long newValue) {
-        try {
-            SqlFieldVersion versionField = mapperSettings.getVersionField();
-            if(versionField != null) {
-                Field version = versionField.getField();
-                version.setAccessible(true);
-                version.set(obj, newValue);
-            }
-        } catch (IllegalAccessException ignored) {
-            logger.info("Version field not found on {}.", type.getSimpleName());
-        }
+        //The version of an object that can't be changed is only updated on the one read into the identity map
+        SqlFieldVersion versionField = mapperSettings.getVersionField();
+        if(versionField != null && versionField.getAccessor().isWritable())
+            ((FieldAccessor.LongAccessor) versionField.getAccessor()).setLong(obj, newValue);
     }
 
     private class Query {
@@ -484,6 +1422,100 @@ public class DataMapper<T extends DomainObject<K>, K> implements Mapper<T, K> {
             buildQueryString(values, "", "", selectQuery);
         }
 
+        /**
+         * Keyset pagination: when after is true, only the rows after the row of the last key, joined as L, are selected
+         */
+        public Query(String selectQuery, boolean after, int pageSize, Condition<?>... values) {
+            List<Condition<?>> ordering = Arrays.stream(values)
+                    .filter(OrderCondition.class::isInstance)
+                    .collect(Collectors.toList());
+            mapperSettings.getIds()
+                    .stream()
+                    .map(SqlField::getSelectQueryValue)
+                    .filter(id -> ordering.stream().noneMatch(condition -> isSameColumn(condition.getColumnName(), id)))
+                    .forEach(id -> ordering.add(OrderCondition.asc(id)));
+
+            Condition<?>[] whereConditions = Arrays.stream(values)
+                    .filter(condition -> !(condition instanceof OrderCondition))
+                    .toArray(Condition[]::new);
+            String suffix = String.format(" offset 0 rows fetch next %d rows only", pageSize);
+            String seek = after ? getSeek(ordering) : "";
+            buildQueryString(whereConditions, getSeekOrderBy(ordering), suffix, selectQuery + seek);
+            //The seek is kept in the conditions, since its parameters come first
+            if (after) conditions = " " + seek + conditions;
+        }
+
+        private boolean isSameColumn(String columnName, String selectQueryValue) {
+            return columnName.equalsIgnoreCase(selectQueryValue)
+                    || columnName.equalsIgnoreCase(selectQueryValue.substring(selectQueryValue.indexOf('.') + 1));
+        }
+
+        //k0 >= L.K0 AND ((k0 > L.K0) OR (k0 = L.K0 AND k1 > L.K1) OR ...), with < for the descending columns
+        private String getSeek(List<Condition<?>> ordering) {
+            String lastRow = IntStream.range(0, ordering.size())
+                    .mapToObj(i -> String.format("%s K%d", ordering.get(i).getColumnName(), i))
+                    .collect(Collectors.joining(", ", "select ", mapperSettings.getFromClause()))
+                    + mapperSettings.getIds()
+                    .stream()
+                    .map(id -> id.getSelectQueryValue() + " = ?")
+                    .collect(Collectors.joining(" and ", "where ", ""));
+
+            String seek = IntStream.range(0, ordering.size())
+                    .mapToObj(i -> IntStream.rangeClosed(0, i)
+                            .mapToObj(j -> j < i ? getSeekEqual(ordering.get(j), j) : getSeekAfter(ordering.get(j), j))
+                            .collect(Collectors.joining(" AND ", "(", ")")))
+                    .collect(Collectors.joining(" OR ", "(", ")"));
+            if (ordering.size() > 1)
+                seek = String.format("%s AND %s", getSeekFrom(ordering.get(0)), seek);
+
+            return String.format("inner join (%s) L on %s", lastRow, seek);
+        }
+
+        //The comparisons are false when a side is NULL, so the columns other than the ids also match NULL, as their lowest value
+        private String getSeekAfter(Condition<?> orderCondition, int i) {
+            String column = orderCondition.getColumnName();
+            String after = String.format("%s %s L.K%d", column, getSeekComparand(orderCondition), i);
+            if (isId(column)) return after;
+            return isDescending(orderCondition)
+                    ? String.format("(%s OR %s is null AND L.K%d is not null)", after, column, i)
+                    : String.format("(%s OR L.K%d is null AND %s is not null)", after, i, column);
+        }
+
+        private String getSeekEqual(Condition<?> orderCondition, int i) {
+            String column = orderCondition.getColumnName();
+            String equal = String.format("%s = L.K%d", column, i);
+            return isId(column) ? equal : String.format("(%s OR %s is null AND L.K%d is null)", equal, column, i);
+        }
+
+        private String getSeekFrom(Condition<?> orderCondition) {
+            String column = orderCondition.getColumnName();
+            String from = String.format("%s %s= L.K0", column, getSeekComparand(orderCondition));
+            if (isId(column)) return from;
+            return isDescending(orderCondition)
+                    ? String.format("(%s OR %s is null)", from, column)
+                    : String.format("(%s OR L.K0 is null)", from);
+        }
+
+        private boolean isId(String columnName) {
+            return mapperSettings.getIds().stream().anyMatch(id -> isSameColumn(columnName, id.getSelectQueryValue()));
+        }
+
+        private String getSeekOrderBy(List<Condition<?>> ordering) {
+            Dialect dialect = ConnectionManager.getCurrentDialect();
+            return ordering.stream()
+                    .map(condition -> String.format("%s %s%s", condition.getColumnName(), condition.getComparand(),
+                            isId(condition.getColumnName()) ? "" : dialect.getNullsOrder(isDescending(condition))))
+                    .collect(Collectors.joining(", ", " ORDER BY ", ""));
+        }
+
+        private String getSeekComparand(Condition<?> orderCondition) {
+            return isDescending(orderCondition) ? "<" : ">";
+        }
+
+        private boolean isDescending(Condition<?> orderCondition) {
+            return "DESC".equalsIgnoreCase(orderCondition.getComparand());
+        }
+
         private void buildQueryString(Condition<?>[] values, String pagination, String suffix, String selectQuery) {
             Map<Class<? extends Condition>, List<Condition<?>>> conditionsMap = Arrays.stream(values)
                     .collect(Collectors.groupingBy(Condition::getClass));
@@ -0,0 +1,275 @@
+package com.github.jayield.rapper.mapper;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The second-level cache of the rows of a type, shared by all the UnitOfWorks, with a W-TinyLFU eviction policy
+ */
+public class EntityCache<K> {
+    private static final AtomicLong clock = new AtomicLong();
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    public static class Row {
+        private final List<String> columnNames;
+        private final JsonArray values;
+        private final long version;
+
+        public Row(List<String> columnNames, JsonArray values, long version) {
+            this.columnNames = columnNames;
+            this.values = values;
+            this.version = version;
+        }
+
+        public List<String> getColumnNames() {
+            return columnNames;
+        }
+
+        public JsonArray getValues() {
+            return values;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    private static class Node {
+        private Row row;
+        private long expiresAt;
+        private Segment segment;
+
+        private Node(Row row, long expiresAt) {
+            this.row = row;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<K, Node> nodes = new HashMap<>();
+    //In access order, so the first entry of each one is the least recently used
+    private final LinkedHashMap<K, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node> protectedNodes = new LinkedHashMap<>(16, 0.75f, true);
+    //The epochs of the last invalidations of keys, up to maximumSize of them. The older ones are kept in clearedAt
+    private final LinkedHashMap<Object, Long> tombstones = new LinkedHashMap<>();
+    private long clearedAt;
+    private final FrequencySketch sketch;
+    private final int maximumSize;
+    private final int maximumWindowSize;
+    private final int maximumProtectedSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier ticker;
+
+    public EntityCache(int maximumSize, long timeToLive, TimeUnit timeUnit) {
+        this(maximumSize, timeToLive, timeUnit, System::nanoTime);
+    }
+
+    /**
+     * @param ticker gives the current time, in nanoseconds
+     */
+    EntityCache(int maximumSize, long timeToLive, TimeUnit timeUnit, LongSupplier ticker) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("The maximum size must be positive");
+        this.maximumSize = maximumSize;
+        this.maximumWindowSize = Math.max(1, maximumSize / 100);
+        this.maximumProtectedSize = (maximumSize - maximumWindowSize) * 4 / 5;
+        this.timeToLiveNanos = timeUnit.toNanos(timeToLive);
+        this.ticker = ticker;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @return the current epoch, which the units take when they start
+     */
+    public static long currentEpoch() {
+        return clock.get();
+    }
+
+    /**
+     * @return the row with key, or null if there's none or it expired
+     */
+    public synchronized Row get(K key) {
+        sketch.increment(key);
+        Node node = nodes.get(key);
+        if (node == null) return null;
+        if (ticker.getAsLong() - node.expiresAt >= 0) {
+            remove(key);
+            return null;
+        }
+        onAccess(key, node);
+        return node.row;
+    }
+
+    /**
+     * Puts row, unless there's a row with key and a higher version, or key was invalidated after epoch
+     * @param epoch the epoch of when the unit that read row started
+     * @return if row was put
+     */
+    public synchronized boolean put(K key, Row row, long epoch) {
+        Long invalidatedAt = tombstones.get(key);
+        if (epoch < clearedAt || invalidatedAt != null && epoch < invalidatedAt) return false;
+        sketch.increment(key);
+        long expiresAt = ticker.getAsLong() + timeToLiveNanos;
+        Node node = nodes.get(key);
+        if (node != null) {
+            if (row.version < node.row.version) return false;
+            node.row = row;
+            node.expiresAt = expiresAt;
+            onAccess(key, node);
+            return true;
+        }
+
+        node = new Node(row, expiresAt);
+        node.segment = Segment.WINDOW;
+        nodes.put(key, node);
+        window.put(key, node);
+        if (window.size() > maximumWindowSize) admit(evictEldest(window));
+        return nodes.containsKey(key);
+    }
+
+    public synchronized void invalidate(Object key) {
+        remove(key);
+        tombstones.remove(key);
+        tombstones.put(key, clock.incrementAndGet());
+        if (tombstones.size() > maximumSize) {
+            Iterator<Long> iterator = tombstones.values().iterator();
+            clearedAt = Math.max(clearedAt, iterator.next());
+            iterator.remove();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        nodes.clear();
+        window.clear();
+        probation.clear();
+        protectedNodes.clear();
+        tombstones.clear();
+        clearedAt = clock.incrementAndGet();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Promotes a probation row that is used again to protected
+     */
+    private void onAccess(K key, Node node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.get(key);
+                break;
+            case PROTECTED:
+                protectedNodes.get(key);
+                break;
+            case PROBATION:
+                probation.remove(key);
+                node.segment = Segment.PROTECTED;
+                protectedNodes.put(key, node);
+                if (protectedNodes.size() > maximumProtectedSize) {
+                    K demoted = evictEldest(protectedNodes);
+                    Node demotedNode = nodes.get(demoted);
+                    demotedNode.segment = Segment.PROBATION;
+                    probation.put(demoted, demotedNode);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves candidate, evicted from the window, to probation if it was used more often than the row it would evict
+     */
+    private void admit(K candidate) {
+        Node node = nodes.get(candidate);
+        if (nodes.size() > maximumSize) {
+            LinkedHashMap<K, Node> victims = probation.isEmpty() ? protectedNodes : probation;
+            K victim = victims.isEmpty() ? null : victims.keySet().iterator().next();
+            if (victim == null || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                nodes.remove(candidate);
+                return;
+            }
+            victims.remove(victim);
+            nodes.remove(victim);
+        }
+        node.segment = Segment.PROBATION;
+        probation.put(candidate, node);
+    }
+
+    private K evictEldest(LinkedHashMap<K, Node> segment) {
+        Iterator<K> iterator = segment.keySet().iterator();
+        K eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    private void remove(Object key) {
+        Node node = nodes.remove(key);
+        if (node == null) return;
+        switch (node.segment) {
+            case WINDOW: window.remove(key); break;
+            case PROBATION: probation.remove(key); break;
+            case PROTECTED: protectedNodes.remove(key); break;
+        }
+    }
+
+    /**
+     * A count-min sketch of how often each key was used, whose counts are halved periodically
+     */
+    static class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb8a4cc35, 0x5a6b7e61, 0xc2b2ae35};
+        private static final int MAXIMUM_COUNT = 15;
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(4, maximumSize - 1) << 1) * 4;
+            counters = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        void increment(Object key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if (counters[i][index] < MAXIMUM_COUNT) {
+                    counters[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) reset();
+        }
+
+        int frequency(Object key) {
+            int hash = key.hashCode();
+            int frequency = MAXIMUM_COUNT;
+            for (int i = 0; i < SEEDS.length; i++)
+                frequency = Math.min(frequency, counters[i][indexOf(hash, i)]);
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+            return (h ^ (h >>> 15)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : counters)
+                for (int i = 0; i < row.length; i++)
+                    row[i] >>= 1;
+            additions /= 2;
+        }
+    }
+}
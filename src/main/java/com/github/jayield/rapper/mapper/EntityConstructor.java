@@ -0,0 +1,167 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.annotations.MapperConstructor;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+
+import java.lang.reflect.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates instances of a DomainObject, or of an EmbeddedIdClass, by passing the values of its fields to a constructor,
+ * so the instance is complete once created and its fields may be final.
+ * The constructor used is the one annotated with @MapperConstructor or, for a record, its canonical constructor.
+ * The parameters of a record's canonical constructor are its components, in the order given by Class.getRecordComponents.
+ */
+public class EntityConstructor {
+    private static final String RECORD = "java.lang.Record";
+
+    private final Class<?> type;
+    private final Constructor<?> constructor;
+    private final Map<Field, Integer> parameters = new HashMap<>();
+    private final Object[] defaults;
+
+    private EntityConstructor(Class<?> type, Constructor<?> constructor, Field[] fields) {
+        this.type = type;
+        this.constructor = constructor;
+        constructor.setAccessible(true);
+
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        defaults = new Object[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            //The parameters missing from a row get the same value a field has before being set
+            if (parameterTypes[i].isPrimitive())
+                defaults[i] = Array.get(Array.newInstance(parameterTypes[i], 1), 0);
+
+            Class<?> parameterType = defaults[i] != null ? defaults[i].getClass() : parameterTypes[i];
+            Class<?> fieldType = fields[i].getType().isPrimitive()
+                    ? Array.get(Array.newInstance(fields[i].getType(), 1), 0).getClass()
+                    : fields[i].getType();
+            if (!parameterType.isAssignableFrom(fieldType))
+                throw new DataMapperException(String.format("The parameter %d of the constructor of %s doesn't have the type of the field %s",
+                        i, type.getSimpleName(), fields[i].getName()));
+            parameters.put(fields[i], i);
+        }
+    }
+
+    /**
+     * @param type
+     * @return the EntityConstructor of type or null if type is created with its constructor without arguments
+     */
+    public static EntityConstructor of(Class<?> type) {
+        Constructor<?> annotated = null;
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (!constructor.isAnnotationPresent(MapperConstructor.class)) continue;
+            if (annotated != null)
+                throw new DataMapperException(type.getSimpleName() + " has more than one constructor annotated with @MapperConstructor");
+            annotated = constructor;
+        }
+
+        if (annotated != null) {
+            String[] names = getParameterNames(type, annotated);
+            Field[] fields = new Field[names.length];
+            for (int i = 0; i < names.length; i++)
+                fields[i] = findField(type, names[i]);
+            return new EntityConstructor(type, annotated, fields);
+        }
+
+        if (type.getSuperclass() != null && type.getSuperclass().getName().equals(RECORD)) {
+            Field[] fields = getComponentFields(type);
+            try {
+                Constructor<?> canonical = type.getDeclaredConstructor(Arrays.stream(fields).map(Field::getType).toArray(Class[]::new));
+                return new EntityConstructor(type, canonical, fields);
+            } catch (NoSuchMethodException e) {
+                throw new DataMapperException(e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Class.getRecordComponents is called through reflection, since it only exists from Java 16
+     *
+     * @return the fields of the components of record, in the order of its canonical constructor
+     */
+    private static Field[] getComponentFields(Class<?> record) {
+        try {
+            Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(record);
+            Field[] fields = new Field[components.length];
+            for (int i = 0; i < components.length; i++) {
+                String name = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+                fields[i] = record.getDeclaredField(name);
+            }
+            return fields;
+        } catch (ReflectiveOperationException e) {
+            throw new DataMapperException("Couldn't read the components of the record " + record.getSimpleName(), e);
+        }
+    }
+
+    private static String[] getParameterNames(Class<?> type, Constructor<?> constructor) {
+        String[] names = constructor.getAnnotation(MapperConstructor.class).value();
+        Parameter[] parameters = constructor.getParameters();
+        if (names.length == 0) {
+            names = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                if (!parameters[i].isNamePresent())
+                    throw new DataMapperException("The names of the parameters of the constructor of " + type.getSimpleName() +
+                            " aren't available, either compile it with -parameters or name the fields in @MapperConstructor");
+                names[i] = parameters[i].getName();
+            }
+        }
+        if (names.length != parameters.length)
+            throw new DataMapperException("@MapperConstructor of " + type.getSimpleName() + " must name the field of each parameter");
+        return names;
+    }
+
+    /**
+     * Finds the field in type or in its parents, since the constructor of a subclass also receives the fields of its parents
+     */
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                return clazz.getDeclaredField(name);
+            } catch (NoSuchFieldException ignored) {
+                //Look in the parent
+            }
+        }
+        throw new DataMapperException("The constructor of " + type.getSimpleName() + " has a parameter for the field " + name + ", which doesn't exist");
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @param field
+     * @return the index of the parameter that sets field, or -1 if field isn't set by the constructor
+     */
+    public int indexOf(Field field) {
+        return parameters.getOrDefault(field, -1);
+    }
+
+    /**
+     * @return the arguments to pass to newInstance, with the default values of the parameters
+     */
+    public Object[] newArguments() {
+        return defaults.clone();
+    }
+
+    /**
+     * Sets the argument of the parameter that sets field, if there is one
+     */
+    public void setArgument(Object[] arguments, Field field, Object value) {
+        int index = indexOf(field);
+        if (index != -1) arguments[index] = value;
+    }
+
+    public Object newInstance(Object[] arguments) {
+        try {
+            return constructor.newInstance(arguments);
+        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException e) {
+            throw new DataMapperException("Couldn't create " + type.getSimpleName() + " with " + Arrays.toString(arguments), e);
+        } catch (InvocationTargetException e) {
+            throw new DataMapperException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.sql.SQLRowStream;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A ReadStream of the objects mapped from the rows of a SQLRowStream.
+ * The SQLRowStream is opened asynchronously, so the handlers and the paused state are kept until it is available.
+ * Pausing this stream pauses the SQLRowStream, which stops reading rows from the ResultSet, so a slow consumer never
+ * has more than a fetch of rows in memory.
+ * The stream is closed when it ends or fails, or it may be closed earlier with close, which releases the statement.
+ *
+ * @param <T> type of the objects
+ */
+public class EntityStream<T> implements ReadStream<T> {
+    private final Function<List<String>, Function<JsonArray, T>> rowMapperFactory;
+
+    private SQLRowStream rowStream;
+    private Function<JsonArray, T> rowMapper;
+    private Handler<T> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private boolean paused;
+    private boolean closed;
+
+    /**
+     * @param rowStream the stream of rows to be mapped
+     * @param rowMapperFactory gets the function that maps the rows, given the columns of rowStream
+     */
+    EntityStream(CompletableFuture<SQLRowStream> rowStream, Function<List<String>, Function<JsonArray, T>> rowMapperFactory) {
+        this.rowMapperFactory = rowMapperFactory;
+        rowStream.whenComplete((sqlRowStream, throwable) -> {
+            if (throwable != null) fail(throwable);
+            else open(sqlRowStream);
+        });
+    }
+
+    private synchronized void open(SQLRowStream sqlRowStream) {
+        if (closed) {
+            sqlRowStream.close();
+            return;
+        }
+
+        rowStream = sqlRowStream;
+        try {
+            rowMapper = rowMapperFactory.apply(sqlRowStream.columns());
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+
+        sqlRowStream.exceptionHandler(this::fail);
+        sqlRowStream.endHandler(v -> end());
+        setRowHandler();
+    }
+
+    /**
+     * Setting the handler of the SQLRowStream resumes it, so it is paused again if this stream is paused or has no handler
+     */
+    private void setRowHandler() {
+        if (handler != null) rowStream.handler(this::handleRow);
+        if (paused || handler == null) rowStream.pause();
+    }
+
+    private void handleRow(JsonArray row) {
+        Handler<T> rowHandler;
+        T t;
+        synchronized (this) {
+            if (closed || handler == null) return;
+            rowHandler = handler;
+            try {
+                t = rowMapper.apply(row);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+        }
+        rowHandler.handle(t);
+    }
+
+    private void end() {
+        Handler<Void> handlerOfEnd;
+        synchronized (this) {
+            if (closed) return;
+            close();
+            handlerOfEnd = endHandler;
+        }
+        if (handlerOfEnd != null) handlerOfEnd.handle(null);
+    }
+
+    private void fail(Throwable throwable) {
+        Handler<Throwable> handlerOfException;
+        synchronized (this) {
+            if (closed) return;
+            close();
+            handlerOfException = exceptionHandler;
+        }
+        DataMapperException exception = throwable instanceof DataMapperException
+                ? (DataMapperException) throwable
+                : new DataMapperException(throwable);
+        if (handlerOfException != null) handlerOfException.handle(exception);
+    }
+
+    /**
+     * Stops the stream and releases its statement. No more objects are handed to the handler.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (rowStream != null) rowStream.close();
+    }
+
+    @Override
+    public synchronized EntityStream<T> exceptionHandler(Handler<Throwable> handler) {
+        exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public synchronized EntityStream<T> handler(Handler<T> handler) {
+        this.handler = handler;
+        if (rowStream != null && !closed) setRowHandler();
+        return this;
+    }
+
+    @Override
+    public synchronized EntityStream<T> pause() {
+        paused = true;
+        if (rowStream != null && !closed) rowStream.pause();
+        return this;
+    }
+
+    @Override
+    public synchronized EntityStream<T> resume() {
+        paused = false;
+        if (rowStream != null && !closed && handler != null) rowStream.resume();
+        return this;
+    }
+
+    @Override
+    public synchronized EntityStream<T> endHandler(Handler<Void> handler) {
+        endHandler = handler;
+        return this;
+    }
+}
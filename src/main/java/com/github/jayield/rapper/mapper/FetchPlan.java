@@ -0,0 +1,58 @@
+package com.github.jayield.rapper.mapper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The references to load together with the objects found, named by the fields that hold them.
+ * Instead of a query for each object when its reference is first used, the references of all the objects found are
+ * loaded with a query for each referenced type and put in the identity map of the UnitOfWork.
+ * The lists of one-to-many and N-N references are also kept in the UnitOfWork, until an object of their type is written.
+ * The joined references are read by the same statement as the objects found, with a left join for each one.
+ */
+public class FetchPlan {
+    private final Set<String> fields;
+    private final Set<String> joinedFields;
+
+    private FetchPlan(Set<String> fields, Set<String> joinedFields) {
+        this.fields = Collections.unmodifiableSet(fields);
+        this.joinedFields = Collections.unmodifiableSet(joinedFields);
+    }
+
+    /**
+     * @param fields the names of the Foreign fields, or of the one-to-many and N-N Function fields, whose objects are prefetched
+     */
+    public static FetchPlan of(String... fields) {
+        return new FetchPlan(new LinkedHashSet<>(Arrays.asList(fields)), Collections.emptySet());
+    }
+
+    /**
+     * The objects found and the ones of the references joined are read in a single statement, which repeats the columns
+     * of an object for each of the objects of its one-to-many and N-N references, so it is best suited to small aggregates
+     * @param fields the names of the Foreign fields, or of the one-to-many and N-N Function fields, whose objects are joined
+     */
+    public static FetchPlan join(String... fields) {
+        return new FetchPlan(Collections.emptySet(), new LinkedHashSet<>(Arrays.asList(fields)));
+    }
+
+    /**
+     * @return a plan that prefetches the fields of both plans and joins the joined fields of both plans
+     */
+    public FetchPlan and(FetchPlan other) {
+        Set<String> allFields = new LinkedHashSet<>(fields);
+        allFields.addAll(other.fields);
+        Set<String> allJoinedFields = new LinkedHashSet<>(joinedFields);
+        allJoinedFields.addAll(other.joinedFields);
+        return new FetchPlan(allFields, allJoinedFields);
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public Set<String> getJoinedFields() {
+        return joinedFields;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.conversions.TypeConverter;
+import com.github.jayield.rapper.mapper.conversions.TypeConverters;
+import com.github.jayield.rapper.mapper.externals.Foreign;
+import com.github.jayield.rapper.utils.FieldAccessor;
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Base class of the mappers generated at build time by rapper-processor.
+ * A generated mapper holds the SQL statements of a DomainObject, maps a row of its select query into a new instance and
+ * binds the parameters of its insert and update statements, without looking up the annotations at runtime.
+ * MapperRegistry uses the generated mapper of a type when it is found on the classpath.
+ *
+ * @param <T> type of the DomainObject
+ * @param <K> type of the DomainObject's key
+ */
+public abstract class GeneratedMapper<T extends DomainObject<K>, K> {
+    public static final String SUFFIX = "_RapperMapper";
+
+    /**
+     * Gets the name of the class generated for type. Nested types are flattened, since the generated class is a top level one.
+     *
+     * @param type the type of the DomainObject
+     * @return the binary name of the generated mapper
+     */
+    public static String getGeneratedName(Class<?> type) {
+        return type.getName().replace('$', '_') + SUFFIX;
+    }
+
+    public abstract String getSelectQuery();
+
+    public abstract String getSelectCountQuery();
+
+    public abstract String getSelectByIdQuery();
+
+    public abstract String getInsertQuery();
+
+    public abstract String getUpdateQuery();
+
+    public abstract String getDeleteQuery();
+
+    public abstract String getPagination();
+
+    /**
+     * Maps a row obtained with the select query into a new instance of T.
+     * The columns of the external references are left to the DataMapper, which passes them to the ExternalsHandler.
+     *
+     * @param row values in the same order as the columns of the select query
+     * @return the new instance
+     */
+    public abstract T map(JsonArray row);
+
+    /**
+     * @param obj the object to be inserted
+     * @return the parameters of the insert query
+     */
+    public abstract JsonArray prepareCreate(T obj);
+
+    /**
+     * @param obj the object to be updated
+     * @return the parameters of the update query, including the version in the where clause if T has one
+     */
+    public abstract JsonArray prepareUpdate(T obj);
+
+    protected static FieldAccessor accessor(Class<?> declaringClass, String name) {
+        try {
+            return FieldAccessor.of(declaringClass.getDeclaredField(name));
+        } catch (NoSuchFieldException e) {
+            throw new DataMapperException(e);
+        }
+    }
+
+    /**
+     * The converters are resolved when the generated mapper is loaded, so custom ones must be registered before that
+     */
+    protected static TypeConverter<?> converter(Class<?> type) {
+        return MapperRegistry.getTypeConverter(type);
+    }
+
+    protected static Object fromColumn(TypeConverter<?> converter, Object value) {
+        return TypeConverters.fromColumn(converter, value);
+    }
+
+    protected static Object toColumn(TypeConverter<?> converter, Object value) {
+        return TypeConverters.toColumn(converter, value);
+    }
+
+    protected static void add(JsonArray params, Object value) {
+        if (value == null) params.addNull();
+        else params.add(value);
+    }
+
+    /**
+     * Adds the values of the foreign's key, the same way SqlFieldExternal does.
+     */
+    protected static void addForeignKey(JsonArray params, Foreign<?, ?> foreign, Class<? extends DomainObject> type) {
+        Object key = foreign != null ? foreign.getForeignKey() : null;
+        MapperRegistry.getMapperSettings((Class) type)
+                .getIds()
+                .stream()
+                .flatMap(sqlFieldId -> sqlFieldId.getValuesForStatement(key))
+                .forEach(value -> add(params, value));
+    }
+}
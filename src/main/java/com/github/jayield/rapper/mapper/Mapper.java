@@ -4,6 +4,7 @@ import com.github.jayield.rapper.DomainObject;
 import com.github.jayield.rapper.mapper.conditions.Condition;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -37,7 +38,48 @@ public interface Mapper<T extends DomainObject<K>, K> {
     CompletableFuture<List<T>> find(int page, int numberOfItems, Condition<?>... values);
 
     /**
-     * Tries to locate T with the given key K
+     * Like find(values), but also loads the references named in fetchPlan. The distinct foreign keys of the T's found are
+     * read with a query for each referenced type, instead of a query for each T, and put in the identity map, so
+     * getForeignObject completes without going to the DB. The objects of the one-to-many fields named are read with a
+     * query for each batch of T's and kept in the UnitOfWork, as are the ones of the N-N fields.
+     * @param fetchPlan the Foreign and one-to-many fields of T to prefetch
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return a list of T's which match with the properties passed
+     */
+    CompletableFuture<List<T>> find(FetchPlan fetchPlan, Condition<?>... values);
+
+    /**
+     * Keyset pagination: locates the pageSize T's that come after the T with lastKey, ordered by the OrderConditions passed
+     * in values followed by the ids. Unlike find(page, numberOfItems, values), the DB seeks to lastKey instead of skipping
+     * the previous pages, so every page costs the same, and rows inserted before lastKey don't shift the next pages.
+     * NULL is sorted as the lowest value of the columns of the OrderConditions. It fails if the T of lastKey no longer exists.
+     * @param lastKey the key of the last T of the previous page, or null for the first page
+     * @param pageSize the maximum number of T's of the page
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return a list of T's which match with the properties passed
+     */
+    CompletableFuture<List<T>> findAfter(K lastKey, int pageSize, Condition<?>... values);
+
+    /**
+     * Streams the T's with the given properties passed in values, mapping each row as it is read from the DB, instead of
+     * reading them all into a list like find does. The rows are read as the stream is consumed, so pausing the stream stops
+     * reading them. The streamed T's aren't put in the identity map, so they're not all kept in memory.
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return a stream of the T's which match with the properties passed
+     */
+    EntityStream<T> stream(Condition<?>... values);
+
+    /**
+     * Same as stream(values), reading fetchSize rows at a time from the DB
+     * @param fetchSize how many rows are read at a time
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return a stream of the T's which match with the properties passed
+     */
+    EntityStream<T> stream(int fetchSize, Condition<?>... values);
+
+    /**
+     * Tries to locate T with the given key K. The keys of the findById calls of the same tick that aren't in the identity
+     * map are read together, with a query for each batch of keys. If T has a second-level cache, the T's in it aren't read
      * @param k key of T
      * @return Optional of T
      */
@@ -57,6 +99,14 @@ public interface Mapper<T extends DomainObject<K>, K> {
      */
     CompletableFuture<Void> createAll(Iterable<T> t);
 
+    /**
+     * It will insert all t's passed in the parameters, batchSize at a time, in JDBC batches
+     * @param batchSize how many t's are inserted by each batch
+     * @param t iterable with all the t's to be inserted
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> createAll(int batchSize, Iterable<T> t);
+
     /**
      * It will update in the persistent memory the T which matches with the given t's key
      * @param t T to be updated
@@ -71,6 +121,57 @@ public interface Mapper<T extends DomainObject<K>, K> {
      */
     CompletableFuture<Void> updateAll(Iterable<T> t);
 
+    /**
+     * It will update all the T's passed in the parameters, batchSize at a time, in JDBC batches.
+     * If the version of any T is stale, it fails with a ConcurrencyException
+     * @param batchSize how many T's are updated by each batch
+     * @param t T's to be updated
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> updateAll(int batchSize, Iterable<T> t);
+
+    /**
+     * It will insert t, or update the T with t's key if there's one, in a single statement.
+     * The version of t isn't checked, the last upsert wins
+     * @param t T to be inserted or updated
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> upsert(T t);
+
+    /**
+     * It will insert or update all the T's passed in the parameters, like upsert, in JDBC batches
+     * @param t T's to be inserted or updated
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> upsertAll(Iterable<T> t);
+
+    /**
+     * It will insert or update all the T's passed in the parameters, like upsert, batchSize at a time, in JDBC batches
+     * @param batchSize how many T's are written by each batch
+     * @param t T's to be inserted or updated
+     * @return CompletableFuture
+     */
+    CompletableFuture<Void> upsertAll(int batchSize, Iterable<T> t);
+
+    /**
+     * It will set the columns of the rows of the T's with the given properties passed in values, with a single statement,
+     * without reading them. The versions aren't checked, and the T's of the identity map are invalidated, so they're read again.
+     * The writes the unit deferred and the changes it detected are written first, so it runs after them
+     * @param assignments the values to set, by the names of the columns, which must be of the table of T, not of its parents
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return CompletableFuture with the number of rows updated
+     */
+    CompletableFuture<Integer> updateWhere(Map<String, Object> assignments, Condition<?>... values);
+
+    /**
+     * It will remove from persistent memory the T's with the given properties passed in values, with a single statement,
+     * without reading them, unless T has parents, whose rows are removed by their keys after. The T's of the identity map
+     * are invalidated. The writes the unit deferred and the changes it detected are written first, so it runs after them
+     * @param values a pair containing the properties to search T, the key must be the name of the column and the value the expected value of the column
+     * @return CompletableFuture with the number of T's removed
+     */
+    CompletableFuture<Integer> deleteWhere(Condition<?>... values);
+
     /**
      * It will remove from persistent memory the T identified by the key K
      * @param k key which identifies the object in persistent memory
@@ -86,7 +187,8 @@ public interface Mapper<T extends DomainObject<K>, K> {
     CompletableFuture<Void> delete(T t);
 
     /**
-     * It will remove from persistent memory all the T's which matches with the given T's keys
+     * It will remove from persistent memory all the T's which matches with the given T's keys, with a delete of a batch
+     * of keys at a time on each table. It fails if any of the keys isn't found
      * @param keys
      * @return
      */
@@ -1,22 +1,34 @@
 package com.github.jayield.rapper.mapper;
 
 import com.github.jayield.rapper.*;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.conversions.TypeConverter;
+import com.github.jayield.rapper.mapper.conversions.TypeConverters;
 import com.github.jayield.rapper.mapper.externals.ExternalsHandler;
+import com.github.jayield.rapper.mapper.ids.IdGenerator;
 import com.github.jayield.rapper.unitofwork.UnitOfWork;
 import com.github.jayield.rapper.utils.DomainObjectComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class MapperRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MapperRegistry.class);
 
     private MapperRegistry(){}
 
     private static Map<Class, Container> containerMap = new HashMap<>();
+    private static final Map<Class<?>, TypeConverter<?>> typeConverters = new ConcurrentHashMap<>(TypeConverters.getBuiltIns());
+    private static final Map<Class<?>, IdGenerator<?>> idGenerators = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, EntityCache<?>> caches = new ConcurrentHashMap<>();
 
     public static<T extends DomainObject<K>, K> Container<T, K> getContainer(Class<T> type) {
         return containerMap.computeIfAbsent(type, aClass -> {
-            MapperSettings mapperSettings = new MapperSettings(aClass);
+            MapperSettings mapperSettings = new MapperSettings(aClass, findGeneratedMapper(aClass));
             ExternalsHandler<T, K> externalsHandler = new ExternalsHandler<>(mapperSettings);
 
             return new Container<>(mapperSettings, externalsHandler);
@@ -34,6 +46,102 @@ public class MapperRegistry {
         );
     }
 
+    /**
+     * Looks for the mapper generated at build time for type
+     *
+     * @param type
+     * @return an instance of the generated mapper or null if it isn't on the classpath
+     */
+    private static GeneratedMapper<?, ?> findGeneratedMapper(Class<?> type) {
+        try {
+            Class<?> generatedClass = Class.forName(GeneratedMapper.getGeneratedName(type), true, type.getClassLoader());
+            logger.info("Using generated mapper {} for {}", generatedClass.getSimpleName(), type.getSimpleName());
+            return (GeneratedMapper<?, ?>) generatedClass.getConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new DataMapperException(e);
+        }
+    }
+
+    /**
+     * Registers the converter of the fields of the given type, replacing the built-in one if there is one.
+     * The converter of each field is resolved when the mapper of its DomainObject is first obtained, so converters
+     * should be registered before that.
+     *
+     * @param type the type of the fields
+     * @param converter
+     */
+    public static <V> void registerTypeConverter(Class<V> type, TypeConverter<V> converter) {
+        typeConverters.put(type, converter);
+    }
+
+    /**
+     * @param type the type of a field
+     * @return the converter of the given type, or null if the values of the fields of that type are used as they are
+     */
+    public static <V> TypeConverter<V> getTypeConverter(Class<V> type) {
+        TypeConverter<?> converter = typeConverters.get(type);
+        if (converter == null && type.isEnum())
+            converter = typeConverters.computeIfAbsent(type, enumType -> TypeConverters.forEnum((Class) enumType));
+        return (TypeConverter<V>) converter;
+    }
+
+    /**
+     * @param type the class of a generator, with a constructor without parameters
+     * @return the only instance of the generator, so the ids it gives are unique across all the mappers that use it
+     */
+    public static IdGenerator<?> getIdGenerator(Class<? extends IdGenerator> type) {
+        return idGenerators.computeIfAbsent(type, generatorType -> {
+            try {
+                return (IdGenerator<?>) generatorType.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new DataMapperException("The IdGenerator " + generatorType.getSimpleName() + " must have a public constructor without parameters");
+            }
+        });
+    }
+
+    /**
+     * Keeps the rows of the objects of type read by findById in a second-level cache shared by all the UnitOfWorks, so
+     * findById of any unit maps them without going to the DB. The rows a unit reads are put when it commits, and the
+     * rows of the objects it writes are invalidated. Changes made to the DB by other processes are only seen after timeToLive.
+     *
+     * @param maximumSize how many rows of type are kept, at most
+     * @param timeToLive for how long a row is kept after it was put
+     */
+    public static <T extends DomainObject<K>, K> void registerCache(Class<T> type, int maximumSize, long timeToLive, TimeUnit timeUnit) {
+        caches.put(type, new EntityCache<K>(maximumSize, timeToLive, timeUnit));
+    }
+
+    public static void unregisterCache(Class<? extends DomainObject> type) {
+        caches.remove(type);
+    }
+
+    /**
+     * @return the second-level cache of type, or null if it has none
+     */
+    public static <T extends DomainObject<K>, K> EntityCache<K> getCache(Class<T> type) {
+        return (EntityCache<K>) caches.get(type);
+    }
+
+    /**
+     * Removes the object of type with key from the second-level caches of type, of its parents and of its subtypes, which share its rows
+     */
+    public static void invalidateCached(Class<? extends DomainObject> type, Object key) {
+        caches.forEach((cachedType, cache) -> {
+            if (cachedType.isAssignableFrom(type) || type.isAssignableFrom(cachedType)) cache.invalidate(key);
+        });
+    }
+
+    /**
+     * Removes all the objects from the second-level caches of type, of its parents and of its subtypes
+     */
+    public static void invalidateCaches(Class<? extends DomainObject> type) {
+        caches.forEach((cachedType, cache) -> {
+            if (cachedType.isAssignableFrom(type) || type.isAssignableFrom(cachedType)) cache.invalidateAll();
+        });
+    }
+
     public static <T extends DomainObject<K>, K> ExternalsHandler<T, K> getExternal(Class<T> type){
         return getContainer(type).getExternalsHandler();
     }
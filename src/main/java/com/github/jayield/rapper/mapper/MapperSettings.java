@@ -6,26 +6,38 @@ import com.github.jayield.rapper.annotations.EmbeddedId;
 import com.github.jayield.rapper.annotations.Id;
 import com.github.jayield.rapper.annotations.Version;
 import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.sql.Dialect;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
 import com.github.jayield.rapper.sql.SqlFieldId;
 import com.github.jayield.rapper.sql.SqlFieldVersion;
 import com.github.jayield.rapper.utils.EmbeddedIdClass;
+import com.github.jayield.rapper.utils.FieldAccessor;
+import com.github.jayield.rapper.mapper.conversions.TypeConverters;
 import com.github.jayield.rapper.mapper.externals.Foreign;
+import com.github.jayield.rapper.mapper.ids.IdGenerator;
 import com.github.jayield.rapper.sql.SqlField;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class MapperSettings {
+    private static final Logger logger = LoggerFactory.getLogger(MapperSettings.class);
+    private static final Set<Class<?>> builtInTypes = TypeConverters.getBuiltIns().keySet();
 
     private final Class<?> type;
 
@@ -36,17 +48,36 @@ public class MapperSettings {
     private List<SqlField> allFields = new ArrayList<>();
 
     private String selectQuery;
+    private int numberOfSelectColumns;
     private String selectCountQuery;
+    private String fromClause;
     private String insertQuery;
     private String updateQuery;
+    private List<String> updateColumns;
+    private String updateWhere;
+    private final Map<BitSet, String> partialUpdateQueries = new ConcurrentHashMap<>();
+    private String versionColumnName;
+    private boolean versionWrittenByMapper;
+    private List<String> idsNames;
+    private List<String> insertColumns;
+    private List<String> generatedIdsNames;
+    private final Map<Dialect, String> versionedInsertQueries = new ConcurrentHashMap<>();
+    private final Map<Dialect, Map<BitSet, String>> versionedUpdateQueries = new ConcurrentHashMap<>();
+    private final Map<Dialect, String> upsertQueries = new ConcurrentHashMap<>();
     private String deleteQuery;
     private String selectByIdQuery;
     private String pagination;
     private Class<?> primaryKeyType = null;
     private Constructor<?> primaryKeyConstructor;
+    private EntityConstructor primaryKeyEntityConstructor;
+    private FieldAccessor primaryKeyAccessor;
     private final Constructor<?> constructor;
+    private final EntityConstructor entityConstructor;
+    private final GeneratedMapper<?, ?> generatedMapper;
+    private final Map<List<String>, List<ColumnMapping>> rowPlans = new ConcurrentHashMap<>();
 
-    private final Predicate<Field> fieldPredicate = field -> field.getType().isPrimitive()
+    //The fields the processor maps too, which are the ones without a TypeConverter or with a built-in one
+    private final Predicate<Field> knownFieldPredicate = field -> field.getType().isPrimitive()
             || field.getType().isAssignableFrom(String.class)
             || field.getType().isAssignableFrom(Instant.class)
             || field.getType().isAssignableFrom(CompletableFuture.class)
@@ -55,15 +86,23 @@ public class MapperSettings {
             || field.getType().isAssignableFrom(Long.class)
             || field.getType().isAssignableFrom(Boolean.class)
             || field.getType().isAssignableFrom(Function.class)
-            || field.getType().isAssignableFrom(Foreign.class);
+            || field.getType().isAssignableFrom(Foreign.class)
+            || field.getType().isEnum()
+            || builtInTypes.contains(field.getType());
+
+    private final Predicate<Field> fieldPredicate = knownFieldPredicate.or(field -> MapperRegistry.getTypeConverter(field.getType()) != null);
 
     public MapperSettings(Class<?> type) {
+        this(type, null);
+    }
+
+    /**
+     * @param generatedMapper mapper generated at build time for type, may be null, and ignored if it doesn't know all its fields
+     */
+    public MapperSettings(Class<?> type, GeneratedMapper<?, ?> generatedMapper) {
         this.type = type;
-        try {
-            constructor = type.getConstructor();
-        } catch (NoSuchMethodException e) {
-            throw new DataMapperException(e);
-        }
+        entityConstructor = EntityConstructor.of(type);
+        constructor = entityConstructor == null ? getConstructor(type) : null;
 
         operations = initOperations(type);
 
@@ -99,7 +138,16 @@ public class MapperSettings {
         allFields.addAll(columns);
         allFields.addAll(externals);
 
-        buildQueryStrings();
+        buildColumnNames();
+
+        if (generatedMapper != null && !hasOnlyKnownFields()) {
+            logger.warn("Ignoring {}, some fields of {} are mapped by TypeConverters it doesn't know", generatedMapper.getClass().getSimpleName(), type.getSimpleName());
+            generatedMapper = null;
+        }
+        this.generatedMapper = generatedMapper;
+
+        if (generatedMapper != null) takeQueryStrings(generatedMapper);
+        else buildQueryStrings();
     }
 
     /**
@@ -129,17 +177,24 @@ public class MapperSettings {
         }
     }
 
-    private void buildQueryStrings() {
-        List<String> idName = ids
-                .stream()
-                .map(SqlField::getSelectQueryValue)
-                .collect(Collectors.toList());
+    //The processor doesn't know the fields mapped through a TypeConverter registered at runtime
+    private boolean hasOnlyKnownFields() {
+        return allFields.stream().map(SqlField::getField).allMatch(knownFieldPredicate);
+    }
 
-        List<String> allFieldsNames = allFields
+    private void takeQueryStrings(GeneratedMapper<?, ?> generatedMapper) {
+        selectQuery = generatedMapper.getSelectQuery();
+        selectCountQuery = generatedMapper.getSelectCountQuery();
+        selectByIdQuery = generatedMapper.getSelectByIdQuery();
+        insertQuery = generatedMapper.getInsertQuery();
+        updateQuery = generatedMapper.getUpdateQuery();
+        deleteQuery = generatedMapper.getDeleteQuery();
+        pagination = generatedMapper.getPagination();
+    }
+
+    private void buildColumnNames() {
+        List<String> idName = ids
                 .stream()
-                //We don't want the externals in our selectQuery, unless NAME from SqlFieldExternal is defined
-                .filter(sqlField -> !SqlFieldExternal.class.isAssignableFrom(sqlField.getClass())
-                        || SqlFieldExternal.class.isAssignableFrom(sqlField.getClass()) && ((SqlFieldExternal)sqlField).getNames().length != 0)
                 .map(SqlField::getSelectQueryValue)
                 .collect(Collectors.toList());
 
@@ -163,24 +218,15 @@ public class MapperSettings {
             }
         }
 
-        selectQuery = allFieldsNames
-                .stream()
-                .collect(Collectors.joining(", ", "select ", suffix));
-
-        selectCountQuery = "select COUNT(*) as c " + suffix;
+        fromClause = suffix.toString();
+        //The select value of a Foreign has a column for each of its names
+        numberOfSelectColumns = getSelectValues().stream().mapToInt(name -> name.split(",").length).sum();
 
-        selectByIdQuery = selectQuery +
-                idName.stream()
-                        .map(id -> id + " = ?")
-                        .collect(Collectors.joining(" and ", " where ", ""));
-
-        idName = ids
+        idsNames = ids
                 .stream()
                 .map(SqlField::getName)
                 .collect(Collectors.toList());
 
-        pagination = " order by " + idName.stream().collect(Collectors.joining(", "));
-
         List<String> columnsNames = Stream.concat(
                 columns
                         .stream()
@@ -200,28 +246,65 @@ public class MapperSettings {
 
         String updateWhereVersion = "";
         if(versionField != null) {
-            String versionColumnName = versionField.getName().substring(1, versionField.getName().length()); //Remove the prefix by doing the subString
+            versionColumnName = versionField.getName().substring(1, versionField.getName().length()); //Remove the prefix by doing the subString
+            versionWrittenByMapper = versionField.getField().getAnnotation(Version.class).isWrittenByMapper();
             updateWhereVersion = String.format(" and %s = ?", versionColumnName);
         }
 
-        insertQuery = (identity ? columnsNames.stream() : Stream.concat(idName.stream(), columnsNames.stream()))
+        insertColumns = identity ? columnsNames : Stream.concat(idsNames.stream(), columnsNames.stream()).collect(Collectors.toList());
+        generatedIdsNames = ids
+                .stream()
+                .filter(f -> f.isIdentity() && !f.isFromParent())
+                .map(SqlField::getName)
+                .collect(Collectors.toList());
+
+        updateColumns = columnsNames;
+        updateWhere = idsNames
+                .stream()
+                .map(id -> id + " = ?")
+                .collect(Collectors.joining(" and "))
+                + updateWhereVersion;
+    }
+
+    private List<String> getSelectValues() {
+        return allFields
+                .stream()
+                //We don't want the externals in our selectQuery, unless NAME from SqlFieldExternal is defined
+                .filter(sqlField -> !SqlFieldExternal.class.isAssignableFrom(sqlField.getClass())
+                        || SqlFieldExternal.class.isAssignableFrom(sqlField.getClass()) && ((SqlFieldExternal)sqlField).getNames().length != 0)
+                .map(SqlField::getSelectQueryValue)
+                .collect(Collectors.toList());
+    }
+
+    private void buildQueryStrings() {
+        selectQuery = getSelectValues()
+                .stream()
+                .collect(Collectors.joining(", ", "select ", fromClause));
+
+        selectCountQuery = "select COUNT(*) as c " + fromClause;
+
+        selectByIdQuery = selectQuery +
+                ids.stream()
+                        .map(id -> id.getSelectQueryValue() + " = ?")
+                        .collect(Collectors.joining(" and ", " where ", ""));
+
+        pagination = " order by " + idsNames.stream().collect(Collectors.joining(", "));
+
+        insertQuery = insertColumns
+                .stream()
                 .collect(Collectors.joining(", ", "insert into " + type.getSimpleName() + " ( ", " ) "))
-                //+ "output " + idsNames + "CAST(INSERTED.version as bigint) version "
-                + (identity ? columnsNames.stream() : Stream.concat(idName.stream(), columnsNames.stream()))
+                + insertColumns
+                .stream()
                 .map(c -> "?")
                 .collect(Collectors.joining(", ", "values ( ", " )"));
 
-        updateQuery = columnsNames
+        updateQuery = updateColumns
                 .stream()
                 .map(c -> c + " = ?")
                 .collect(Collectors.joining(", ", "update " + type.getSimpleName() + " set ", " where ")) //output CAST(INSERTED.version as bigint) version
-                + idName
-                .stream()
-                .map(id -> id + " = ?")
-                .collect(Collectors.joining(" and "))
-                + updateWhereVersion;
+                + updateWhere;
 
-        deleteQuery = idName
+        deleteQuery = idsNames
                 .stream()
                 .map(id -> id + " = ?")
                 .collect(Collectors.joining(" and ", "delete from " + type.getSimpleName() + " where ", ""));
@@ -243,22 +326,26 @@ public class MapperSettings {
         return new FieldOperations[]{
                 new FieldOperations(f -> f.isAnnotationPresent(EmbeddedId.class), (f, pref) -> {
                     primaryKeyType = f.getType();
+                    primaryKeyAccessor = FieldAccessor.of(f);
                     if (!EmbeddedIdClass.class.isAssignableFrom(primaryKeyType))
                         throw new DataMapperException("The field " + f.getName() + " on " + type.getSimpleName() + " annotated with @EmbeddedId should extend EmbeddedIdClass!");
 
-                    try {
-                        primaryKeyConstructor = primaryKeyType.getConstructor();
-                    } catch (NoSuchMethodException e) {
-                        throw new DataMapperException(e);
-                    }
+                    primaryKeyEntityConstructor = EntityConstructor.of(primaryKeyType);
+                    if (primaryKeyEntityConstructor == null)
+                        primaryKeyConstructor = getConstructor(primaryKeyType);
 
                     return Arrays.stream(f.getType().getDeclaredFields())
                             .filter(fieldPredicate)
                             .map(fi -> new SqlFieldId(fi, fi.getName(), pref + fi.getName(), false, true));
                 }),
 
-                new FieldOperations(f -> f.isAnnotationPresent(Id.class),
-                        (f, pref) -> Stream.of(new SqlFieldId(f, f.getName(), pref + f.getName(), f.getAnnotation(Id.class).isIdentity(), false))),
+                new FieldOperations(f -> f.isAnnotationPresent(Id.class), (f, pref) -> {
+                    Id id = f.getAnnotation(Id.class);
+                    IdGenerator<?> generator = id.generator() == IdGenerator.class ? null : MapperRegistry.getIdGenerator(id.generator());
+                    if (generator != null && id.isIdentity())
+                        throw new DataMapperException("The field " + f.getName() + " on " + type.getSimpleName() + " can't be an identity and have a generator");
+                    return Stream.of(new SqlFieldId(f, f.getName(), pref + f.getName(), id.isIdentity(), false, generator));
+                }),
 
                 new FieldOperations(f -> f.isAnnotationPresent(ColumnName.class),
                         (f, pref) -> Stream.of(new SqlFieldExternal(f, pref))),
@@ -275,6 +362,14 @@ public class MapperSettings {
         };
     }
 
+    private static Constructor<?> getConstructor(Class<?> type) {
+        try {
+            return type.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new DataMapperException(e);
+        }
+    }
+
     private Stream<SqlField> toSqlField(Field f, String queryPrefix) {
         for (FieldOperations op : operations) {
             if (op.predicate.test(f))
@@ -291,6 +386,86 @@ public class MapperSettings {
         return selectCountQuery;
     }
 
+    public String getFromClause() {
+        return fromClause;
+    }
+
+    /**
+     * @return the selectQuery of the rows whose columns have the values of one of numberOfRows rows, also selecting columns
+     */
+    public String getSelectByColumnsQuery(List<String> columns, int numberOfRows) {
+        return getSelectAlsoQuery(columns) + "where " + getInCondition(columns, numberOfRows);
+    }
+
+    /**
+     * @return the selectQuery joined with the relation table of sqlFieldExternal, also selecting its foreignNames
+     */
+    public String getSelectThroughTableQuery(SqlFieldExternal sqlFieldExternal, int numberOfRows) {
+        List<String> foreignNames = Arrays.stream(sqlFieldExternal.getForeignNames())
+                .map(name -> "L." + name)
+                .collect(Collectors.toList());
+
+        return getThroughTableQuery(sqlFieldExternal, foreignNames) + "where " + getInCondition(foreignNames, numberOfRows);
+    }
+
+    private String getThroughTableQuery(SqlFieldExternal sqlFieldExternal, List<String> columns) {
+        String[] externalNames = sqlFieldExternal.getExternalNames();
+        return IntStream.range(0, externalNames.length)
+                .mapToObj(i -> "L." + externalNames[i] + " = " + ids.get(i).getSelectQueryValue())
+                .collect(Collectors.joining(" and ", getSelectAlsoQuery(columns) + "inner join " + sqlFieldExternal.getTable() + " L on ", " "));
+    }
+
+    /**
+     * @return query, which must not be ordered, left joined with the select query of the type of each of the joined references
+     */
+    public String getSelectJoinQuery(String query, List<SqlFieldExternal> joined) {
+        StringBuilder sb = new StringBuilder("select M.*");
+        for (int i = 0; i < joined.size(); i++)
+            sb.append(", J").append(i).append(".*");
+        sb.append(" from (").append(query).append(") M");
+
+        for (int i = 0; i < joined.size(); i++) {
+            SqlFieldExternal sqlFieldExternal = joined.get(i);
+            MapperSettings joinedSettings = MapperRegistry.getMapperSettings((Class) sqlFieldExternal.getDomainObjectType());
+            List<String> columns = sqlFieldExternal.getNames().length != 0
+                    ? Arrays.asList(sqlFieldExternal.getNames())
+                    : ids.stream().map(SqlField::getName).collect(Collectors.toList());
+
+            String alias = "J" + i;
+            sb.append(" left join (").append(joinedSettings.getJoinedSelectQuery(sqlFieldExternal)).append(") ").append(alias).append(" on ")
+                    .append(IntStream.range(0, columns.size())
+                            .mapToObj(j -> alias + ".J_" + j + " = M." + columns.get(j))
+                            .collect(Collectors.joining(" and ")));
+        }
+        return sb.toString();
+    }
+
+    //Also selects the columns matched with the ones of the type that has sqlFieldExternal, named J_0, J_1...
+    private String getJoinedSelectQuery(SqlFieldExternal sqlFieldExternal) {
+        List<String> columns;
+        if (sqlFieldExternal.getNames().length != 0)
+            columns = ids.stream().map(SqlField::getSelectQueryValue).collect(Collectors.toList());
+        else if (!sqlFieldExternal.getTable().isEmpty())
+            columns = Arrays.stream(sqlFieldExternal.getForeignNames()).map(name -> "L." + name).collect(Collectors.toList());
+        else
+            columns = Arrays.asList(sqlFieldExternal.getForeignNames());
+
+        List<String> joinColumns = IntStream.range(0, columns.size())
+                .mapToObj(i -> columns.get(i) + " J_" + i)
+                .collect(Collectors.toList());
+        return sqlFieldExternal.getTable().isEmpty()
+                ? getSelectAlsoQuery(joinColumns)
+                : getThroughTableQuery(sqlFieldExternal, joinColumns);
+    }
+
+    private String getSelectAlsoQuery(List<String> columns) {
+        return selectQuery.substring(0, selectQuery.length() - fromClause.length()) + ", " + String.join(", ", columns) + fromClause;
+    }
+
+    public int getNumberOfSelectColumns() {
+        return numberOfSelectColumns;
+    }
+
     public String getInsertQuery() {
         return insertQuery;
     }
@@ -299,6 +474,137 @@ public class MapperSettings {
         return updateQuery;
     }
 
+    public List<String> getUpdateColumns() {
+        return updateColumns;
+    }
+
+    /**
+     * @return the update query that only sets changedColumns, the indexes of getUpdateColumns, which must not be changed after
+     */
+    public String getUpdateQuery(BitSet changedColumns) {
+        return partialUpdateQueries.computeIfAbsent(changedColumns, changed -> changed
+                .stream()
+                .mapToObj(i -> updateColumns.get(i) + " = ?")
+                .collect(Collectors.joining(", ", "update " + type.getSimpleName() + " set ", " where "))
+                + updateWhere);
+    }
+
+    /**
+     * @return the insert query that also gives the generated ids, if any, and the version of the new row on dialect
+     */
+    public String getInsertQuery(Dialect dialect) {
+        if (versionField == null || !dialect.returnsVersion() && !versionWrittenByMapper) return insertQuery;
+        return versionedInsertQueries.computeIfAbsent(dialect, this::buildVersionedInsertQuery);
+    }
+
+    private String buildVersionedInsertQuery(Dialect dialect) {
+        String into = "insert into " + type.getSimpleName() + " ( ";
+        String values = insertColumns.stream().map(c -> "?").collect(Collectors.joining(", ", "values ( ", " )"));
+        switch (dialect) {
+            case SQL_SERVER:
+                return into + String.join(", ", insertColumns) + " ) "
+                        + Stream.concat(generatedIdsNames.stream().map(id -> "INSERTED." + id), Stream.of(getOutputVersion()))
+                        .collect(Collectors.joining(", ", "output ", " "))
+                        + values;
+            case POSTGRESQL:
+                return into + String.join(", ", insertColumns) + " ) " + values
+                        + Stream.concat(generatedIdsNames.stream(), Stream.of(versionColumnName))
+                        .collect(Collectors.joining(", ", " returning ", ""));
+            default:
+                //The new rows start at version 1
+                return Stream.concat(insertColumns.stream(), Stream.of(versionColumnName))
+                        .collect(Collectors.joining(", ", into, " ) "))
+                        + Stream.concat(insertColumns.stream().map(c -> "?"), Stream.of("1"))
+                        .collect(Collectors.joining(", ", "values ( ", " )"));
+        }
+    }
+
+    /**
+     * @return getUpdateQuery(changedColumns), which also gives or increments the version of the row on dialect
+     */
+    public String getUpdateQuery(Dialect dialect, BitSet changedColumns) {
+        if (versionField == null || !dialect.returnsVersion() && !versionWrittenByMapper)
+            return changedColumns == null ? updateQuery : getUpdateQuery(changedColumns);
+
+        BitSet setColumns = changedColumns;
+        if (setColumns == null) {
+            setColumns = new BitSet(updateColumns.size());
+            setColumns.set(0, updateColumns.size());
+        }
+        return versionedUpdateQueries
+                .computeIfAbsent(dialect, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(setColumns, columns -> buildVersionedUpdateQuery(dialect, columns));
+    }
+
+    private String buildVersionedUpdateQuery(Dialect dialect, BitSet setColumns) {
+        String set = setColumns
+                .stream()
+                .mapToObj(i -> updateColumns.get(i) + " = ?")
+                .collect(Collectors.joining(", ", "update " + type.getSimpleName() + " set ", ""));
+        switch (dialect) {
+            case SQL_SERVER:
+                return set + " output " + getOutputVersion() + " where " + updateWhere;
+            case POSTGRESQL:
+                return set + " where " + updateWhere + " returning " + versionColumnName;
+            default:
+                return set + String.format(", %s = %s + 1", versionColumnName, versionColumnName) + " where " + updateWhere;
+        }
+    }
+
+    /**
+     * @return the start of a set-based update of columns, to be followed by a where clause
+     */
+    public String getUpdateSetQuery(Dialect dialect, List<String> columns) {
+        String set = columns.stream()
+                .map(column -> column + " = ?")
+                .collect(Collectors.joining(", ", "update " + type.getSimpleName() + " set ", ""));
+        return writesVersions(dialect)
+                ? set + String.format(", %s = %s + 1", versionColumnName, versionColumnName)
+                : set;
+    }
+
+    /**
+     * @return the statement that inserts a row, or updates the row with the same ids, without checking its version
+     */
+    public String getUpsertQuery(Dialect dialect) {
+        return upsertQueries.computeIfAbsent(dialect, this::buildUpsertQuery);
+    }
+
+    private String buildUpsertQuery(Dialect dialect) {
+        boolean setVersion = dialect == Dialect.POSTGRESQL ? versionField != null : writesVersions(dialect);
+
+        List<String> sets = updateColumns.stream()
+                .map(c -> c + (dialect == Dialect.POSTGRESQL ? " = excluded." + c : " = ?"))
+                .collect(Collectors.toList());
+        List<String> columnsNames = new ArrayList<>(insertColumns);
+        List<String> values = insertColumns.stream().map(c -> "?").collect(Collectors.toList());
+        if (setVersion) {
+            sets.add(String.format("%s = T.%s + 1", versionColumnName, versionColumnName));
+            columnsNames.add(versionColumnName);
+            values.add("1");
+        }
+        String insert = "( " + String.join(", ", columnsNames) + " ) values ( " + String.join(", ", values) + " )";
+
+        if (dialect == Dialect.POSTGRESQL) {
+            return "insert into " + type.getSimpleName() + " as T " + insert
+                    + idsNames.stream().collect(Collectors.joining(", ", " on conflict ( ", " ) "))
+                    + (sets.isEmpty() ? "do nothing" : "do update set " + String.join(", ", sets));
+        }
+
+        //On SQL Server, a merge only locks the row it matched, so holdlock keeps concurrent merges from inserting the same ids
+        String target = dialect == Dialect.SQL_SERVER ? type.getSimpleName() + " with (holdlock)" : type.getSimpleName();
+        String merge = "merge into " + target + " as T using ( values ( 0 ) ) as S ( x ) on "
+                + idsNames.stream().map(id -> "T." + id + " = ?").collect(Collectors.joining(" and "))
+                + (sets.isEmpty() ? "" : " when matched then update set " + String.join(", ", sets))
+                + " when not matched then insert " + insert;
+        //SQL Server requires merge statements to be terminated
+        return dialect == Dialect.SQL_SERVER ? merge + ";" : merge;
+    }
+
+    private String getOutputVersion() {
+        return String.format("CAST(INSERTED.%s as bigint) %s", versionColumnName, versionColumnName);
+    }
+
     public String getDeleteQuery() {
         return deleteQuery;
     }
@@ -309,6 +615,27 @@ public class MapperSettings {
 
     public String getPagination() { return pagination; }
 
+    /**
+     * @return the condition that matches any of numberOfKeys keys, bound with the values of the ids of each key, in order
+     */
+    public String getIdsInCondition(int numberOfKeys, Function<SqlField, String> columnName) {
+        return getInCondition(ids.stream().map(columnName).collect(Collectors.toList()), numberOfKeys);
+    }
+
+    /**
+     * @return the condition that matches the values of columnNames of any of numberOfRows rows
+     */
+    public static String getInCondition(List<String> columnNames, int numberOfRows) {
+        String row = columnNames.size() == 1 ? "?" : columnNames.stream().map(name -> "?").collect(Collectors.joining(", ", "(", ")"));
+        String columns = columnNames.size() == 1
+                ? columnNames.get(0)
+                : columnNames.stream().collect(Collectors.joining(", ", "(", ")"));
+
+        return Collections.nCopies(numberOfRows, row)
+                .stream()
+                .collect(Collectors.joining(", ", columns + " in (", ")"));
+    }
+
     public List<SqlFieldId> getIds() {
         return ids;
     }
@@ -325,6 +652,25 @@ public class MapperSettings {
         return allFields;
     }
 
+    /**
+     * @return where each field that is mapped from a row with columnNames is, built once per list of columns
+     */
+    public List<ColumnMapping> getRowPlan(List<String> columnNames) {
+        return rowPlans.computeIfAbsent(columnNames, names -> allFields
+                .stream()
+                .filter(sqlField -> fieldPredicate.test(sqlField.getField()))
+                .map(sqlField -> new ColumnMapping(sqlField, names, isPrimaryKeyField(sqlField), getParameter(sqlField), ids.indexOf(sqlField)))
+                .collect(Collectors.toList()));
+    }
+
+    private int getParameter(SqlField sqlField) {
+        return entityConstructor == null || isPrimaryKeyField(sqlField) ? -1 : entityConstructor.indexOf(sqlField.getField());
+    }
+
+    public boolean isPrimaryKeyField(SqlField sqlField) {
+        return sqlField instanceof SqlFieldId && ((SqlFieldId) sqlField).isEmbeddedId();
+    }
+
     public Predicate<Field> getFieldPredicate() {
         return fieldPredicate;
     }
@@ -337,11 +683,55 @@ public class MapperSettings {
         return primaryKeyConstructor;
     }
 
+    public Object newPrimaryKey(Object[] idValues) {
+        if (primaryKeyEntityConstructor != null) {
+            Object[] arguments = primaryKeyEntityConstructor.newArguments();
+            for (int i = 0; i < idValues.length; i++)
+                primaryKeyEntityConstructor.setArgument(arguments, ids.get(i).getField(), idValues[i]);
+            return primaryKeyEntityConstructor.newInstance(arguments);
+        }
+
+        try {
+            Object primaryKey = primaryKeyConstructor.newInstance();
+            for (int i = 0; i < idValues.length; i++)
+                ids.get(i).getAccessor().set(primaryKey, idValues[i]);
+
+            //!! DON'T FORGET TO SET VALUES ON "objects" FIELD ON EMBEDDED ID CLASS !!
+            EmbeddedIdClass.getObjectsAccessor().set(primaryKey, idValues);
+            return primaryKey;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new DataMapperException(e);
+        }
+    }
+
+    public FieldAccessor getPrimaryKeyAccessor() {
+        return primaryKeyAccessor;
+    }
+
     public SqlFieldVersion getVersionField() {
         return versionField;
     }
 
+    /**
+     * @return if the statements on dialect write the version themselves, so the new version is known without reading it back
+     */
+    public boolean writesVersions(Dialect dialect) {
+        return versionField != null && !dialect.returnsVersion() && versionWrittenByMapper;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
     public Constructor getConstructor() {
         return constructor;
     }
+
+    public EntityConstructor getEntityConstructor() {
+        return entityConstructor;
+    }
+
+    public GeneratedMapper<?, ?> getGeneratedMapper() {
+        return generatedMapper;
+    }
 }
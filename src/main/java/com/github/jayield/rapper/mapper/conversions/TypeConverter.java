@@ -0,0 +1,42 @@
+package com.github.jayield.rapper.mapper.conversions;
+
+import java.util.function.Function;
+
+/**
+ * Converts the values of the fields of a given type to and from the values exchanged with the JDBC client.
+ * The JDBC client gives the columns as Strings, Numbers, Booleans or byte arrays (dates and times come as ISO-8601 Strings)
+ * and accepts the same kinds of values, plus Instants, as parameters.
+ * A converter is registered in MapperRegistry and resolved once for each field of that type.
+ * Null values are never passed to a converter. The values are boxed on both sides, as the client exchanges them in JsonArrays,
+ * so there are no primitive variants of these methods.
+ *
+ * @param <T> type of the field
+ */
+public interface TypeConverter<T> {
+
+    /**
+     * @param value value of a column, never null
+     * @return the value to set on the field
+     */
+    T fromColumn(Object value);
+
+    /**
+     * @param value value of the field, never null
+     * @return the value to bind as a parameter of a statement
+     */
+    Object toColumn(T value);
+
+    static <T> TypeConverter<T> of(Function<Object, T> fromColumn, Function<T, Object> toColumn) {
+        return new TypeConverter<T>() {
+            @Override
+            public T fromColumn(Object value) {
+                return fromColumn.apply(value);
+            }
+
+            @Override
+            public Object toColumn(T value) {
+                return toColumn.apply(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.jayield.rapper.mapper.conversions;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * The built-in TypeConverters.
+ * Every converter returns the value untouched when it already has the type of the field, so the common case doesn't allocate.
+ * Dates and times are parsed with java.time, which is thread safe. DATE columns are read at the start of the day in the
+ * default time zone, like java.sql.Date does.
+ */
+public final class TypeConverters {
+
+    private TypeConverters() {
+    }
+
+    public static Map<Class<?>, TypeConverter<?>> getBuiltIns() {
+        Map<Class<?>, TypeConverter<?>> converters = new HashMap<>();
+
+        TypeConverter<Integer> integerConverter = number(Integer.class, Number::intValue, Integer::valueOf);
+        TypeConverter<Long> longConverter = number(Long.class, Number::longValue, Long::valueOf);
+        TypeConverter<Short> shortConverter = number(Short.class, Number::shortValue, Short::valueOf);
+        TypeConverter<Byte> byteConverter = number(Byte.class, Number::byteValue, Byte::valueOf);
+        TypeConverter<Double> doubleConverter = number(Double.class, Number::doubleValue, Double::valueOf);
+        TypeConverter<Float> floatConverter = number(Float.class, Number::floatValue, Float::valueOf);
+        TypeConverter<Boolean> booleanConverter = TypeConverter.of(TypeConverters::toBoolean, value -> value);
+        TypeConverter<Character> characterConverter = TypeConverter.of(
+                value -> value instanceof Character ? (Character) value : value.toString().charAt(0),
+                String::valueOf
+        );
+
+        converters.put(int.class, integerConverter);
+        converters.put(Integer.class, integerConverter);
+        converters.put(long.class, longConverter);
+        converters.put(Long.class, longConverter);
+        converters.put(short.class, shortConverter);
+        converters.put(Short.class, shortConverter);
+        converters.put(byte.class, byteConverter);
+        converters.put(Byte.class, byteConverter);
+        converters.put(double.class, doubleConverter);
+        converters.put(Double.class, doubleConverter);
+        converters.put(float.class, floatConverter);
+        converters.put(Float.class, floatConverter);
+        converters.put(boolean.class, booleanConverter);
+        converters.put(Boolean.class, booleanConverter);
+        converters.put(char.class, characterConverter);
+        converters.put(Character.class, characterConverter);
+
+        converters.put(Instant.class, TypeConverter.<Instant>of(
+                value -> value instanceof Instant ? (Instant) value : toInstant(value.toString()),
+                value -> value
+        ));
+        converters.put(LocalDate.class, TypeConverter.<LocalDate>of(
+                value -> value instanceof LocalDate ? (LocalDate) value : toLocalDate(value.toString()),
+                LocalDate::toString
+        ));
+        converters.put(LocalDateTime.class, TypeConverter.<LocalDateTime>of(
+                value -> value instanceof LocalDateTime ? (LocalDateTime) value : toLocalDateTime(value.toString()),
+                value -> value.atZone(ZoneId.systemDefault()).toInstant()
+        ));
+        converters.put(LocalTime.class, TypeConverter.<LocalTime>of(
+                value -> value instanceof LocalTime ? (LocalTime) value : LocalTime.parse(value.toString()),
+                value -> value.format(DateTimeFormatter.ISO_LOCAL_TIME)
+        ));
+        converters.put(OffsetDateTime.class, TypeConverter.<OffsetDateTime>of(
+                value -> value instanceof OffsetDateTime ? (OffsetDateTime) value : toInstant(value.toString()).atOffset(ZoneOffset.UTC),
+                OffsetDateTime::toInstant
+        ));
+        converters.put(ZonedDateTime.class, TypeConverter.<ZonedDateTime>of(
+                value -> value instanceof ZonedDateTime ? (ZonedDateTime) value : toInstant(value.toString()).atZone(ZoneOffset.UTC),
+                ZonedDateTime::toInstant
+        ));
+
+        converters.put(UUID.class, TypeConverter.of(TypeConverters::toUUID, UUID::toString));
+        converters.put(BigDecimal.class, TypeConverter.of(TypeConverters::toBigDecimal, BigDecimal::toPlainString));
+        converters.put(byte[].class, TypeConverter.<byte[]>of(
+                //The JDBC client encodes binary values in Base64
+                value -> value instanceof byte[] ? (byte[]) value : Base64.getDecoder().decode(value.toString()),
+                value -> value
+        ));
+        return converters;
+    }
+
+    /**
+     * Enums are stored by name, but can be read from their ordinal
+     */
+    public static <E extends Enum<E>> TypeConverter<E> forEnum(Class<E> type) {
+        E[] constants = type.getEnumConstants();
+        return TypeConverter.of(
+                value -> {
+                    if (type.isInstance(value)) return type.cast(value);
+                    if (value instanceof Number) return constants[((Number) value).intValue()];
+                    return Enum.valueOf(type, value.toString());
+                },
+                Enum::name
+        );
+    }
+
+    /**
+     * @param converter the converter of a field, may be null
+     * @param value the value of a column
+     * @return the value to set on the field
+     */
+    public static Object fromColumn(TypeConverter<?> converter, Object value) {
+        return converter == null || value == null ? value : converter.fromColumn(value);
+    }
+
+    /**
+     * @param converter the converter of a field, may be null
+     * @param value the value of the field
+     * @return the value to bind as a parameter
+     */
+    public static Object toColumn(TypeConverter<?> converter, Object value) {
+        return converter == null || value == null ? value : ((TypeConverter<Object>) converter).toColumn(value);
+    }
+
+    private static <T> TypeConverter<T> number(Class<T> type, Function<Number, T> fromNumber, Function<String, T> fromString) {
+        return TypeConverter.of(
+                value -> {
+                    if (type.isInstance(value)) return type.cast(value);
+                    if (value instanceof Number) return fromNumber.apply((Number) value);
+                    return fromString.apply(value.toString());
+                },
+                value -> value
+        );
+    }
+
+    private static Boolean toBoolean(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).intValue() != 0;
+        String s = value.toString();
+        return s.equals("1") || Boolean.parseBoolean(s);
+    }
+
+    private static boolean isDate(String value) {
+        return value.length() == 10;
+    }
+
+    private static Instant toInstant(String value) {
+        if (isDate(value))
+            return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        return OffsetDateTime.parse(value).toInstant();
+    }
+
+    private static LocalDate toLocalDate(String value) {
+        if (isDate(value))
+            return LocalDate.parse(value);
+        return toLocalDateTime(value).toLocalDate();
+    }
+
+    private static LocalDateTime toLocalDateTime(String value) {
+        if (isDate(value))
+            return LocalDate.parse(value).atStartOfDay();
+        return LocalDateTime.ofInstant(OffsetDateTime.parse(value).toInstant(), ZoneId.systemDefault());
+    }
+
+    private static UUID toUUID(Object value) {
+        if (value instanceof UUID) return (UUID) value;
+        if (value instanceof byte[]) {
+            ByteBuffer buffer = ByteBuffer.wrap((byte[]) value);
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+        return UUID.fromString(value.toString());
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        if (value instanceof BigInteger) return new BigDecimal((BigInteger) value);
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return BigDecimal.valueOf(((Number) value).longValue());
+        if (value instanceof Number) return BigDecimal.valueOf(((Number) value).doubleValue());
+        return new BigDecimal(value.toString());
+    }
+}
@@ -1,16 +1,14 @@
 package com.github.jayield.rapper.mapper.externals;
 
 import com.github.jayield.rapper.DomainObject;
-import com.github.jayield.rapper.annotations.EmbeddedId;
-import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.MapperRegistry;
 import com.github.jayield.rapper.mapper.MapperSettings;
+import com.github.jayield.rapper.sql.SqlField;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
-import com.github.jayield.rapper.unitofwork.UnitOfWork;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public abstract class AbstractPopulate<T extends DomainObject<K>, K> implements Populate<T> {
@@ -24,37 +22,40 @@ public abstract class AbstractPopulate<T extends DomainObject<K>, K> implements
 
     @Override
     public CompletableFuture<Void> execute(T t, SqlFieldExternal sqlFieldExternal) {
-        populate(t, sqlFieldExternal, MapperRegistry.getContainer(sqlFieldExternal.getDomainObjectType()), idValues(t, sqlFieldExternal));
+        List<Object> idValues = mapperSettings.getIds()
+                .stream()
+                .map(sqlFieldId -> getPrimaryKeyValue(t, sqlFieldId))
+                .collect(Collectors.toList());
+        sqlFieldExternal.getAccessor().set(t, getValue(idValues, sqlFieldExternal));
         return null;
     }
 
-    public abstract Stream<Object> idValues(T t, SqlFieldExternal sqlFieldExternal);
-    public abstract<N extends DomainObject<V>,V> void populate(T t, SqlFieldExternal sqlFieldExternal, MapperRegistry.Container<N, V> container, Stream<Object> idValues);
+    @Override
+    public Object getValue(List<Object> idValues, SqlFieldExternal sqlFieldExternal) {
+        return populate(sqlFieldExternal, MapperRegistry.getContainer(sqlFieldExternal.getDomainObjectType()), idValues(idValues, sqlFieldExternal));
+    }
+
+    /**
+     * @param idValues the values of T's ids
+     * @param sqlFieldExternal
+     * @return the values used to find the external objects
+     */
+    public abstract Stream<Object> idValues(List<Object> idValues, SqlFieldExternal sqlFieldExternal);
+    public abstract<N extends DomainObject<V>,V> Object populate(SqlFieldExternal sqlFieldExternal, MapperRegistry.Container<N, V> container, Stream<Object> idValues);
 
     /**
      * It will get the value of the primary key from t
      *
      * @param t
-     * @param field
+     * @param sqlField
      * @return
      */
-    protected Object getPrimaryKeyValue(T t, Field field) {
-        try {
-            field.setAccessible(true);
-            if (mapperSettings.getPrimaryKeyConstructor() == null)
-                return field.get(t);
-            else {
-                Field primaryKeyField = Arrays.stream(t.getClass().getDeclaredFields())
-                        .filter(f -> f.isAnnotationPresent(EmbeddedId.class))
-                        .findFirst()
-                        .orElseThrow(() -> new DataMapperException("EmbeddedId field not found on " + t.getClass().getSimpleName()));
-                primaryKeyField.setAccessible(true);
-                Object primaryKey = primaryKeyField.get(t);
-
-                return field.get(primaryKey);
-            }
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
+    protected Object getPrimaryKeyValue(T t, SqlField sqlField) {
+        if (mapperSettings.getPrimaryKeyType() == null)
+            return sqlField.getAccessor().get(t);
+        else {
+            Object primaryKey = mapperSettings.getPrimaryKeyAccessor().get(t);
+            return sqlField.getAccessor().get(primaryKey);
         }
     }
 }
@@ -2,24 +2,13 @@ package com.github.jayield.rapper.mapper.externals;
 
 import com.github.jayield.rapper.DomainObject;
 import com.github.jayield.rapper.exceptions.DataMapperException;
-import com.github.jayield.rapper.mapper.DataMapper;
+import com.github.jayield.rapper.mapper.EntityConstructor;
 import com.github.jayield.rapper.mapper.MapperSettings;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
-import com.github.jayield.rapper.sql.SqlFunction;
-import com.github.jayield.rapper.unitofwork.UnitOfWork;
-import com.github.jayield.rapper.utils.*;
-import io.vertx.core.json.JsonObject;
-import io.vertx.ext.sql.ResultSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class ExternalsHandler<T extends DomainObject<K>, K> {
     private final Map<Class<? extends Populate>, Populate<T>> populatorsMap;
@@ -44,66 +33,33 @@ public class ExternalsHandler<T extends DomainObject<K>, K> {
         List<SqlFieldExternal> externals = mapperSettings.getExternals();
         if (externals != null)
             externals.forEach(sqlFieldExternal -> {
-                Populate<T> populate = populatorsMap.get(sqlFieldExternal.getPopulateStrategy());
-                if (populate == null)
-                    throw new DataMapperException("The annotation ColumnName didn't follow the rules");
-                populate.execute(t, sqlFieldExternal);
+                if (!isConstructorParameter(t, sqlFieldExternal))
+                    getPopulate(sqlFieldExternal).execute(t, sqlFieldExternal);
             });
     }
 
     /**
-     * It will get the external object's Ids and call its mapper to obtain all external objects
+     * Gets the value of an external that is passed to the EntityConstructor of T, since it can't be set once T is created
      *
-     * @param <V>
-     * @param repo
-     * @param foreignNames
-     * @param resultSet
-     * @return
+     * @param sqlFieldExternal
+     * @param idValues the values of T's ids
+     * @return the value of the field of sqlFieldExternal
      */
-    public <N extends DomainObject<V>, V> Stream<CompletableFuture<N>> getExternalObjects(DataMapper<N, V> repo, String[] foreignNames, ResultSet resultSet) {
-        List<V> idValues = getIds(resultSet, foreignNames)
-                .stream()
-                .map(e -> (V)e)
-                .collect(Collectors.toList());
-        return idValues
-                .stream()
-                .map(repo::findById)
-                .map(optionalCompletableFuture -> optionalCompletableFuture
-                        .thenApply(optional -> optional.orElseThrow(
-                                () -> new DataMapperException("Couldn't get external object. Its ID was found in the external table, but not on its table"))
-                        )
-                );
+    public Object getExternalValue(SqlFieldExternal sqlFieldExternal, List<Object> idValues) {
+        return getPopulate(sqlFieldExternal).getValue(idValues, sqlFieldExternal);
     }
 
-    /**
-     * Get external's object ids from external table
-     *
-     * @param rs
-     * @param foreignNames
-     * @return
-     * @throws SQLException
-     */
-    private List<Object> getIds(io.vertx.ext.sql.ResultSet rs, String[] foreignNames) {
-        SqlFunction<JsonObject, Stream<Object>> function;
-
-        Constructor primaryKeyConstructor = mapperSettings.getPrimaryKeyConstructor();
-        if (primaryKeyConstructor == null)
-            function = jo -> Arrays.stream(foreignNames).map(jo::getValue);
-        else
-            function = jo -> {
-                List<Object> idValues = new ArrayList<>();
-                Object newInstance = primaryKeyConstructor.newInstance();
-                Field[] primaryKeyDeclaredFields = mapperSettings.getPrimaryKeyType().getDeclaredFields();
-                for (int i = 0; i < foreignNames.length; i++) {
-                    Object object = jo.getValue(foreignNames[i]);
-                    idValues.add(object);
-                    primaryKeyDeclaredFields[i].set(newInstance, object);
-                }
-                //!! DON'T FORGET TO SET VALUES ON "objects" FIELD ON EMBEDDED ID CLASS !!>
-                EmbeddedIdClass.getObjectsField().set(newInstance, idValues.toArray());
-                return Stream.of(newInstance);
-            };
+    private boolean isConstructorParameter(T t, SqlFieldExternal sqlFieldExternal) {
+        EntityConstructor entityConstructor = mapperSettings.getEntityConstructor();
+        return entityConstructor != null
+                && entityConstructor.getType() == t.getClass()
+                && entityConstructor.indexOf(sqlFieldExternal.getField()) != -1;
+    }
 
-        return rs.getRows(true).stream().flatMap(function.wrap()).collect(Collectors.toList());
+    private Populate<T> getPopulate(SqlFieldExternal sqlFieldExternal) {
+        Populate<T> populate = populatorsMap.get(sqlFieldExternal.getPopulateStrategy());
+        if (populate == null)
+            throw new DataMapperException("The annotation ColumnName didn't follow the rules");
+        return populate;
     }
 }
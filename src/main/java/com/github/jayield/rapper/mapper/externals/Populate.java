@@ -2,9 +2,20 @@ package com.github.jayield.rapper.mapper.externals;
 
 import com.github.jayield.rapper.DomainObject;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
+
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface Populate<T extends DomainObject> {
     CompletableFuture<Void> execute(T t, SqlFieldExternal sqlFieldExternal);
+
+    /**
+     * Gets the value of the field of sqlFieldExternal without setting it, for a T that is yet to be created
+     *
+     * @param idValues the values of T's ids
+     * @param sqlFieldExternal
+     * @return the value of the field
+     */
+    Object getValue(List<Object> idValues, SqlFieldExternal sqlFieldExternal);
 }
 
@@ -1,7 +1,6 @@
 package com.github.jayield.rapper.mapper.externals;
 
 import com.github.jayield.rapper.DomainObject;
-import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.MapperRegistry;
 import com.github.jayield.rapper.mapper.MapperSettings;
 import com.github.jayield.rapper.mapper.conditions.EqualAndCondition;
@@ -14,6 +13,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class PopulateMultiReference<T extends DomainObject<K>, K> extends AbstractPopulate<T, K> {
@@ -23,35 +23,34 @@ public class PopulateMultiReference<T extends DomainObject<K>, K> extends Abstra
     }
 
     @Override
-    public Stream<Object> idValues(T t, SqlFieldExternal sqlFieldExternal) {
-        return mapperSettings.getIds()
-                .stream()
-                .map(sqlFieldId -> getPrimaryKeyValue(t, sqlFieldId.getField()));
+    public Stream<Object> idValues(List<Object> idValues, SqlFieldExternal sqlFieldExternal) {
+        return idValues.stream();
     }
 
     /**
-     * Will call the external object's mapper's find with T's ids to find the external objects who are referenced by T
+     * Will call the external object's mapper's find with T's ids to find the external objects who are referenced by T,
+     * unless they were already loaded in the UnitOfWork together with the ones of other T's
      *
-     * @param t
      * @param sqlFieldExternal
      * @param container
      * @param idValues
+     * @return the function to set on T
      */
     @Override
-    public <N extends DomainObject<V>, V> void populate(T t, SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
-        Iterator<Object> idValues1 = idValues.iterator();
+    public <N extends DomainObject<V>, V> Object populate(SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
+        List<Object> ids = idValues.collect(Collectors.toList());
+        Iterator<Object> idValues1 = ids.iterator();
         EqualAndCondition<Object>[] pairs = Arrays.stream(sqlFieldExternal.getForeignNames())
                 .map(str -> new EqualAndCondition<>(str, idValues1.next()))
                 .toArray(EqualAndCondition[]::new);
 
-        Function<UnitOfWork, CompletableFuture<List<N>>> objects = unit -> MapperRegistry.getMapper(sqlFieldExternal.getDomainObjectType(), unit).find(pairs);
+        Function<UnitOfWork, CompletableFuture<List<N>>> objects = unit -> {
+            List<N> loaded = unit.getExternals(sqlFieldExternal, ids);
+            if (loaded != null) return CompletableFuture.completedFuture(loaded);
+            return MapperRegistry.getMapper(sqlFieldExternal.getDomainObjectType(), unit).find(pairs);
+        };
 
-        try {
-            sqlFieldExternal.getField().setAccessible(true);
-            sqlFieldExternal.getField().set(t, objects);
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
-        }
+        return objects;
     }
 
 
@@ -5,14 +5,13 @@ import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.MapperRegistry;
 import com.github.jayield.rapper.mapper.MapperSettings;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
+import com.github.jayield.rapper.sql.SqlFieldId;
 import com.github.jayield.rapper.unitofwork.UnitOfWork;
 import com.github.jayield.rapper.utils.*;
 import com.github.jayield.rapper.mapper.MapperRegistry.Container;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -24,7 +23,7 @@ public class PopulateSingleReference<T extends DomainObject<K>, K> extends Abstr
     }
 
     @Override
-    public Stream<Object> idValues(T t, SqlFieldExternal sqlFieldExternal) {
+    public Stream<Object> idValues(List<Object> idValues, SqlFieldExternal sqlFieldExternal) {
         return Arrays.stream(sqlFieldExternal.getForeignKey());
     }
 
@@ -37,42 +36,29 @@ public class PopulateSingleReference<T extends DomainObject<K>, K> extends Abstr
      * @param container
      * @param idValues
      * @param <V>
+     * @return the Foreign to set on T
      */
     @Override
-    public <N extends DomainObject<V>, V> void populate(T t, SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
+    public <N extends DomainObject<V>, V> Object populate(SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
         Object id;
-        Constructor<?> externalPrimaryKeyConstructor = container.getMapperSettings().getPrimaryKeyConstructor();
-        if (externalPrimaryKeyConstructor == null){
-            id = idValues.findFirst().orElse(null);
+        MapperSettings externalSettings = container.getMapperSettings();
+        List<SqlFieldId> externalIds = externalSettings.getIds();
+        if (externalSettings.getPrimaryKeyType() == null){
+            id = externalIds.get(0).fromColumn(idValues.findFirst().orElse(null));
         }
         else {
-            try {
-                id = externalPrimaryKeyConstructor.newInstance();
-                Object[] idValues1 = sqlFieldExternal.getForeignKey();
-                Field[] declaredFields = container.getMapperSettings()
-                        .getPrimaryKeyType()
-                        .getDeclaredFields();
-                for (int i = 0; i < idValues1.length; i++) {
-                    declaredFields[i].setAccessible(true);
-                    declaredFields[i].set(id, idValues1[i]);
-                }
-                //!! DON'T FORGET TO SET VALUES ON "objects" FIELD ON EMBEDDEDIDCLASS !!
-                EmbeddedIdClass.getObjectsField().set(id, idValues1);
-            } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
-                throw new DataMapperException(e);
-            }
+            Object[] foreignKey = sqlFieldExternal.getForeignKey();
+            Object[] idValues1 = new Object[foreignKey.length];
+            for (int i = 0; i < idValues1.length; i++)
+                idValues1[i] = externalIds.get(i).fromColumn(foreignKey[i]);
+            id = externalSettings.newPrimaryKey(idValues1);
         }
 
         Function<UnitOfWork, CompletableFuture<N>> futureSupplier = unit -> MapperRegistry.getMapper((Class<N>)sqlFieldExternal.getDomainObjectType(), unit)
                 .findById((V) id)
                 .thenApply(domainObject -> domainObject
-                        .orElseThrow(() -> new DataMapperException("Couldn't populate externals of " + t.getClass().getSimpleName() + ". The object wasn't found in the DB")));
+                        .orElseThrow(() -> new DataMapperException("Couldn't populate externals of " + mapperSettings.getType().getSimpleName() + ". The object wasn't found in the DB")));
 
-        try {
-            sqlFieldExternal.getField().setAccessible(true);
-            sqlFieldExternal.getField().set(t, new Foreign<>((V) id, futureSupplier));
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
-        }
+        return new Foreign<>((V) id, futureSupplier);
     }
 }
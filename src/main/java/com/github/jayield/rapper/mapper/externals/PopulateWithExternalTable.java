@@ -4,17 +4,16 @@ import com.github.jayield.rapper.DomainObject;
 import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.MapperSettings;
 import com.github.jayield.rapper.sql.SqlFieldExternal;
-import com.github.jayield.rapper.utils.SqlUtils;
+import com.github.jayield.rapper.sql.SqlFieldId;
 import com.github.jayield.rapper.unitofwork.UnitOfWork;
-import com.github.jayield.rapper.utils.*;
 import com.github.jayield.rapper.mapper.MapperRegistry.Container;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -29,43 +28,41 @@ public class PopulateWithExternalTable<T extends DomainObject<K>, K> extends Abs
     }
 
     @Override
-    public Stream<Object> idValues(T t, SqlFieldExternal sqlFieldExternal) {
-        return mapperSettings.getIds()
-                .stream()
-                .map(sqlFieldId -> getPrimaryKeyValue(t, sqlFieldId.getField()));
+    public Stream<Object> idValues(List<Object> idValues, SqlFieldExternal sqlFieldExternal) {
+        return idValues.stream();
     }
 
     /**
      * Used when it's a N-N relation.
-     * This method will get the generated selectQuery in SqlFieldExternal, to get from the relation table the ids of the external objects.
-     * With this, it will call external object's mapper's getById with those ids and create a list with the results.
-     * That List will be setted in the SqlFieldExternal
+     * The function set on T reads the external objects with a single query, which joins the relation table with the
+     * table of the external objects, unless they were already loaded in the UnitOfWork together with the ones of other T's.
+     * The external objects read are merged into the identity map, so the ones already there are kept.
      *
      * @param <V>
-     * @param t
      * @param sqlFieldExternal
      * @param container
      * @param idValues
+     * @return the function to set on T
      */
     @Override
-    public <N extends DomainObject<V>, V> void populate(T t, SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
-        Function<UnitOfWork, CompletableFuture<List<N>>> completableFuture = unit -> getExternal(unit, t, sqlFieldExternal, idValues);
+    public <N extends DomainObject<V>, V> Object populate(SqlFieldExternal sqlFieldExternal, Container<N, V> container, Stream<Object> idValues) {
+        List<Object> ids = idValues.collect(Collectors.toList());
+        Function<UnitOfWork, CompletableFuture<List<N>>> completableFuture = unit -> {
+            List<N> loaded = unit.getExternals(sqlFieldExternal, ids);
+            if (loaded != null) return CompletableFuture.completedFuture(loaded);
+            return getExternal(unit, sqlFieldExternal, ids);
+        };
 
-        try {
-            sqlFieldExternal.getField().setAccessible(true);
-            sqlFieldExternal.getField().set(t, completableFuture);
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
-        }
+        return completableFuture;
     }
 
-    private <N extends DomainObject<V>, V> CompletableFuture<List<N>> getExternal(UnitOfWork unit, T t, SqlFieldExternal sqlFieldExternal, Stream<Object> idValues) {
-        return SqlUtils.query(sqlFieldExternal.getSelectTableQuery(), unit, idValues.collect(CollectionUtils.toJsonArray()))
-                .thenCompose(resultSet -> externalsHandler.getExternalObjects(getMapper((Class<N>)sqlFieldExternal.getDomainObjectType(), unit), sqlFieldExternal.getExternalNames(), resultSet)
-                        .collect(Collectors.collectingAndThen(Collectors.toList(), CollectionUtils::listToCompletableFuture))
-                )
+    private <N extends DomainObject<V>, V> CompletableFuture<List<N>> getExternal(UnitOfWork unit, SqlFieldExternal sqlFieldExternal, List<Object> idValues) {
+        List<SqlFieldId> ids = mapperSettings.getIds();
+        return getMapper((Class<N>) sqlFieldExternal.getDomainObjectType(), unit)
+                .findThroughTable(sqlFieldExternal, Collections.singletonList(idValues), (i, value) -> ids.get(i).fromColumn(value))
+                .thenApply(found -> found.getOrDefault(idValues, Collections.emptyList()))
                 .exceptionally(throwable -> {
-                    logger.warn("Couldn't populate externals of {} due to {}", t.getClass().getSimpleName(), throwable.getMessage());
+                    logger.warn("Couldn't populate externals of {} due to {}", mapperSettings.getType().getSimpleName(), throwable.getMessage());
                     throw new DataMapperException(throwable);
                 });
     }
@@ -0,0 +1,69 @@
+package com.github.jayield.rapper.mapper.ids;
+
+import com.github.jayield.rapper.connections.ConnectionManager;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.unitofwork.UnitOfWork;
+import com.github.jayield.rapper.utils.SqlUtils;
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gives ids from blocks of blockSize ids, reserved with one round trip each: the next value of a DB sequence, the hi,
+ * reserves the ids from hi * blockSize to hi * blockSize + blockSize - 1, which are then given without going to the DB.
+ * The sequence must be created beforehand, incrementing by 1, and the ids it gives must not collide with existing rows.
+ * The ids left in a block when the process ends, or when two blocks are reserved at the same time, are never given.
+ *
+ * Extend it with a constructor without parameters to set it on an @Id, e.g. super("Book_seq", 100).
+ */
+public class HiLoIdGenerator implements IdGenerator<Long> {
+    private final String sequenceName;
+    private final int blockSize;
+    private long next;
+    private long limit;
+
+    public HiLoIdGenerator(String sequenceName, int blockSize) {
+        if (blockSize <= 0) throw new DataMapperException("The block size must be positive");
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public CompletableFuture<List<Long>> nextIds(UnitOfWork unit, int count) {
+        List<Long> ids = new ArrayList<>(count);
+        return nextIds(unit, count, ids).thenApply(ignored -> ids);
+    }
+
+    private CompletableFuture<Void> nextIds(UnitOfWork unit, int count, List<Long> ids) {
+        take(count, ids);
+        if (ids.size() == count) return CompletableFuture.completedFuture(null);
+
+        return SqlUtils.query(getNextHiQuery(), unit, new JsonArray())
+                .thenCompose(rs -> {
+                    reserve(rs.getResults().get(0).getLong(0));
+                    return nextIds(unit, count, ids);
+                });
+    }
+
+    private synchronized void take(int count, List<Long> ids) {
+        while (ids.size() < count && next < limit) ids.add(next++);
+    }
+
+    private synchronized void reserve(long hi) {
+        next = hi * blockSize;
+        limit = next + blockSize;
+    }
+
+    private String getNextHiQuery() {
+        switch (ConnectionManager.getCurrentDialect()) {
+            case POSTGRESQL:
+                return "select nextval('" + sequenceName + "')";
+            case SQL_SERVER:
+                return "select next value for " + sequenceName;
+            default:
+                return "values next value for " + sequenceName;
+        }
+    }
+}
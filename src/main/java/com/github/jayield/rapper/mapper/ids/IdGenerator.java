@@ -0,0 +1,24 @@
+package com.github.jayield.rapper.mapper.ids;
+
+import com.github.jayield.rapper.unitofwork.UnitOfWork;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gives the ids of new objects before they're inserted, so their rows can be inserted in JDBC batches, unlike the rows
+ * of identity columns, whose ids are only known after each insert.
+ * A generator is set on a field with @Id(generator = ...), so it must have a constructor without parameters.
+ * There is one instance of each generator, shared by all the mappers and units, so it must be thread safe.
+ *
+ * @param <K> type of the ids, which the converter of the field narrows to its type
+ */
+public interface IdGenerator<K> {
+
+    /**
+     * @param unit the unit inserting the objects, whose connection may be used to reserve the ids
+     * @param count how many ids are needed
+     * @return count ids that were never given before
+     */
+    CompletableFuture<List<K>> nextIds(UnitOfWork unit, int count);
+}
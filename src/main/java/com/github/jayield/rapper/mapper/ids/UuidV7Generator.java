@@ -0,0 +1,45 @@
+package com.github.jayield.rapper.mapper.ids;
+
+import com.github.jayield.rapper.unitofwork.UnitOfWork;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gives version 7 UUIDs, which start with the unix time in milliseconds, so the ids are ordered by the time they're given
+ * and new rows are appended to the end of the index of the primary key instead of being spread through it.
+ * The 12 bits after the version are a counter, so the ids given in the same millisecond are ordered too, and the
+ * remaining 62 bits are random. No round trip to the DB is needed.
+ */
+public class UuidV7Generator implements IdGenerator<UUID> {
+    private static final int MAX_COUNTER = 0xFFF;
+    private final SecureRandom random = new SecureRandom();
+    private long lastTime;
+    private int counter;
+
+    @Override
+    public CompletableFuture<List<UUID>> nextIds(UnitOfWork unit, int count) {
+        List<UUID> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) ids.add(nextId());
+        return CompletableFuture.completedFuture(ids);
+    }
+
+    public synchronized UUID nextId() {
+        long time = System.currentTimeMillis();
+        if (time > lastTime) {
+            lastTime = time;
+            counter = 0;
+        } else if (++counter > MAX_COUNTER) {
+            //The counter of this millisecond is exhausted, or the clock went back, so the next millisecond is used
+            lastTime++;
+            counter = 0;
+        }
+
+        long mostSigBits = lastTime << 16 | 0x7000 | counter;
+        long leastSigBits = random.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
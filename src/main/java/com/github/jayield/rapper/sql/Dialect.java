@@ -0,0 +1,47 @@
+package com.github.jayield.rapper.sql;
+
+/**
+ * The SQL dialect of the DB, which tells how the version of a row is known in the same statement that inserts or updates it
+ */
+public enum Dialect {
+    /**
+     * The statements output the new version with an OUTPUT INSERTED clause, so they are executed as queries
+     */
+    SQL_SERVER,
+    /**
+     * The statements return the new version with a RETURNING clause, so they are executed as queries
+     */
+    POSTGRESQL,
+    /**
+     * The statements can't return the new version, so it's read back after the write, unless the @Version field
+     * isWrittenByMapper: then a new row has version 1 and an update sets the version it checks in the where clause plus 1,
+     * which assumes nothing in the DB, like a trigger, changes the version afterwards
+     */
+    STANDARD;
+
+    /**
+     * @param url the JDBC url of the DB
+     */
+    public static Dialect of(String url) {
+        if (url.startsWith("jdbc:sqlserver:") || url.startsWith("jdbc:jtds:sqlserver:")) return SQL_SERVER;
+        if (url.startsWith("jdbc:postgresql:")) return POSTGRESQL;
+        return STANDARD;
+    }
+
+    /**
+     * @return if the statements that write a versioned row return a row with its new version
+     */
+    public boolean returnsVersion() {
+        return this != STANDARD;
+    }
+
+    /**
+     * Keyset pagination sorts NULL as the lowest value, which SQL Server does by default, while the other dialects are told so
+     *
+     * @return what follows a column of an ORDER BY to sort its NULLs as the lowest value
+     */
+    public String getNullsOrder(boolean descending) {
+        if (this == SQL_SERVER) return "";
+        return descending ? " NULLS LAST" : " NULLS FIRST";
+    }
+}
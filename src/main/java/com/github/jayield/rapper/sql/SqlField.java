@@ -1,6 +1,9 @@
 package com.github.jayield.rapper.sql;
 
-import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.MapperRegistry;
+import com.github.jayield.rapper.mapper.conversions.TypeConverter;
+import com.github.jayield.rapper.mapper.conversions.TypeConverters;
+import com.github.jayield.rapper.utils.FieldAccessor;
 
 import java.lang.reflect.Field;
 import java.util.stream.Stream;
@@ -9,22 +12,37 @@ public class SqlField {
     public static final String SQL_FIELD_EXTERNAL = "SqlFieldExternal";
 
     protected final Field field;
+    protected final FieldAccessor accessor;
+    protected final TypeConverter<?> converter;
     protected final String name;
     private final String selectQueryValue;
 
     public SqlField(Field field, String name, String selectQueryValue) {
         this.field = field;
+        this.accessor = FieldAccessor.of(field);
+        this.converter = MapperRegistry.getTypeConverter(field.getType());
         this.name = name;
         this.selectQueryValue = selectQueryValue;
     }
 
     public Stream<Object> getValuesForStatement(Object obj) {
-        field.setAccessible(true);
-        try {
-            return Stream.of( obj != null ? field.get(obj) : null);
-        } catch (IllegalAccessException | IllegalStateException e) {
-            throw new DataMapperException(e);
-        }
+        return Stream.of(obj != null ? toColumn(accessor.get(obj)) : null);
+    }
+
+    /**
+     * @param value the value of a column
+     * @return the value converted to the type of this field
+     */
+    public Object fromColumn(Object value) {
+        return TypeConverters.fromColumn(converter, value);
+    }
+
+    /**
+     * @param value a value of this field
+     * @return the value to bind as a parameter of a statement
+     */
+    public Object toColumn(Object value) {
+        return TypeConverters.toColumn(converter, value);
     }
 
     public int byUpdate(){
@@ -39,6 +57,10 @@ public class SqlField {
         return field;
     }
 
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
     public String getName() {
         return name;
     }
@@ -25,7 +25,7 @@ public class SqlFieldExternal extends SqlField{
     private final String[] names;
     private final String[] foreignNames;
     private final String[] externalNames;
-    private final String selectTableQuery;
+    private final String table;
     private final Class<? extends Populate> populateStrategy;
     private Object[] foreignKey;
 
@@ -44,7 +44,7 @@ public class SqlFieldExternal extends SqlField{
             domainObjectType = ReflectionUtils.getGenericType(((ParameterizedType) field.getGenericType()).getActualTypeArguments()[1]); //Index number 1 is the return of the Function
         else
             domainObjectType = (Class<? extends DomainObject>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
-        selectTableQuery = buildSelectQuery(annotation.table());
+        table = annotation.table();
         populateStrategy = getStrategy(annotation);
     }
 
@@ -128,16 +128,6 @@ public class SqlFieldExternal extends SqlField{
         }
     }
 
-    private String buildSelectQuery(String table) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("select * from ").append(table).append(" where ");
-        for (int i = 0; i < foreignNames.length; i++) {
-            sb.append(foreignNames[i]).append(" = ? ");
-            if(i + 1 != foreignNames.length) sb.append("and ");
-        }
-        return sb.toString();
-    }
-
     /**
      * This method will only be called to obtain the primary key of the object when it's a simple relation (ex. CF<DomainObject>)
      * @param obj
@@ -145,20 +135,15 @@ public class SqlFieldExternal extends SqlField{
      */
     @Override
     public Stream<Object> getValuesForStatement(Object obj) {
-        try {
-            field.setAccessible(true);
-            Foreign foreign = (Foreign) field.get(obj);
-            Object key = foreign != null ? foreign.getForeignKey() : null;
+        Foreign foreign = (Foreign) accessor.get(obj);
+        Object key = foreign != null ? foreign.getForeignKey() : null;
 
-            List<Stream<Object>> futureList = MapperRegistry.getMapperSettings(domainObjectType)
-                    .getIds()
-                    .stream()
-                    .map(sqlFieldId -> sqlFieldId.getValuesForStatement(key)).collect(Collectors.toList());
+        List<Stream<Object>> futureList = MapperRegistry.getMapperSettings(domainObjectType)
+                .getIds()
+                .stream()
+                .map(sqlFieldId -> sqlFieldId.getValuesForStatement(key)).collect(Collectors.toList());
 
-            return futureList.stream().flatMap(s -> s);
-        } catch (IllegalAccessException e) {
-            throw new DataMapperException(e);
-        }
+        return futureList.stream().flatMap(s -> s);
     }
 
     public Object[] getForeignKey() {
@@ -181,8 +166,8 @@ public class SqlFieldExternal extends SqlField{
         return externalNames;
     }
 
-    public String getSelectTableQuery() {
-        return selectTableQuery;
+    public String getTable() {
+        return table;
     }
 
     public void setForeignKey(Object[] foreignKey) {
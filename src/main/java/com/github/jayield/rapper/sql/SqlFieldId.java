@@ -1,6 +1,7 @@
 package com.github.jayield.rapper.sql;
 
 import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.mapper.ids.IdGenerator;
 
 import java.lang.reflect.Field;
 import java.util.stream.Stream;
@@ -8,12 +9,18 @@ import java.util.stream.Stream;
 public class SqlFieldId extends SqlField{
     private final boolean identity;
     private final boolean embeddedId;
+    private final IdGenerator<?> generator;
     private boolean isFromParent = false;
 
     public SqlFieldId(Field field, String name, String queryValue, boolean identity, boolean embeddedId) {
+        this(field, name, queryValue, identity, embeddedId, null);
+    }
+
+    public SqlFieldId(Field field, String name, String queryValue, boolean identity, boolean embeddedId, IdGenerator<?> generator) {
         super(field, name, queryValue);
         this.identity = identity;
         this.embeddedId = embeddedId;
+        this.generator = generator;
     }
 
     @Override
@@ -28,7 +35,7 @@ public class SqlFieldId extends SqlField{
         if(embeddedId)
             return super.getValuesForStatement(key);
         else
-            return Stream.of(key);
+            return Stream.of(toColumn(key));
     }
 
     @Override
@@ -52,4 +59,25 @@ public class SqlFieldId extends SqlField{
     public boolean isIdentity() {
         return identity;
     }
+
+    /**
+     * @return the generator of the ids of new objects, or null if they're given by the user or by the DB
+     */
+    public IdGenerator<?> getGenerator() {
+        return generator;
+    }
+
+    /**
+     * @return true if the ids of new objects aren't known until they're inserted
+     */
+    public boolean isGenerated() {
+        return identity || generator != null;
+    }
+
+    /**
+     * @return true if the field is declared in an EmbeddedIdClass instead of in the DomainObject
+     */
+    public boolean isEmbeddedId() {
+        return embeddedId;
+    }
 }
@@ -14,7 +14,8 @@ public class CreateHelper extends AbstractCommitHelper {
         if (objectIterator == null) objectIterator = list.iterator();
         if (objectIterator.hasNext()) {
             DomainObject object = objectIterator.next();
-            unit.validate(object.getIdentityKey(), object);
+            //The objects that were never inserted may have no key yet
+            if (object.getIdentityKey() != null) unit.validate(object.getIdentityKey(), object);
             return true;
         }
         return null;
@@ -25,7 +26,7 @@ public class CreateHelper extends AbstractCommitHelper {
         if (objectIterator == null) objectIterator = list.iterator();
         if (objectIterator.hasNext()) {
             DomainObject domainObject = objectIterator.next();
-            unit.invalidate(domainObject.getClass(), domainObject.getIdentityKey());
+            if (domainObject.getIdentityKey() != null) unit.invalidate(domainObject.getClass(), domainObject.getIdentityKey());
             return true;
         }
         return null;
@@ -0,0 +1,56 @@
+package com.github.jayield.rapper.unitofwork;
+
+import com.github.jayield.rapper.DomainObject;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Collects the keys of each type that a UnitOfWork is asked to load in the same tick, and loads them all at once
+ */
+class KeyBatcher {
+    private final Map<Class<? extends DomainObject>, Map<Object, CompletableFuture<Optional<DomainObject>>>> pendingKeys = new HashMap<>();
+
+    /**
+     * @param loader reads the objects of type with the given keys, by key
+     */
+    <T extends DomainObject<K>, K> CompletableFuture<Optional<T>> load(Class<T> type, K key, Function<List<K>, CompletableFuture<Map<K, T>>> loader) {
+        Context context = Vertx.currentContext();
+        //Without a context there are no ticks, and a deferred load could run after the unit was closed
+        if (context == null) return loader.apply(Collections.singletonList(key)).thenApply(objects -> Optional.ofNullable(objects.get(key)));
+
+        CompletableFuture<Optional<DomainObject>> future;
+        synchronized (this) {
+            Map<Object, CompletableFuture<Optional<DomainObject>>> keys = pendingKeys.get(type);
+            if (keys == null) {
+                keys = new LinkedHashMap<>();
+                pendingKeys.put(type, keys);
+                context.runOnContext(v -> dispatch(type, loader));
+            }
+            future = keys.computeIfAbsent(key, k -> new CompletableFuture<>());
+        }
+        return future.thenApply(optional -> optional.map(obj -> (T) obj));
+    }
+
+    private <T extends DomainObject<K>, K> void dispatch(Class<T> type, Function<List<K>, CompletableFuture<Map<K, T>>> loader) {
+        Map<Object, CompletableFuture<Optional<DomainObject>>> keys;
+        synchronized (this) {
+            keys = pendingKeys.remove(type);
+        }
+
+        CompletableFuture<Map<K, T>> found;
+        try {
+            found = loader.apply(new ArrayList<>((Set<K>) keys.keySet()));
+        } catch (RuntimeException e) {
+            found = new CompletableFuture<>();
+            found.completeExceptionally(e);
+        }
+        found.whenComplete((objects, throwable) -> keys.forEach((key, future) -> {
+            if (throwable != null) future.completeExceptionally(throwable);
+            else future.complete(Optional.ofNullable(objects.get(key)));
+        }));
+    }
+}
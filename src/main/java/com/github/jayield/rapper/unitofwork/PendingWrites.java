@@ -0,0 +1,205 @@
+package com.github.jayield.rapper.unitofwork;
+
+import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.DataMapper;
+import com.github.jayield.rapper.mapper.MapperRegistry;
+import com.github.jayield.rapper.sql.SqlFieldExternal;
+import com.github.jayield.rapper.sql.SqlFieldId;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The writes a write-behind UnitOfWork defers until it commits, keeping only the last state of each object
+ */
+class PendingWrites {
+    //The keys of new objects may only be generated on insert, so they're kept in a list
+    private final Map<Class<? extends DomainObject>, List<DomainObject>> newObjects = new LinkedHashMap<>();
+    private final Map<Class<? extends DomainObject>, Map<Object, DomainObject>> dirtyObjects = new LinkedHashMap<>();
+    private final Map<Class<? extends DomainObject>, Map<Object, DomainObject>> upsertedObjects = new LinkedHashMap<>();
+    private final Map<Class<? extends DomainObject>, Set<Object>> removedKeys = new LinkedHashMap<>();
+
+    synchronized void addNew(Class<? extends DomainObject> type, DomainObject obj) {
+        if (removedKeys.getOrDefault(type, Collections.emptySet()).contains(obj.getIdentityKey()))
+            throw new DataMapperException(type.getSimpleName() + " with id " + obj.getIdentityKey() + " was removed on this UnitOfWork, it can't be created again before it commits");
+
+        List<DomainObject> news = newObjects.computeIfAbsent(type, k -> new ArrayList<>());
+        if (news.stream().noneMatch(newObject -> newObject == obj)) news.add(obj);
+    }
+
+    synchronized void addDirty(Class<? extends DomainObject> type, DomainObject obj) {
+        Object key = obj.getIdentityKey();
+        if (removedKeys.getOrDefault(type, Collections.emptySet()).contains(key))
+            throw new DataMapperException(type.getSimpleName() + " with id " + key + " was removed on this UnitOfWork, it can't be updated");
+
+        int index = indexOfNew(type, obj, key);
+        Map<Object, DomainObject> upserts = upsertedObjects.getOrDefault(type, Collections.emptyMap());
+        if (index != -1) newObjects.get(type).set(index, obj);
+        else if (upserts.containsKey(key)) upserts.put(key, obj);
+        else dirtyObjects.computeIfAbsent(type, k -> new LinkedHashMap<>()).put(key, obj);
+    }
+
+    /**
+     * The upsert of an object pending to be created or updated takes the place of that write
+     */
+    synchronized void addUpsert(Class<? extends DomainObject> type, DomainObject obj) {
+        Object key = obj.getIdentityKey();
+        if (removedKeys.getOrDefault(type, Collections.emptySet()).contains(key))
+            throw new DataMapperException(type.getSimpleName() + " with id " + key + " was removed on this UnitOfWork, it can't be upserted before it commits");
+
+        int index = indexOfNew(type, obj, key);
+        if (index != -1) newObjects.get(type).remove(index);
+        Map<Object, DomainObject> dirties = dirtyObjects.get(type);
+        if (dirties != null) dirties.remove(key);
+        upsertedObjects.computeIfAbsent(type, k -> new LinkedHashMap<>()).put(key, obj);
+    }
+
+    /**
+     * @param obj the object removed, or null if only its key is known
+     */
+    synchronized void addRemoved(Class<? extends DomainObject> type, Object key, DomainObject obj) {
+        int index = indexOfNew(type, obj, key);
+        if (index != -1) {
+            newObjects.get(type).remove(index);
+            return;
+        }
+
+        Map<Object, DomainObject> dirties = dirtyObjects.get(type);
+        if (dirties != null) dirties.remove(key);
+        Map<Object, DomainObject> upserts = upsertedObjects.get(type);
+        if (upserts != null) upserts.remove(key);
+        removedKeys.computeIfAbsent(type, k -> new LinkedHashSet<>()).add(key);
+    }
+
+    /**
+     * A pending new object is the same as obj, or has its key if the keys of type aren't generated by the DB
+     */
+    private int indexOfNew(Class<? extends DomainObject> type, DomainObject obj, Object key) {
+        List<DomainObject> news = newObjects.getOrDefault(type, Collections.emptyList());
+        boolean generatedKey = MapperRegistry.getMapperSettings((Class) type)
+                .getIds()
+                .stream()
+                .anyMatch(SqlFieldId::isGenerated);
+
+        for (int i = 0; i < news.size(); i++) {
+            DomainObject newObject = news.get(i);
+            if (newObject == obj || !generatedKey && newObject.getIdentityKey().equals(key)) return i;
+        }
+        return -1;
+    }
+
+    synchronized boolean isEmpty() {
+        return newObjects.values().stream().allMatch(List::isEmpty)
+                && dirtyObjects.values().stream().allMatch(Map::isEmpty)
+                && upsertedObjects.values().stream().allMatch(Map::isEmpty)
+                && removedKeys.values().stream().allMatch(Set::isEmpty);
+    }
+
+    synchronized void clear() {
+        newObjects.clear();
+        dirtyObjects.clear();
+        upsertedObjects.clear();
+        removedKeys.clear();
+    }
+
+    /**
+     * Writes the inserts, upserts, updates and deletes, in the order of the foreign keys of their types
+     */
+    synchronized CompletableFuture<Void> flush(UnitOfWork unit) {
+        PendingWrites writes = new PendingWrites();
+        writes.putAll(this);
+        clear();
+
+        Set<Class<? extends DomainObject>> types = new LinkedHashSet<>(writes.newObjects.keySet());
+        types.addAll(writes.upsertedObjects.keySet());
+        types.addAll(writes.dirtyObjects.keySet());
+        types.addAll(writes.removedKeys.keySet());
+        List<Class<? extends DomainObject>> order = sortByForeignKeys(types);
+        List<Class<? extends DomainObject>> reverseOrder = new ArrayList<>(order);
+        Collections.reverse(reverseOrder);
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (Class<? extends DomainObject> type : order) {
+            List<DomainObject> objects = writes.newObjects.get(type);
+            if (objects != null && !objects.isEmpty()) future = future.thenCompose(aVoid -> getMapper(type, unit).createAll(DataMapper.DEFAULT_BATCH_SIZE, objects, false))
+                    .thenAccept(aVoid -> writes.remove(writes.newObjects, type));
+        }
+        for (Class<? extends DomainObject> type : order) {
+            Map<Object, DomainObject> objects = writes.upsertedObjects.get(type);
+            if (objects != null && !objects.isEmpty()) future = future.thenCompose(aVoid -> getMapper(type, unit).upsertAll(DataMapper.DEFAULT_BATCH_SIZE, objects.values(), false))
+                    .thenAccept(aVoid -> writes.remove(writes.upsertedObjects, type));
+        }
+        for (Class<? extends DomainObject> type : order) {
+            Map<Object, DomainObject> objects = writes.dirtyObjects.get(type);
+            if (objects != null && !objects.isEmpty()) future = future.thenCompose(aVoid -> getMapper(type, unit).updateAll(DataMapper.DEFAULT_BATCH_SIZE, objects.values(), false))
+                    .thenAccept(aVoid -> writes.remove(writes.dirtyObjects, type));
+        }
+        for (Class<? extends DomainObject> type : reverseOrder) {
+            Set<Object> keys = writes.removedKeys.get(type);
+            if (keys != null && !keys.isEmpty()) future = future.thenCompose(aVoid -> getMapper(type, unit).deleteAll(keys, false))
+                    .thenAccept(aVoid -> writes.remove(writes.removedKeys, type));
+        }
+
+        //The writes that weren't written are kept, unless they were deferred again meanwhile
+        return future.whenComplete((aVoid, throwable) -> {
+            if (throwable != null) putAll(writes);
+        });
+    }
+
+    private synchronized void remove(Map<Class<? extends DomainObject>, ?> writes, Class<? extends DomainObject> type) {
+        writes.remove(type);
+    }
+
+    private synchronized void putAll(PendingWrites writes) {
+        synchronized (writes) {
+            writes.newObjects.forEach((type, objects) -> {
+                List<DomainObject> news = newObjects.computeIfAbsent(type, k -> new ArrayList<>());
+                objects.stream()
+                        .filter(obj -> news.stream().noneMatch(newObject -> newObject == obj))
+                        .forEach(news::add);
+            });
+            writes.upsertedObjects.forEach((type, objects) ->
+                    objects.forEach(upsertedObjects.computeIfAbsent(type, k -> new LinkedHashMap<>())::putIfAbsent));
+            writes.dirtyObjects.forEach((type, objects) ->
+                    objects.forEach(dirtyObjects.computeIfAbsent(type, k -> new LinkedHashMap<>())::putIfAbsent));
+            writes.removedKeys.forEach((type, keys) -> removedKeys.computeIfAbsent(type, k -> new LinkedHashSet<>()).addAll(keys));
+        }
+    }
+
+    private static DataMapper getMapper(Class<? extends DomainObject> type, UnitOfWork unit) {
+        return MapperRegistry.getMapper((Class) type, unit);
+    }
+
+    /**
+     * Orders the types so each type comes after the types it references through foreign keys
+     */
+    private static List<Class<? extends DomainObject>> sortByForeignKeys(Collection<Class<? extends DomainObject>> types) {
+        List<Class<? extends DomainObject>> sorted = new ArrayList<>();
+        Set<Class<? extends DomainObject>> visited = new HashSet<>();
+        types.forEach(type -> visit(type, types, visited, sorted));
+        return sorted;
+    }
+
+    private static void visit(Class<? extends DomainObject> type, Collection<Class<? extends DomainObject>> types,
+                              Set<Class<? extends DomainObject>> visited, List<Class<? extends DomainObject>> sorted) {
+        if (!visited.add(type)) return;
+        types.stream()
+                .filter(other -> other != type && references(type, other))
+                .forEach(other -> visit(other, types, visited, sorted));
+        sorted.add(type);
+    }
+
+    /**
+     * @return if the table of type, or of one of its parents, has a foreign key to the rows of other
+     */
+    private static boolean references(Class<?> type, Class<?> other) {
+        for (Class<?> clazz = type; clazz != Object.class && DomainObject.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            List<SqlFieldExternal> externals = MapperRegistry.getMapperSettings((Class) clazz).getExternals();
+            boolean references = externals.stream()
+                    .anyMatch(external -> external.getNames().length != 0 && external.getDomainObjectType().isAssignableFrom(other));
+            if (references) return true;
+        }
+        return false;
+    }
+}
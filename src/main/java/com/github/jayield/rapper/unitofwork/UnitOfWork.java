@@ -2,7 +2,11 @@ package com.github.jayield.rapper.unitofwork;
 
 import com.github.jayield.rapper.DomainObject;
 import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.DataMapper;
+import com.github.jayield.rapper.mapper.EntityCache;
+import com.github.jayield.rapper.mapper.MapperRegistry;
 import com.github.jayield.rapper.mapper.externals.ExternalsHandler;
+import com.github.jayield.rapper.sql.SqlFieldExternal;
 import com.github.jayield.rapper.utils.Pair;
 import com.github.jayield.rapper.utils.SqlUtils;
 import com.github.jayield.rapper.connections.ConnectionManager;
@@ -19,6 +23,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class UnitOfWork {
     private static final String UNSUCCESSFUL_COMMIT_MESSAGE = "{} - Rolling back changes due to {}";
@@ -37,6 +42,18 @@ public class UnitOfWork {
     private CompletableFuture<SQLConnection> connection = null;
     private final Supplier<CompletableFuture<SQLConnection>> connectionSupplier;
     private final ConcurrentMap<Class<? extends DomainObject>, ConcurrentHashMap<Object, CompletableFuture<? extends DomainObject>>> identityMap = new ConcurrentHashMap<>();
+    //The values of the columns of the objects as they are in the DB, so the mappers only update the columns that changed
+    private final ConcurrentMap<Class<? extends DomainObject>, ConcurrentHashMap<Object, Object[]>> snapshots = new ConcurrentHashMap<>();
+    //The external objects loaded for many objects at once, by the field that references them and the ids of the object that has it
+    private final ConcurrentMap<SqlFieldExternal, ConcurrentHashMap<List<Object>, List<? extends DomainObject>>> loadedExternals = new ConcurrentHashMap<>();
+    //The types whose rows were written without knowing which objects they belong to, whose second-level caches are cleared again on commit
+    private final Set<Class<? extends DomainObject>> invalidatedTypes = ConcurrentHashMap.newKeySet();
+    //The puts of the rows read by this unit in the second-level caches, which only run if it commits
+    private final Queue<Runnable> cachePuts = new ConcurrentLinkedQueue<>();
+    //The keys deleted by this unit, which aren't all registered as removed
+    private final Queue<Pair<Class<? extends DomainObject>, Object>> evictedKeys = new ConcurrentLinkedQueue<>();
+    //The epoch of the second-level caches when the connection was opened, which the rows read with it are older than
+    private volatile long startEpoch;
 
     //Multiple Threads may be accessing the Queue, so it must be a ConcurrentLinkedQueue
     private final Queue<DomainObject> newObjects = new ConcurrentLinkedQueue<>();
@@ -45,21 +62,113 @@ public class UnitOfWork {
     private final CreateHelper createHelper = new CreateHelper(this, newObjects);
     private final UpdateHelper updateHelper = new UpdateHelper(this, dirtyObjects, removedObjects);
     private final DeleteHelper deleteHelper = new DeleteHelper(this, removedObjects, dirtyObjects);
+    //Only a write-behind UnitOfWork has pending writes
+    private final PendingWrites pendingWrites;
+    private final KeyBatcher keyBatcher = new KeyBatcher();
+    private final boolean detectChanges;
 
     public UnitOfWork(Supplier<CompletableFuture<SQLConnection>> connectionSupplier){
+        this(connectionSupplier, false);
+    }
+
+    /**
+     * @param writeBehind if the writes of the mappers are deferred until commit, where they're written in batches
+     */
+    public UnitOfWork(Supplier<CompletableFuture<SQLConnection>> connectionSupplier, boolean writeBehind){
+        this(connectionSupplier, writeBehind, false);
+    }
+
+    /**
+     * @param writeBehind if the writes of the mappers are deferred until commit, where they're written in batches
+     * @param detectChanges if the objects in the IdentityMap whose columns changed are updated on commit, without calling update
+     */
+    public UnitOfWork(Supplier<CompletableFuture<SQLConnection>> connectionSupplier, boolean writeBehind, boolean detectChanges){
         this.connectionSupplier = connectionSupplier;
+        this.pendingWrites = writeBehind ? new PendingWrites() : null;
+        this.detectChanges = detectChanges;
     }
 
     public UnitOfWork() {
-        this.connectionSupplier = ConnectionManager.getConnectionManager()::getConnection;
+        this(ConnectionManager.getConnectionManager()::getConnection);
     }
 
     public UnitOfWork(TransactionIsolation isolation) {
-        this.connectionSupplier = () -> ConnectionManager.getConnectionManager().getConnection(isolation.getType());
+        this(() -> ConnectionManager.getConnectionManager().getConnection(isolation.getType()));
+    }
+
+    /**
+     * @return if the writes of the mappers should only be registered, to be written when this UnitOfWork commits
+     */
+    public boolean defersWrites() {
+        return pendingWrites != null;
+    }
+
+    /**
+     * Defers the insert of obj, by the mapper of type, until commit
+     */
+    public void deferNew(Class<? extends DomainObject> type, DomainObject obj) {
+        pendingWrites.addNew(type, obj);
+    }
+
+    /**
+     * Defers the update of obj, by the mapper of type, until commit
+     */
+    public void deferDirty(Class<? extends DomainObject> type, DomainObject obj) {
+        pendingWrites.addDirty(type, obj);
+    }
+
+    /**
+     * Defers the upsert of obj, by the mapper of type, until commit
+     */
+    public void deferUpsert(Class<? extends DomainObject> type, DomainObject obj) {
+        pendingWrites.addUpsert(type, obj);
+    }
+
+    /**
+     * Defers the delete of obj, by the mapper of type, until commit
+     */
+    public void deferRemoved(Class<? extends DomainObject> type, DomainObject obj) {
+        pendingWrites.addRemoved(type, obj.getIdentityKey(), obj);
+    }
+
+    /**
+     * Defers the delete of the object with key, by the mapper of type, until commit
+     */
+    public void deferRemovedKey(Class<? extends DomainObject> type, Object key) {
+        pendingWrites.addRemoved(type, key, null);
+    }
+
+    /**
+     * Loads the object of type with key together with the other keys of type asked for in the same tick
+     * @param loader reads the objects of type with the given keys, by key
+     * @return the object with key, or an empty Optional if loader didn't find it
+     */
+    public <T extends DomainObject<K>, K> CompletableFuture<Optional<T>> loadById(Class<T> type, K key, Function<List<K>, CompletableFuture<Map<K, T>>> loader) {
+        return keyBatcher.load(type, key, loader);
+    }
+
+    /**
+     * @param put puts a row read by this unit in a second-level cache, once this unit commits
+     */
+    public void cacheOnCommit(Runnable put) {
+        cachePuts.add(put);
+    }
+
+    /**
+     * Removes the object of type with key from the second-level caches now, and again when this unit commits or rolls back
+     */
+    public void evict(Class<? extends DomainObject> type, Object key) {
+        evictedKeys.add(new Pair<>(type, key));
+        MapperRegistry.invalidateCached(type, key);
+    }
+
+    public long getStartEpoch() {
+        return startEpoch;
     }
 
     public CompletableFuture<SQLConnection> getConnection() {
         if(connection == null) {
+            startEpoch = EntityCache.currentEpoch();
             connection = connectionSupplier.get();
             numberOfOpenConnections.incrementAndGet();
             StackTraceElement[] stack = Thread.currentThread().getStackTrace();
@@ -86,15 +195,15 @@ public class UnitOfWork {
     }
 
     /**
-     * Adds the obj to the newObjects List and to the IdentityMap
+     * Adds the obj, whose key may still be null, to the newObjects List and to the IdentityMap
      * @param obj
      */
     public void registerNew(DomainObject obj) {
-        if (obj.getIdentityKey() == null) throw new AssertionError();
         if (dirtyObjects.contains(obj)) throw new AssertionError();
         if (removedObjects.contains(obj)) throw new AssertionError();
         if (newObjects.contains(obj)) return;
         newObjects.add(obj);
+        forgetExternals(obj.getClass());
     }
 
     /**
@@ -106,6 +215,7 @@ public class UnitOfWork {
         if (removedObjects.contains(obj)) throw new AssertionError();
         if(!dirtyObjects.contains(obj) && !newObjects.contains(obj))
             dirtyObjects.add(obj);
+        forgetExternals(obj.getClass());
     }
 
     /**
@@ -114,6 +224,7 @@ public class UnitOfWork {
      */
     public void registerRemoved(DomainObject obj){
         if (obj.getIdentityKey() == null) throw new AssertionError();
+        forgetExternals(obj.getClass());
         if(newObjects.remove(obj)) return;
         dirtyObjects.remove(obj);
         if(!removedObjects.contains(obj))
@@ -121,12 +232,72 @@ public class UnitOfWork {
     }
 
     public CompletableFuture<Void> commit() {
+        if (!detectChanges && (pendingWrites == null || pendingWrites.isEmpty())) return commitTransaction();
+
+        return flush()
+                .handle((aVoid, throwable) -> {
+                    if (throwable != null) {
+                        logger.info(UNSUCCESSFUL_COMMIT_MESSAGE, this.hashCode(), throwable.getMessage());
+                        return rollback().thenAccept(aVoid1 -> {
+                            throw new DataMapperException(throwable);
+                        });
+                    }
+                    return commitTransaction();
+                })
+                .thenCompose(voidCompletableFuture -> voidCompletableFuture);
+    }
+
+    /**
+     * Writes the detected changes and the deferred writes now, so the statements that follow see them
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> writes = detectChanges ? updateChangedObjects() : CompletableFuture.completedFuture(null);
+        return pendingWrites != null ? writes.thenCompose(aVoid -> flushPendingWrites()) : writes;
+    }
+
+    //The writes deferred while a flush runs are written by the next one
+    private CompletableFuture<Void> flushPendingWrites() {
+        return pendingWrites.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : pendingWrites.flush(this).thenCompose(aVoid -> flushPendingWrites());
+    }
+
+    /**
+     * Updates the objects of the IdentityMap whose columns differ from their snapshots, unless they're being removed
+     */
+    private CompletableFuture<Void> updateChangedObjects() {
+        Set<DomainObject> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(removedObjects);
+
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (Map.Entry<Class<? extends DomainObject>, ConcurrentHashMap<Object, CompletableFuture<? extends DomainObject>>> entry : identityMap.entrySet()) {
+            DataMapper mapper = MapperRegistry.getMapper((Class) entry.getKey(), this);
+            List<DomainObject> changed = entry.getValue()
+                    .values()
+                    .stream()
+                    .filter(objectFuture -> objectFuture.isDone() && !objectFuture.isCompletedExceptionally())
+                    .map(CompletableFuture::join)
+                    .filter(obj -> !removed.contains(obj) && mapper.hasChanges(obj))
+                    .collect(Collectors.toList());
+
+            if (!changed.isEmpty()) {
+                logger.info("{} - Detected changes on {} {}", this.hashCode(), changed.size(), entry.getKey().getSimpleName());
+                future = future.thenCompose(aVoid -> mapper.updateAll(changed));
+            }
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> commitTransaction() {
         try {
             if (newObjects.isEmpty() && dirtyObjects.isEmpty() && removedObjects.isEmpty()) {
                 CompletableFuture<Void> toRet = CompletableFuture.completedFuture(null);
                 if (connection != null) {
                     toRet = connection.thenCompose(con -> SqlUtils.callbackToPromise(con::commit))
-                            .thenCompose(v -> closeConnection())
+                            .thenCompose(v -> {
+                                updateCaches();
+                                return closeConnection();
+                            })
                             .thenAccept(v -> logger.info("{} - Changes have been committed", this.hashCode()));
                 }
                 return toRet;
@@ -135,6 +306,7 @@ public class UnitOfWork {
                                 .thenAccept(v2 -> logger.info("{} - Changes have been committed", this.hashCode())))
                         .thenCompose(v -> {
                             iterateMultipleLists(AbstractCommitHelper::identityMapUpdateNext);
+                            updateCaches();
                             return closeConnection();
                         })
                         .handleAsync((aVoid, throwable) -> {
@@ -149,6 +321,7 @@ public class UnitOfWork {
                         .thenCompose(voidCompletableFuture -> voidCompletableFuture);
             } else {
                 iterateMultipleLists(AbstractCommitHelper::identityMapUpdateNext);
+                updateCaches();
                 return CompletableFuture.completedFuture(null);
             }
         } catch (DataMapperException e){
@@ -157,12 +330,44 @@ public class UnitOfWork {
         }
     }
 
+    /**
+     * Removes the written objects from the second-level caches, then puts the rows read by this unit in them
+     */
+    private void updateCaches() {
+        invalidatedTypes.forEach(MapperRegistry::invalidateCaches);
+        invalidatedTypes.clear();
+        invalidateCached();
+
+        Runnable put;
+        while ((put = cachePuts.poll()) != null) put.run();
+    }
+
+    /**
+     * Removes the objects registered on this unit, and the keys it deleted, from the second-level caches
+     */
+    private void invalidateCached() {
+        Stream.of(newObjects, dirtyObjects, removedObjects)
+                .flatMap(Collection::stream)
+                .filter(obj -> obj.getIdentityKey() != null)
+                .forEach(obj -> MapperRegistry.invalidateCached(obj.getClass(), obj.getIdentityKey()));
+
+        Pair<Class<? extends DomainObject>, Object> evicted;
+        while ((evicted = evictedKeys.poll()) != null) MapperRegistry.invalidateCached(evicted.getKey(), evicted.getValue());
+    }
+
     /**
      * Removes the objects from the newObjects from the IdentityMap
      * Puts the objects in removedObjects into the IdentityMap
      * The objects in dirtyObjects need to go back as before
      */
     public CompletableFuture<Void> rollback() {
+        if (pendingWrites != null) pendingWrites.clear();
+        snapshots.clear();
+        loadedExternals.clear();
+        invalidatedTypes.forEach(MapperRegistry::invalidateCaches);
+        invalidatedTypes.clear();
+        invalidateCached();
+        cachePuts.clear();
         try {
             if(connection != null) {
                 return connection.thenCompose(con -> SqlUtils.callbackToPromise(con::rollback))
@@ -200,6 +405,59 @@ public class UnitOfWork {
 
     public<T extends DomainObject<K>, K> void invalidate(Class<T> type, K identityKey) {
         getIdentityMap(type).remove(identityKey);
+        getSnapshots(type).remove(identityKey);
+    }
+
+    /**
+     * Removes all the objects of type, and of its subtypes, from the IdentityMap and from the second-level caches
+     */
+    public void invalidate(Class<? extends DomainObject> type) {
+        invalidatedTypes.add(type);
+        MapperRegistry.invalidateCaches(type);
+        identityMap.forEach((klass, objects) -> {
+            if (type.isAssignableFrom(klass)) objects.clear();
+        });
+        snapshots.forEach((klass, columnValues) -> {
+            if (type.isAssignableFrom(klass)) columnValues.clear();
+        });
+        forgetExternals(type);
+    }
+
+    /**
+     * Keeps the external objects referenced through sqlFieldExternal by the object with idValues, loaded with those of other objects
+     */
+    public void putExternals(SqlFieldExternal sqlFieldExternal, List<Object> idValues, List<? extends DomainObject> objects) {
+        loadedExternals.computeIfAbsent(sqlFieldExternal, field -> new ConcurrentHashMap<>()).put(idValues, objects);
+    }
+
+    /**
+     * @return the external objects put for the object with idValues, or null if they weren't loaded
+     */
+    public <N extends DomainObject> List<N> getExternals(SqlFieldExternal sqlFieldExternal, List<Object> idValues) {
+        Map<List<Object>, List<? extends DomainObject>> externals = loadedExternals.get(sqlFieldExternal);
+        return externals != null ? (List<N>) externals.get(idValues) : null;
+    }
+
+    /**
+     * Forgets the loaded externals of type, or of a parent of it, since writing type may change which objects reference it
+     */
+    private void forgetExternals(Class<?> type) {
+        loadedExternals.keySet().removeIf(sqlFieldExternal -> sqlFieldExternal.getDomainObjectType().isAssignableFrom(type));
+    }
+
+    public void snapshot(Class<? extends DomainObject> type, Object identityKey, Object[] columnValues) {
+        getSnapshots(type).put(identityKey, columnValues);
+    }
+
+    /**
+     * @return the values of the columns, and the version, of the object of type with identityKey, when it was last read or written, or null
+     */
+    public Object[] getSnapshot(Class<? extends DomainObject> type, Object identityKey) {
+        return getSnapshots(type).get(identityKey);
+    }
+
+    private ConcurrentMap<Object, Object[]> getSnapshots(Class<? extends DomainObject> type) {
+        return snapshots.computeIfAbsent(type, aClass -> new ConcurrentHashMap<>());
     }
 
     public<T extends DomainObject<K>, K> void validate(K identityKey, T t) {
@@ -10,11 +10,13 @@ import java.util.stream.Collectors;
 public abstract class EmbeddedIdClass {
 
     private static final Field objectsField;
+    private static final FieldAccessor objectsAccessor;
 
     static {
         try {
             objectsField = EmbeddedIdClass.class.getDeclaredField("objects");
             objectsField.setAccessible(true);
+            objectsAccessor = FieldAccessor.of(objectsField);
         } catch (NoSuchFieldException e) {
             throw new DataMapperException(e);
         }
@@ -34,6 +36,10 @@ public abstract class EmbeddedIdClass {
         return objectsField;
     }
 
+    public static FieldAccessor getObjectsAccessor() {
+        return objectsAccessor;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(objects);
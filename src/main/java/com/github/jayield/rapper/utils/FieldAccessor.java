@@ -0,0 +1,168 @@
+package com.github.jayield.rapper.utils;
+
+import com.github.jayield.rapper.exceptions.DataMapperException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes a single field through MethodHandles that are resolved once, when the accessor is created.
+ * Follows the contract of Field.get/set: an IllegalArgumentException is thrown when the target isn't an instance
+ * of the declaring class or when the value can't be assigned to the field.
+ * Fields of type long get a specialized accessor, through which the versions are read and written without boxing.
+ * The final fields of a record can't be written, not even through reflection, so setting them throws a DataMapperException.
+ */
+public abstract class FieldAccessor {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    protected final Field field;
+    private boolean writable = true;
+
+    protected FieldAccessor(Field field) {
+        this.field = field;
+    }
+
+    public static FieldAccessor of(Field field) {
+        field.setAccessible(true);
+        try {
+            MethodHandle getter = lookup.unreflectGetter(field);
+            MethodHandle setter = unreflectSetter(field);
+            FieldAccessor accessor = newAccessor(field, getter, setter != null ? setter : readOnlySetter(field));
+            accessor.writable = setter != null;
+            return accessor;
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new DataMapperException(e);
+        }
+    }
+
+    private static FieldAccessor newAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+        if (field.getType() == long.class) return new LongAccessor(field, getter, setter);
+        return new ObjectAccessor(field, getter, setter);
+    }
+
+    private static MethodHandle unreflectSetter(Field field) {
+        try {
+            return lookup.unreflectSetter(field);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle readOnlySetter(Field field) throws NoSuchMethodException, IllegalAccessException {
+        MethodHandle readOnly = lookup.findStatic(FieldAccessor.class, "readOnly", MethodType.methodType(void.class, Field.class));
+        return MethodHandles.dropArguments(readOnly.bindTo(field), 0, field.getDeclaringClass(), field.getType());
+    }
+
+    private static void readOnly(Field field) {
+        throw new DataMapperException("The field " + field.getName() + " of " + field.getDeclaringClass().getSimpleName() + " can't be written");
+    }
+
+    public abstract Object get(Object target);
+
+    public abstract void set(Object target, Object value);
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return false if the field can only be set through a constructor
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    protected IllegalArgumentException illegalArgument(Object target, Object value, Throwable cause) {
+        String message = String.format("Can not set %s field %s.%s to %s on %s",
+                field.getType().getName(), field.getDeclaringClass().getName(), field.getName(),
+                value == null ? "null value" : value.getClass().getName(),
+                target == null ? "null" : target.getClass().getName());
+        IllegalArgumentException exception = new IllegalArgumentException(message);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    protected static DataMapperException rethrow(Throwable throwable) {
+        if (throwable instanceof RuntimeException) throw (RuntimeException) throwable;
+        if (throwable instanceof Error) throw (Error) throwable;
+        return new DataMapperException(throwable);
+    }
+
+    private static class ObjectAccessor extends FieldAccessor {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        ObjectAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field);
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return getter.invokeExact(target);
+            } catch (ClassCastException | NullPointerException e) {
+                throw illegalArgument(target, null, e);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            try {
+                setter.invokeExact(target, value);
+            } catch (ClassCastException | NullPointerException e) {
+                throw illegalArgument(target, value, e);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+    }
+
+    public static class LongAccessor extends FieldAccessor {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        LongAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+            super(field);
+            this.getter = getter.asType(MethodType.methodType(long.class, Object.class));
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+        }
+
+        public long getLong(Object target) {
+            try {
+                return (long) getter.invokeExact(target);
+            } catch (ClassCastException | NullPointerException e) {
+                throw illegalArgument(target, null, e);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        public void setLong(Object target, long value) {
+            try {
+                setter.invokeExact(target, value);
+            } catch (ClassCastException | NullPointerException e) {
+                throw illegalArgument(target, value, e);
+            } catch (Throwable throwable) {
+                throw rethrow(throwable);
+            }
+        }
+
+        @Override
+        public Object get(Object target) {
+            return getLong(target);
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            if (!(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte))
+                throw illegalArgument(target, value, null);
+            setLong(target, ((Number) value).longValue());
+        }
+    }
+}
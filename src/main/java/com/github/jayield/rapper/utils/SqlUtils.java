@@ -7,10 +7,14 @@ import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.SQLRowStream;
 import io.vertx.ext.sql.UpdateResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Field;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -29,15 +33,73 @@ public class SqlUtils {
         return params.thenCompose(jsonArray -> query(sql, unit, jsonArray));
     }
 
+    /**
+     * Opens a stream over the rows of the query. The rows are read from the ResultSet fetchSize at a time, as the stream
+     * is consumed, so they're never all in memory.
+     * The JDBC client only takes the fetch size from the options of the connection, which are captured when the query is issued,
+     * so they are set just for this query and the connection's own options are restored after it.
+     *
+     * @param fetchSize how many rows are read at a time, or 0 to use the default of the JDBC client
+     */
+    public static CompletableFuture<SQLRowStream> queryStream(String sql, UnitOfWork unit, JsonArray params, int fetchSize){
+        CompletableFuture<SQLConnection> con = unit.getConnection();
+        return con.thenCompose(connection -> callbackToPromise(ar -> {
+            SQLOptions options = fetchSize > 0 ? getOptions(connection) : null;
+            if (options != null) connection.setOptions(new SQLOptions(options).setFetchSize(fetchSize));
+            connection.queryStreamWithParams(sql, params, ar);
+            if (options != null) connection.setOptions(options);
+        }));
+    }
+
+    /**
+     * SQLConnection has no getter for its options, so they're read from the field of the JDBC client's connection
+     *
+     * @return the options of connection, or null if they can't be read
+     */
+    public static SQLOptions getOptions(SQLConnection connection) {
+        try {
+            Field options = connection.getClass().getDeclaredField("options");
+            options.setAccessible(true);
+            return (SQLOptions) options.get(connection);
+        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+            return null;
+        }
+    }
+
     public static CompletableFuture<UpdateResult> update(String sql, UnitOfWork unit, JsonArray params){
         CompletableFuture<SQLConnection> con = unit.getConnection();
         return con.thenCompose(connection -> callbackToPromise(ar -> connection.updateWithParams(sql, params, ar)));
     }
 
+    /**
+     * Executes sql once for each JsonArray of params, in a single JDBC batch
+     * @return the update counts of each execution
+     */
+    public static CompletableFuture<List<Integer>> batch(String sql, UnitOfWork unit, List<JsonArray> params){
+        CompletableFuture<SQLConnection> con = unit.getConnection();
+        return con.thenCompose(connection -> callbackToPromise(ar -> connection.batchWithParams(sql, params, ar)));
+    }
+
     public static CompletableFuture<UpdateResult> updateAsyncParams(String sql, UnitOfWork unit, CompletableFuture<JsonArray> params){
         return params.thenCompose(jsonArray -> update(sql, unit, jsonArray));
     }
 
+    /**
+     * Finds a column the same way a case insensitive JsonObject from ResultSet.getRows(true) would,
+     * where a repeated column holds the value of its last occurrence
+     *
+     * @param columnNames the column names of a ResultSet
+     * @param name the name of the column
+     * @return the index of the column or -1 if it isn't in columnNames
+     */
+    public static int indexOf(List<String> columnNames, String name) {
+        for (int i = columnNames.size() - 1; i >= 0; i--) {
+            if (columnNames.get(i).equalsIgnoreCase(name))
+                return i;
+        }
+        return -1;
+    }
+
     public static JsonArray getValuesForStatement(Stream<? extends SqlField> fields, Object obj) {
         return fields.map(f-> f.getValuesForStatement(obj)).flatMap(objectStream -> objectStream).collect(CollectionUtils.toJsonArray());
     }
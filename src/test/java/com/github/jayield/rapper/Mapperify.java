@@ -1,9 +1,12 @@
 package com.github.jayield.rapper;
 
+import com.github.jayield.rapper.mapper.EntityStream;
+import com.github.jayield.rapper.mapper.FetchPlan;
 import com.github.jayield.rapper.mapper.Mapper;
 import com.github.jayield.rapper.mapper.conditions.Condition;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -34,11 +37,31 @@ public class Mapperify<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return ifind.apply(values);
     }
 
+    @Override
+    public CompletableFuture<List<T>> find(FetchPlan fetchPlan, Condition<?>... values) {
+        return other.find(fetchPlan, values);
+    }
+
     @Override
     public CompletableFuture<List<T>> find(int page, int numberOfItems, Condition<?>... values) {
         return other.find(page, numberOfItems, values);
     }
 
+    @Override
+    public CompletableFuture<List<T>> findAfter(K lastKey, int pageSize, Condition<?>... values) {
+        return other.findAfter(lastKey, pageSize, values);
+    }
+
+    @Override
+    public EntityStream<T> stream(Condition<?>... values) {
+        return other.stream(values);
+    }
+
+    @Override
+    public EntityStream<T> stream(int fetchSize, Condition<?>... values) {
+        return other.stream(fetchSize, values);
+    }
+
     @Override
     public CompletableFuture<Optional<T>> findById(K k) {
         return ifindById.apply(k);
@@ -54,6 +77,11 @@ public class Mapperify<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return other.createAll(t);
     }
 
+    @Override
+    public CompletableFuture<Void> createAll(int batchSize, Iterable<T> t) {
+        return other.createAll(batchSize, t);
+    }
+
     @Override
     public CompletableFuture<Void> update(T t) {
         return other.update(t);
@@ -64,6 +92,26 @@ public class Mapperify<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return other.updateAll(t);
     }
 
+    @Override
+    public CompletableFuture<Void> updateAll(int batchSize, Iterable<T> t) {
+        return other.updateAll(batchSize, t);
+    }
+
+    @Override
+    public CompletableFuture<Void> upsert(T t) {
+        return other.upsert(t);
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAll(Iterable<T> t) {
+        return other.upsertAll(t);
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAll(int batchSize, Iterable<T> t) {
+        return other.upsertAll(batchSize, t);
+    }
+
     @Override
     public CompletableFuture<Void> deleteById(K k) {
         return other.deleteById(k);
@@ -74,6 +122,16 @@ public class Mapperify<T extends DomainObject<K>, K> implements Mapper<T, K> {
         return other.delete(t);
     }
 
+    @Override
+    public CompletableFuture<Integer> updateWhere(Map<String, Object> assignments, Condition<?>... values) {
+        return other.updateWhere(assignments, values);
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteWhere(Condition<?>... values) {
+        return other.deleteWhere(values);
+    }
+
     @Override
     public CompletableFuture<Void> deleteAll(Iterable<K> keys) {
         return other.deleteAll(keys);
@@ -2,8 +2,11 @@ package com.github.jayield.rapper;
 
 import com.github.jayield.rapper.domainModel.*;
 import com.github.jayield.rapper.mapper.MapperSettings;
+import com.github.jayield.rapper.sql.Dialect;
 import org.junit.Test;
 
+import java.util.BitSet;
+
 import static org.junit.Assert.*;
 
 public class QueryTests {
@@ -66,4 +69,44 @@ public class QueryTests {
         assertEquals("insert into Dog ( name, race, age ) values ( ?, ?, ? )", dogSettings.getInsertQuery());
         assertEquals("update Dog set age = ? where name = ? and race = ?", dogSettings.getUpdateQuery());
     }
+
+    @Test
+    public void shouldObtainVersionedQueriesForEachDialect(){
+        MapperSettings personSettings = new MapperSettings(Person.class);
+        MapperSettings employeeSettings = new MapperSettings(Employee.class);
+        MapperSettings dogSettings = new MapperSettings(Dog.class);
+        MapperSettings carSettings = new MapperSettings(Car.class);
+        BitSet name = new BitSet();
+        name.set(0);
+
+        assertEquals("insert into Person ( nif, name, birthday, version ) values ( ?, ?, ?, 1 )", personSettings.getInsertQuery(Dialect.STANDARD));
+        assertEquals("update Person set name = ?, birthday = ?, version = version + 1 where nif = ? and version = ?", personSettings.getUpdateQuery(Dialect.STANDARD, null));
+        assertEquals("update Person set name = ?, version = version + 1 where nif = ? and version = ?", personSettings.getUpdateQuery(Dialect.STANDARD, name));
+
+        //Car leaves its version to the DB, so on the standard dialect it's read back instead
+        assertEquals(carSettings.getInsertQuery(), carSettings.getInsertQuery(Dialect.STANDARD));
+        assertEquals(carSettings.getUpdateQuery(), carSettings.getUpdateQuery(Dialect.STANDARD, null));
+
+        assertEquals("insert into Employee ( name, companyId, companyCid ) output INSERTED.id, CAST(INSERTED.version as bigint) version values ( ?, ?, ? )",
+                employeeSettings.getInsertQuery(Dialect.SQL_SERVER));
+        assertEquals("update Person set name = ? output CAST(INSERTED.version as bigint) version where nif = ? and version = ?",
+                personSettings.getUpdateQuery(Dialect.SQL_SERVER, name));
+
+        assertEquals("insert into Employee ( name, companyId, companyCid ) values ( ?, ?, ? ) returning id, version", employeeSettings.getInsertQuery(Dialect.POSTGRESQL));
+        assertEquals("update Person set name = ? where nif = ? and version = ? returning version", personSettings.getUpdateQuery(Dialect.POSTGRESQL, name));
+
+        assertEquals(dogSettings.getInsertQuery(), dogSettings.getInsertQuery(Dialect.SQL_SERVER));
+
+        assertEquals("merge into Person as T using ( values ( 0 ) ) as S ( x ) on T.nif = ? " +
+                "when matched then update set name = ?, birthday = ?, version = T.version + 1 " +
+                "when not matched then insert ( nif, name, birthday, version ) values ( ?, ?, ?, 1 )", personSettings.getUpsertQuery(Dialect.STANDARD));
+        assertEquals("merge into Dog with (holdlock) as T using ( values ( 0 ) ) as S ( x ) on T.name = ? and T.race = ? " +
+                "when matched then update set age = ? " +
+                "when not matched then insert ( name, race, age ) values ( ?, ?, ? );", dogSettings.getUpsertQuery(Dialect.SQL_SERVER));
+        assertEquals("insert into Person as T ( nif, name, birthday, version ) values ( ?, ?, ?, 1 ) on conflict ( nif ) " +
+                "do update set name = excluded.name, birthday = excluded.birthday, version = T.version + 1", personSettings.getUpsertQuery(Dialect.POSTGRESQL));
+        assertEquals(dogSettings.getUpdateQuery(), dogSettings.getUpdateQuery(Dialect.POSTGRESQL, null));
+        assertEquals(Dialect.SQL_SERVER, Dialect.of("jdbc:sqlserver://localhost:1433;databaseName=rapper"));
+        assertEquals(Dialect.STANDARD, Dialect.of("jdbc:hsqldb:file:testdb"));
+    }
 }
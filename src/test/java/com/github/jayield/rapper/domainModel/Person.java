@@ -11,7 +11,8 @@ public class Person implements DomainObject<Integer> {
     private final int nif;
     private final String name;
     private final Instant birthday;
-    @Version
+    //The increment trigger of Person sets the same version the mapper writes
+    @Version(isWrittenByMapper = true)
     private final long version;
 
     public Person(int nif, String name, Instant birthday, long version) {
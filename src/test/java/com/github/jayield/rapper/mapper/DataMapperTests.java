@@ -3,6 +3,7 @@ package com.github.jayield.rapper.mapper;
 import com.github.jayield.rapper.AssertUtils;
 import com.github.jayield.rapper.connections.ConnectionManager;
 import com.github.jayield.rapper.domainModel.*;
+import com.github.jayield.rapper.exceptions.ConcurrencyException;
 import com.github.jayield.rapper.exceptions.DataMapperException;
 import com.github.jayield.rapper.mapper.conditions.Condition;
 import com.github.jayield.rapper.mapper.conditions.EqualAndCondition;
@@ -11,23 +12,40 @@ import com.github.jayield.rapper.mapper.conditions.OrderCondition;
 import com.github.jayield.rapper.mapper.externals.Foreign;
 import com.github.jayield.rapper.utils.SqlUtils;
 import com.github.jayield.rapper.unitofwork.UnitOfWork;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLOptions;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.github.jayield.rapper.AssertUtils.*;
 import static com.github.jayield.rapper.TestUtils.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class DataMapperTests {
@@ -42,6 +60,7 @@ public class DataMapperTests {
     private DataMapper<Dog, Dog.DogPK> dogMapper;
 
     private UnitOfWork unit;
+    private Supplier<CompletableFuture<SQLConnection>> connectionSupplier;
 
     @Before
     public void start() {
@@ -49,7 +68,7 @@ public class DataMapperTests {
         ConnectionManager manager = ConnectionManager.getConnectionManager(
                 "jdbc:hsqldb:file:" + URLDecoder.decode(this.getClass().getClassLoader().getResource("testdb").getPath()) + "/testdb",
                 "SA", "");
-        Supplier<CompletableFuture<SQLConnection>> connectionSupplier = manager::getConnection;
+        connectionSupplier = manager::getConnection;
 
         unit = new UnitOfWork(connectionSupplier);
         CompletableFuture<SQLConnection> con = unit.getConnection();
@@ -200,6 +219,305 @@ public class DataMapperTests {
         assertSingleRow(companies.get(0), companySelectQuery, new JsonArray().add(1).add(11), AssertUtils::assertCompany, unit.getConnection().join());
     }
 
+    @Test
+    public void testFindByIdMissesOfSameTickAreBatched() {
+        AtomicInteger queries = new AtomicInteger();
+        UnitOfWork countingUnit = newCountingUnit(queries);
+        Mapper<Company, Company.PrimaryKey> mapper = MapperRegistry.getMapper(Company.class, countingUnit);
+
+        Vertx vertx = Vertx.vertx();
+        CompletableFuture<List<Optional<Company>>> found = new CompletableFuture<>();
+        //Called on a Vert.x context, so all the misses are of the same tick
+        vertx.runOnContext(ignored -> {
+            List<CompletableFuture<Optional<Company>>> futures = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) futures.add(mapper.findById(new Company.PrimaryKey(1, i)));
+            futures.add(mapper.findById(new Company.PrimaryKey(1, 99)));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()))
+                    .whenComplete((companies, throwable) -> {
+                        if (throwable != null) found.completeExceptionally(throwable);
+                        else found.complete(companies);
+                    });
+        });
+        List<Optional<Company>> companies;
+        try {
+            companies = found.join();
+        } finally {
+            countingUnit.rollback().join();
+            vertx.close();
+        }
+
+        assertEquals(1, queries.get());
+        for (int i = 1; i <= 3; i++) assertEquals(new Company.PrimaryKey(1, i), companies.get(i - 1).get().getIdentityKey());
+        assertFalse(companies.get(3).isPresent());
+    }
+
+    /**
+     * @return a unit whose connections count the queries they run
+     */
+    private UnitOfWork newCountingUnit(AtomicInteger queries) {
+        return new UnitOfWork(() -> connectionSupplier.get().thenApply(con -> (SQLConnection) Proxy.newProxyInstance(
+                SQLConnection.class.getClassLoader(), new Class[]{SQLConnection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("queryWithParams")) queries.incrementAndGet();
+                    try {
+                        return method.invoke(con, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                })));
+    }
+
+    @Test
+    public void testFindWithFetchPlan() {
+        List<Employee> employees = employeeMapper.find(FetchPlan.of("company")).join();
+        assertEquals(2, employees.size());
+        assertEquals(1, unit.getIdentityMap(Company.class).size());
+
+        for (Employee employee : employees) {
+            CompletableFuture<Company> company = employee.getCompany().getForeignObject(unit);
+            assertTrue(company.isDone());
+            assertEquals("Living la vida loca", company.join().getMotto());
+        }
+    }
+
+    @Test
+    public void testFindWithFetchPlanOfMultiReference() {
+        List<Company> companies = companyMapper.find(FetchPlan.of("employees"), new EqualAndCondition<>("id", 1)).join();
+        assertEquals(11, companies.size());
+        assertEquals(2, unit.getIdentityMap(Employee.class).size());
+
+        for (Company company : companies) {
+            CompletableFuture<List<Employee>> employees = company.getEmployees().apply(unit);
+            assertTrue(employees.isDone());
+            boolean first = company.getIdentityKey().equals(new Company.PrimaryKey(1, 1));
+            assertEquals(first ? 2 : 0, employees.join().size());
+        }
+
+        Company company = companies.stream()
+                .filter(c -> c.getIdentityKey().equals(new Company.PrimaryKey(1, 2)))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        employeeMapper.create(new Employee(0, "Hugo", 0, new Foreign<>(new Company.PrimaryKey(1, 2), uW -> CompletableFuture.completedFuture(company)))).join();
+        assertEquals(1, company.getEmployees().apply(unit).join().size());
+    }
+
+    @Test
+    public void testFindWithFetchPlanOfNNReference() {
+        Mapper<Author, Long> authorMapper = MapperRegistry.getMapper(Author.class, unit);
+        List<Author> authors = authorMapper.find(FetchPlan.of("books")).join();
+        assertEquals(2, authors.size());
+
+        for (Author author : authors) {
+            CompletableFuture<List<Book>> books = author.getBooks().apply(unit);
+            assertTrue(books.isDone());
+            assertEquals(author.getName().equals("Ze") ? 1 : 0, books.join().size());
+        }
+    }
+
+    @Test
+    public void testNNExternalKeepsIdentityMapObjects() {
+        Mapper<Author, Long> authorMapper = MapperRegistry.getMapper(Author.class, unit);
+        Author author = authorMapper.find(new EqualAndCondition<>("name", "Ze")).join().get(0);
+        Book book = bookMapper.find(new EqualAndCondition<>("name", "1001 noites")).join().get(0);
+
+        List<Author> authors = book.getAuthors().apply(unit).join();
+        assertEquals(1, authors.size());
+        assertSame(author, authors.get(0));
+    }
+
+    @Test
+    public void testFindWithJoinedForeign() {
+        List<Employee> employees = employeeMapper.find(FetchPlan.join("company")).join();
+        assertEquals(2, employees.size());
+        assertEquals(1, unit.getIdentityMap(Company.class).size());
+
+        for (Employee employee : employees) {
+            CompletableFuture<Company> company = employee.getCompany().getForeignObject(unit);
+            assertTrue(company.isDone());
+            assertEquals("Living la vida loca", company.join().getMotto());
+        }
+    }
+
+    @Test
+    public void testFindWithJoinedMultiReference() {
+        List<Company> companies = companyMapper.find(FetchPlan.join("employees"), new EqualAndCondition<>("id", 1)).join();
+        assertEquals(11, companies.size());
+        assertEquals(2, unit.getIdentityMap(Employee.class).size());
+
+        for (Company company : companies) {
+            CompletableFuture<List<Employee>> employees = company.getEmployees().apply(unit);
+            assertTrue(employees.isDone());
+            boolean first = company.getIdentityKey().equals(new Company.PrimaryKey(1, 1));
+            assertEquals(first ? 2 : 0, employees.join().size());
+        }
+    }
+
+    @Test
+    public void testFindWithJoinedReferenceOrdered() {
+        List<Company> companies = companyMapper.find(FetchPlan.join("employees"), new EqualAndCondition<>("id", 1), OrderCondition.desc("cid")).join();
+        assertEquals(11, companies.size());
+        for (int i = 0; i < companies.size(); i++)
+            assertEquals(11 - i, companies.get(i).getIdentityKey().getCid());
+        assertEquals(2, companies.get(10).getEmployees().apply(unit).join().size());
+    }
+
+    @Test
+    public void testFindWithJoinedNNReference() {
+        List<Book> books = bookMapper.find(FetchPlan.join("authors")).join();
+        assertEquals(1, books.size());
+
+        CompletableFuture<List<Author>> authors = books.get(0).getAuthors().apply(unit);
+        assertTrue(authors.isDone());
+        assertEquals(1, authors.join().size());
+        assertEquals("Ze", authors.join().get(0).getName());
+    }
+
+    @Test
+    public void testFindWithFetchPlanOfUnknownField() {
+        try {
+            employeeMapper.find(FetchPlan.of("boss")).join();
+            fail("A field that isn't a reference can't be prefetched");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DataMapperException);
+        }
+    }
+
+    //-----------------------------------FindAfter-----------------------------------//
+    @Test
+    public void testFindAfterWithEmbeddedId() {
+        List<Company> companies = findAllAfter(4, new EqualAndCondition<>("id", 1));
+
+        assertEquals(11, companies.size());
+        for (int i = 0; i < companies.size(); i++)
+            assertEquals(i + 1, companies.get(i).getIdentityKey().getCid());
+    }
+
+    @Test
+    public void testFindAfterWithOrderBy() {
+        List<Company> companies = findAllAfter(3, OrderCondition.desc("motto"));
+        List<Company> expected = companyMapper.find(OrderCondition.desc("motto")).join();
+
+        assertEquals(expected.size(), companies.size());
+        for (int i = 0; i < companies.size(); i++)
+            assertEquals(expected.get(i).getIdentityKey(), companies.get(i).getIdentityKey());
+    }
+
+    @Test
+    public void testFindAfterWithNullOrderColumn() {
+        SqlUtils.update("update Company set motto = null where id = 1 and cid in (2, 3, 4)", unit, new JsonArray()).join();
+
+        for (OrderCondition order : Arrays.asList(OrderCondition.desc("motto"), OrderCondition.asc("motto"))) {
+            List<Company> companies = findAllAfter(2, order);
+            List<Company> expected = companyMapper.find(order, OrderCondition.asc("id"), OrderCondition.asc("cid")).join();
+            //NULL is sorted as the lowest motto, wherever the DB sorts it by default
+            List<Company> nulls = expected.stream().filter(company -> company.getMotto() == null).collect(Collectors.toList());
+            expected.removeAll(nulls);
+            expected.addAll(order.getComparand().equals("DESC") ? expected.size() : 0, nulls);
+
+            assertEquals(11, companies.size());
+            for (int i = 0; i < companies.size(); i++)
+                assertEquals(expected.get(i).getIdentityKey(), companies.get(i).getIdentityKey());
+        }
+    }
+
+    @Test
+    public void testFindAfterWithOrderByOnId() {
+        List<Company> companies = findAllAfter(5, OrderCondition.desc("cid"));
+
+        assertEquals(11, companies.size());
+        for (int i = 0; i < companies.size(); i++)
+            assertEquals(11 - i, companies.get(i).getIdentityKey().getCid());
+    }
+
+    @Test
+    public void testFindAfterLastPage() {
+        List<Company> companies = companyMapper.findAfter(new Company.PrimaryKey(1, 11), 10).join();
+        assertEquals(0, companies.size());
+    }
+
+    @Test
+    public void testFindAfterRemovedLastKey() {
+        try {
+            companyMapper.findAfter(new Company.PrimaryKey(1, 99), 10).join();
+            fail("The page after a key that no longer exists can't be found");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DataMapperException);
+        }
+    }
+
+    @Test
+    public void testHierarchyFindAfter() {
+        List<TopStudent> topStudents = topStudentMapper.findAfter(null, 1).join();
+        assertEquals(1, topStudents.size());
+        assertEquals(454, (int) topStudents.get(0).getIdentityKey());
+        assertEquals(0, topStudentMapper.findAfter(454, 1).join().size());
+
+        List<Person> people = personMapper.findAfter(321, 10).join();
+        assertEquals(1, people.size());
+        assertEquals(454, (int) people.get(0).getIdentityKey());
+    }
+
+    private List<Company> findAllAfter(int pageSize, Condition<?>... conditions) {
+        List<Company> companies = new ArrayList<>();
+        List<Company> page = companyMapper.findAfter(null, pageSize, conditions).join();
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= pageSize);
+            companies.addAll(page);
+            page = companyMapper.findAfter(page.get(page.size() - 1).getIdentityKey(), pageSize, conditions).join();
+        }
+        return companies;
+    }
+
+    //-----------------------------------Stream-----------------------------------//
+    @Test
+    public void testStreamWithBackpressure() {
+        List<Company> companies = new ArrayList<>();
+        CompletableFuture<Void> end = new CompletableFuture<>();
+        EntityStream<Company> stream = companyMapper.stream(2, new EqualAndCondition<>("id", 1));
+        stream.exceptionHandler(end::completeExceptionally)
+                .endHandler(end::complete)
+                .handler(company -> {
+                    companies.add(company);
+                    stream.pause();
+                    CompletableFuture.runAsync(stream::resume);
+                });
+        end.join();
+
+        assertEquals(11, companies.size());
+        assertMultipleRows(unit.getConnection().join(), companies, companySelectTop10Query, AssertUtils::assertCompany, 10);
+    }
+
+    @Test
+    public void testStreamClose() {
+        List<Company> companies = new ArrayList<>();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        EntityStream<Company> stream = companyMapper.stream(2, new EqualAndCondition<>("id", 1));
+        stream.endHandler(v -> fail("A closed stream shouldn't end"))
+                .handler(company -> {
+                    companies.add(company);
+                    if (companies.size() == 3) {
+                        stream.close();
+                        closed.complete(null);
+                    }
+                });
+        closed.join();
+
+        assertEquals(3, companies.size());
+    }
+
+    @Test
+    public void testStreamKeepsConnectionOptions() {
+        SQLConnection connection = unit.getConnection().join();
+        SQLOptions options = new SQLOptions().setAutoGeneratedKeys(true).setQueryTimeout(30);
+        connection.setOptions(options);
+
+        CompletableFuture<Void> end = new CompletableFuture<>();
+        companyMapper.stream(2).exceptionHandler(end::completeExceptionally).endHandler(end::complete).handler(company -> { });
+        end.join();
+
+        assertSame(options, SqlUtils.getOptions(connection));
+    }
+
     //-----------------------------------FindById-----------------------------------//
     @Test
     public void testSimpleFindById(){
@@ -244,6 +562,165 @@ public class DataMapperTests {
                 new JsonArray().add(companyId).add(companyCid), AssertUtils::assertCompany, con);
     }
 
+    @Test
+    public void testFindByIdFromSecondLevelCache() {
+        MapperRegistry.registerCache(Company.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Company.PrimaryKey key = new Company.PrimaryKey(1, 1);
+            UnitOfWork first = new UnitOfWork(connectionSupplier);
+            Company company = MapperRegistry.getMapper(Company.class, first).findById(key).join().orElseThrow(AssertionError::new);
+            first.commit().join();
+
+            AtomicInteger queries = new AtomicInteger();
+            UnitOfWork second = newCountingUnit(queries);
+            Company cached = MapperRegistry.getMapper(Company.class, second).findById(key).join().orElseThrow(AssertionError::new);
+            second.commit().join();
+
+            assertNotSame(company, cached);
+            assertEquals(company.getIdentityKey(), cached.getIdentityKey());
+            assertEquals(company.getMotto(), cached.getMotto());
+            assertEquals(company.getVersion(), cached.getVersion());
+            assertEquals(0, queries.get());
+        } finally {
+            MapperRegistry.unregisterCache(Company.class);
+        }
+    }
+
+    @Test
+    public void testChangesToCachedObjectsAreNotShared() {
+        MapperRegistry.registerCache(Dog.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Dog.DogPK key = new Dog.DogPK("Doggy", "Bulldog");
+            UnitOfWork first = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Dog.class, first).findById(key).join().orElseThrow(AssertionError::new);
+            first.commit().join();
+
+            UnitOfWork detectingUnit = new UnitOfWork(connectionSupplier, false, true);
+            Dog changed = MapperRegistry.getMapper(Dog.class, detectingUnit).findById(key).join().orElseThrow(AssertionError::new);
+            changed.setAge(6);
+
+            UnitOfWork other = new UnitOfWork(connectionSupplier);
+            Dog cached = MapperRegistry.getMapper(Dog.class, other).findById(key).join().orElseThrow(AssertionError::new);
+            other.commit().join();
+            assertEquals(5, cached.getAge());
+
+            //The snapshot of the cached row tells the change, so it's written
+            detectingUnit.commit().join();
+            UnitOfWork last = new UnitOfWork(connectionSupplier);
+            Dog written = MapperRegistry.getMapper(Dog.class, last).findById(key).join().orElseThrow(AssertionError::new);
+            last.commit().join();
+            assertEquals(6, written.getAge());
+        } finally {
+            MapperRegistry.unregisterCache(Dog.class);
+        }
+    }
+
+    @Test
+    public void testSecondLevelCacheRejectsRowsReadBeforeAWrite() {
+        MapperRegistry.registerCache(Company.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Company.PrimaryKey key = new Company.PrimaryKey(1, 1);
+            UnitOfWork reader = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Company.class, reader).findById(key).join().orElseThrow(AssertionError::new);
+
+            UnitOfWork writer = new UnitOfWork(connectionSupplier);
+            Mapper<Company, Company.PrimaryKey> writerMapper = MapperRegistry.getMapper(Company.class, writer);
+            Company company = writerMapper.findById(key).join().orElseThrow(AssertionError::new);
+            writerMapper.update(new Company(key, "Cached motto", null, company.getVersion())).join();
+            writer.commit().join();
+            //The reader's row is older than the one committed by the writer
+            reader.commit().join();
+            assertEquals(0, MapperRegistry.getCache(Company.class).size());
+
+            AtomicInteger queries = new AtomicInteger();
+            UnitOfWork third = newCountingUnit(queries);
+            Company read = MapperRegistry.getMapper(Company.class, third).findById(key).join().orElseThrow(AssertionError::new);
+            third.commit().join();
+            assertEquals("Cached motto", read.getMotto());
+            assertEquals(1, queries.get());
+
+            UnitOfWork fourth = newCountingUnit(queries);
+            Company cached = MapperRegistry.getMapper(Company.class, fourth).findById(key).join().orElseThrow(AssertionError::new);
+            fourth.commit().join();
+            assertEquals("Cached motto", cached.getMotto());
+            assertEquals(company.getVersion() + 1, cached.getVersion());
+            assertEquals(1, queries.get());
+        } finally {
+            MapperRegistry.unregisterCache(Company.class);
+        }
+    }
+
+    @Test
+    public void testUpdateWhereRejectsRowsOfUnversionedTypeReadBefore() {
+        MapperRegistry.registerCache(Dog.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Dog.DogPK key = new Dog.DogPK("Doggy", "Bulldog");
+            UnitOfWork reader = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Dog.class, reader).findById(key).join().orElseThrow(AssertionError::new);
+
+            UnitOfWork writer = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Dog.class, writer).updateWhere(Collections.singletonMap("age", 7), new EqualAndCondition<>("name", "Doggy")).join();
+            writer.commit().join();
+            reader.commit().join();
+
+            UnitOfWork last = new UnitOfWork(connectionSupplier);
+            Dog dog = MapperRegistry.getMapper(Dog.class, last).findById(key).join().orElseThrow(AssertionError::new);
+            last.commit().join();
+            assertEquals(7, dog.getAge());
+        } finally {
+            MapperRegistry.unregisterCache(Dog.class);
+        }
+    }
+
+    @Test
+    public void testDeleteAllEvictsKeysThatWereNotLoaded() {
+        MapperRegistry.registerCache(Company.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Company.PrimaryKey key = new Company.PrimaryKey(1, 2);
+            UnitOfWork first = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Company.class, first).findById(key).join().orElseThrow(AssertionError::new);
+            first.commit().join();
+            assertEquals(1, MapperRegistry.getCache(Company.class).size());
+
+            UnitOfWork deleter = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Company.class, deleter).deleteAll(Collections.singletonList(key)).join();
+            deleter.commit().join();
+
+            UnitOfWork last = new UnitOfWork(connectionSupplier);
+            Optional<Company> company = MapperRegistry.getMapper(Company.class, last).findById(key).join();
+            last.commit().join();
+            assertFalse(company.isPresent());
+        } finally {
+            MapperRegistry.unregisterCache(Company.class);
+        }
+    }
+
+    @Test
+    public void testRollbackInvalidatesSecondLevelCache() {
+        MapperRegistry.registerCache(Company.class, 100, 1, TimeUnit.MINUTES);
+        try {
+            Company.PrimaryKey key = new Company.PrimaryKey(1, 1);
+            UnitOfWork first = new UnitOfWork(connectionSupplier);
+            Company company = MapperRegistry.getMapper(Company.class, first).findById(key).join().orElseThrow(AssertionError::new);
+            first.commit().join();
+
+            UnitOfWork writer = new UnitOfWork(connectionSupplier);
+            MapperRegistry.getMapper(Company.class, writer).update(new Company(key, "Rolled back motto", null, company.getVersion())).join();
+            writer.rollback().join();
+            assertEquals(0, MapperRegistry.getCache(Company.class).size());
+
+            AtomicInteger queries = new AtomicInteger();
+            UnitOfWork third = newCountingUnit(queries);
+            Company read = MapperRegistry.getMapper(Company.class, third).findById(key).join().orElseThrow(AssertionError::new);
+            third.commit().join();
+
+            assertEquals(company.getMotto(), read.getMotto());
+            assertEquals(1, queries.get());
+        } finally {
+            MapperRegistry.unregisterCache(Company.class);
+        }
+    }
+
     //-----------------------------------FindAll-----------------------------------//
     @Test
     public void testSimpleFindAll(){
@@ -296,6 +773,57 @@ public class DataMapperTests {
         assertSingleRow(topStudent, topStudentSelectQuery, new JsonArray().add(topStudent.getNif()), AssertUtils::assertTopStudent, con);
     }
 
+    @Test
+    public void testHierarchyUpdateWithStaleParentVersion() {
+        //The rows of the hierarchy are updated together, so the stale version of the Person row fails the whole update
+        TopStudent topStudent = new TopStudent(454, "Carlos", new Date(2010, 6, 3).toInstant(), 1, 4, 6, 7, 1, -1);
+
+        try {
+            topStudentMapper.update(topStudent).join();
+            fail("The update of a stale version should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DataMapperException);
+        }
+    }
+
+    @Test
+    public void testEmbeddedIdCreateAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<Company> companies = new ArrayList<>();
+        for (int cid = 1; cid <= 5; cid++)
+            companies.add(new Company(new Company.PrimaryKey(2, cid), "Batch motto " + cid, null, 0));
+        companyMapper.createAll(2, companies).join();
+
+        assertEquals(5, (long) companyMapper.getNumberOfEntries(new EqualAndCondition<>("id", 2)).join());
+        for (Company company : companies)
+            assertSingleRow(company, companySelectQuery, new JsonArray().add(2).add(company.getIdentityKey().getCid()), AssertUtils::assertCompany, con);
+    }
+
+    @Test
+    public void testHierarchyCreateAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<TopStudent> topStudents = new ArrayList<>();
+        for (int nif = 500; nif < 503; nif++)
+            topStudents.add(new TopStudent(nif, "Manel" + nif, new Date(2020, 12, 1).toInstant(), 0, nif, 20, 2016, 0, 0));
+        topStudentMapper.createAll(2, topStudents).join();
+
+        for (TopStudent topStudent : topStudents)
+            assertSingleRow(topStudent, topStudentSelectQuery, new JsonArray().add(topStudent.getNif()), AssertUtils::assertTopStudent, con);
+    }
+
+    @Test
+    public void testIdentityCreateAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<Employee> employees = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            employees.add(new Employee(0, "Batch" + i, 0, null));
+        employeeMapper.createAll(2, employees).join();
+
+        assertEquals(3, employees.stream().map(Employee::getIdentityKey).distinct().filter(id -> id != 0).count());
+        for (Employee employee : employees)
+            assertSingleRow(employee, employeeSelectQuery, new JsonArray().add(employee.getName()), AssertUtils::assertEmployee, con);
+    }
+
     @Test
     public void testSingleExternalCreate() {
         SQLConnection con = unit.getConnection().join();
@@ -338,6 +866,57 @@ public class DataMapperTests {
         assertSingleRow(person, personSelectQuery, new JsonArray().add(person.getNif()), AssertUtils::assertPerson, con);
     }
 
+    @Test
+    public void testVersionWithoutReadBack() {
+        SQLConnection con = unit.getConnection().join();
+        Person person = new Person(1, "Ana", new Date(2000, 1, 1).toInstant(), 0);
+        personMapper.create(person).join();
+        assertEquals(1, person.getVersion());
+
+        Person updated = new Person(1, "Ana Maria", person.getBirthday(), person.getVersion());
+        personMapper.update(updated).join();
+        assertEquals(2, updated.getVersion());
+
+        //The written object takes the place of the one that would have been read back
+        assertSame(updated, personMapper.findById(1).join().orElseThrow(() -> new AssertionError(detailMessage)));
+        assertSingleRow(updated, personSelectQuery, new JsonArray().add(1), AssertUtils::assertPerson, con);
+    }
+
+    @Test
+    public void testVersionReadBack() {
+        SQLConnection con = unit.getConnection().join();
+        ResultSet rs = executeQuery("select CAST(version as bigint) version from Car where owner = ? and plate = ?", new JsonArray().add(2).add("23we45"), con);
+        long version = rs.getResults().get(0).getLong(0);
+        Car car = new Car(2, "23we45", "Mitsubishi", "lancer evolution", version);
+        carMapper.update(car).join();
+        assertEquals(version + 1, car.getVersion());
+
+        //Car leaves its version to the DB, so the row was read back after the update
+        Car readBack = carMapper.findById(car.getIdentityKey()).join().orElseThrow(() -> new AssertionError(detailMessage));
+        assertNotSame(car, readBack);
+        assertEquals(car.getVersion(), readBack.getVersion());
+    }
+
+    @Test
+    public void testUnchangedUpdateWithStaleVersion() {
+        Person person = personMapper.findById(321).join().orElseThrow(() -> new AssertionError(detailMessage));
+        Person stale = new Person(person.getNif(), person.getName(), person.getBirthday(), person.getVersion() + 1);
+
+        //None of the columns changed, but the version differs from the one read, so the update still checks it
+        try {
+            personMapper.update(stale).join();
+            fail("The update of a stale version should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DataMapperException);
+        }
+        try {
+            personMapper.updateAll(Collections.singletonList(stale)).join();
+            fail("The update of a stale version should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ConcurrencyException);
+        }
+    }
+
     @Test
     public void testEmbeddedIdUpdate() {
         SQLConnection con = unit.getConnection().join();
@@ -364,6 +943,160 @@ public class DataMapperTests {
         assertSingleRow(topStudent, topStudentSelectQuery, new JsonArray().add(topStudent.getNif()), AssertUtils::assertTopStudent, con);
     }
 
+    @Test
+    public void testEmbeddedIdUpdateAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<Company> companies = new ArrayList<>();
+        for (int cid = 1; cid <= 3; cid++) {
+            ResultSet rs = executeQuery("select CAST(version as bigint) version from Company where id = ? and cid = ?", new JsonArray().add(1).add(cid), con);
+            companies.add(new Company(new Company.PrimaryKey(1, cid), "Updated motto " + cid, null, rs.getResults().get(0).getLong(0)));
+        }
+
+        companyMapper.updateAll(2, companies).join();
+
+        for (Company company : companies)
+            assertSingleRow(company, companySelectQuery, new JsonArray().add(1).add(company.getIdentityKey().getCid()), AssertUtils::assertCompany, con);
+    }
+
+    @Test
+    public void testHierarchyUpdateAll() {
+        SQLConnection con = unit.getConnection().join();
+        ResultSet rs = executeQuery("select CAST(P.version as bigint), CAST(S2.version as bigint), CAST(TS.version as bigint) version from Person P " +
+                "inner join Student S2 on P.nif = S2.nif " +
+                "inner join TopStudent TS on S2.nif = TS.nif where P.nif = ?", new JsonArray().add(454), con);
+        JsonArray first = rs.getResults().get(0);
+        TopStudent topStudent = new TopStudent(454, "Carlos", new Date(2010, 6, 3).toInstant(), first.getLong(1),
+                4, 6, 7, first.getLong(2), first.getLong(0));
+
+        topStudentMapper.updateAll(Collections.singletonList(topStudent)).join();
+
+        assertSingleRow(topStudent, topStudentSelectQuery, new JsonArray().add(topStudent.getNif()), AssertUtils::assertTopStudent, con);
+    }
+
+    @Test
+    public void testStaleVersionUpdateAll() {
+        SQLConnection con = unit.getConnection().join();
+        ResultSet rs = executeQuery("select CAST(version as bigint) version from Company where id = ? and cid = ?", new JsonArray().add(1).add(1), con);
+        List<Company> companies = Arrays.asList(
+                new Company(new Company.PrimaryKey(1, 1), "Updated motto", null, rs.getResults().get(0).getLong(0)),
+                new Company(new Company.PrimaryKey(1, 2), "Stale motto", null, -1)
+        );
+
+        try {
+            companyMapper.updateAll(companies).join();
+            fail("The update of a stale version should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ConcurrencyException);
+            assertTrue(e.getCause().getMessage().contains("[{1, 2}]"));
+        }
+    }
+
+    @Test
+    public void testSimpleUpsert() {
+        SQLConnection con = unit.getConnection().join();
+        //The version of an upsert isn't checked
+        Person existing = new Person(321, "Maria", new Date(2010, 2, 3).toInstant(), 0);
+        Person inserted = new Person(1, "Ana", new Date(2000, 1, 1).toInstant(), 0);
+
+        personMapper.upsert(existing).join();
+        personMapper.upsert(inserted).join();
+
+        assertSingleRow(existing, personSelectQuery, new JsonArray().add(existing.getNif()), AssertUtils::assertPerson, con);
+        assertSingleRow(inserted, personSelectQuery, new JsonArray().add(inserted.getNif()), AssertUtils::assertPerson, con);
+        assertEquals(1, inserted.getVersion());
+    }
+
+    @Test
+    public void testEmbeddedIdUpsertAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<Company> companies = new ArrayList<>();
+        for (int cid = 10; cid <= 13; cid++)
+            companies.add(new Company(new Company.PrimaryKey(1, cid), "Upserted motto " + cid, null, 0));
+
+        companyMapper.upsertAll(3, companies).join();
+
+        for (Company company : companies)
+            assertSingleRow(company, companySelectQuery, new JsonArray().add(1).add(company.getIdentityKey().getCid()), AssertUtils::assertCompany, con);
+        assertEquals(13, (long) companyMapper.getNumberOfEntries().join());
+    }
+
+    @Test
+    public void testHierarchyUpsertAll() {
+        SQLConnection con = unit.getConnection().join();
+        List<TopStudent> topStudents = Arrays.asList(
+                new TopStudent(454, "Carlos", new Date(2010, 6, 3).toInstant(), 0, 4, 6, 7, 0, 0),
+                new TopStudent(500, "Manel", new Date(2020, 12, 1).toInstant(), 0, 500, 20, 2016, 0, 0)
+        );
+
+        topStudentMapper.upsertAll(topStudents).join();
+
+        for (TopStudent topStudent : topStudents)
+            assertSingleRow(topStudent, topStudentSelectQuery, new JsonArray().add(topStudent.getNif()), AssertUtils::assertTopStudent, con);
+    }
+
+    @Test
+    public void testIdentityUpsert() {
+        try {
+            employeeMapper.upsert(new Employee(0, "Ana", 0, null));
+            fail("The objects of a type with an identity key can't be upserted");
+        } catch (DataMapperException e) {
+            assertTrue(e.getMessage().contains("can't be upserted"));
+        }
+    }
+
+    @Test
+    public void testUpdateChangedColumns() {
+        SQLConnection con = unit.getConnection().join();
+        Person person = personMapper.findById(321).join().orElseThrow(() -> new AssertionError(detailMessage));
+        //Changes the birthday behind the mapper, so it's only kept if the update doesn't set it
+        SqlUtils.update("update Person set birthday = DATE '2000-01-01' where nif = ?", unit, new JsonArray().add(321)).join();
+
+        personMapper.update(new Person(321, "Mariana", person.getBirthday(), person.getVersion() + 1)).join();
+
+        JsonArray row = executeQuery("select name, birthday, CAST(version as bigint) version from Person where nif = ?", new JsonArray().add(321), con)
+                .getResults().get(0);
+        assertEquals("Mariana", row.getString(0));
+        assertTrue(row.getValue(1).toString().startsWith("2000-01-01"));
+        assertEquals(person.getVersion() + 2, (long) row.getLong(2));
+
+        BitSet name = new BitSet();
+        name.set(0);
+        MapperSettings personSettings = MapperRegistry.getMapperSettings(Person.class);
+        assertEquals("update Person set name = ? where nif = ? and version = ?", personSettings.getUpdateQuery(name));
+        assertSame(personSettings.getUpdateQuery(name), personSettings.getUpdateQuery((BitSet) name.clone()));
+    }
+
+    @Test
+    public void testUpdateWithoutChanges() {
+        SQLConnection con = unit.getConnection().join();
+        Person person = personMapper.findById(321).join().orElseThrow(() -> new AssertionError(detailMessage));
+
+        personMapper.update(new Person(321, person.getName(), person.getBirthday(), person.getVersion())).join();
+
+        ResultSet rs = executeQuery("select CAST(version as bigint) version from Person where nif = ?", new JsonArray().add(321), con);
+        assertEquals(person.getVersion(), (long) rs.getResults().get(0).getLong(0));
+    }
+
+    @Test
+    public void testUpdateAllChangedColumns() {
+        SQLConnection con = unit.getConnection().join();
+        List<Company> companies = new ArrayList<>();
+        for (Company company : companyMapper.find(new EqualAndCondition<>("id", 1)).join()) {
+            int cid = company.getIdentityKey().getCid();
+            String motto = cid % 2 == 0 ? company.getMotto() : "Updated motto " + cid;
+            companies.add(new Company(company.getIdentityKey(), motto, null, company.getVersion()));
+        }
+
+        companyMapper.updateAll(4, companies).join();
+
+        for (Company company : companies) {
+            JsonArray row = executeQuery("select motto, CAST(version as bigint) version from Company where id = ? and cid = ?",
+                    new JsonArray().add(1).add(company.getIdentityKey().getCid()), con).getResults().get(0);
+            assertEquals(company.getMotto(), row.getString(0));
+            assertEquals(company.getVersion(), (long) row.getLong(1));
+        }
+    }
+
     @Test
     public void testSingleExternalUpdate() {
         SQLConnection con = unit.getConnection().join();
@@ -406,6 +1139,96 @@ public class DataMapperTests {
         assertSingleRow(dog, dogSelectQuery, new JsonArray().add("Doggy").add("Bulldog"), AssertUtils::assertDog, con);
     }
 
+    //-----------------------------------UpdateWhere-----------------------------------//
+    @Test
+    public void testUpdateWhere() {
+        Person loaded = personMapper.findById(321).join().orElseThrow(() -> new AssertionError(detailMessage));
+
+        int updated = personMapper.updateWhere(Collections.singletonMap("name", "Maria"), new EqualAndCondition<>("nif", 321)).join();
+
+        assertEquals(1, updated);
+        assertTrue(!unit.getIdentityMap(Person.class).containsKey(loaded.getIdentityKey()));
+        Person person = personMapper.findById(321).join().orElseThrow(() -> new AssertionError(detailMessage));
+        assertEquals("Maria", person.getName());
+        assertEquals(loaded.getVersion() + 1, person.getVersion());
+    }
+
+    @Test
+    public void testHierarchyUpdateWhere() {
+        //name is a column of Person, so the rows of TopStudent are matched through its ids
+        int updated = topStudentMapper.updateWhere(Collections.singletonMap("topGrade", 19), new EqualAndCondition<>("name", "Nuno")).join();
+
+        assertEquals(1, updated);
+        TopStudent topStudent = topStudentMapper.findById(454).join().orElseThrow(() -> new AssertionError(detailMessage));
+        assertEquals(19, topStudent.getTopGrade());
+    }
+
+    @Test
+    public void testUpdateWhereRunsAfterDeferredWrites() {
+        UnitOfWork writeBehindUnit = new UnitOfWork(connectionSupplier, true);
+        try {
+            DataMapper<Person, Integer> mapper = (DataMapper<Person, Integer>) MapperRegistry.getMapper(Person.class, writeBehindUnit);
+            mapper.create(new Person(777, "Ana", new Date(2000, 1, 1).toInstant(), 0)).join();
+
+            int updated = mapper.updateWhere(Collections.singletonMap("name", "Maria"), new EqualAndCondition<>("nif", 777)).join();
+
+            assertEquals(1, updated);
+            assertEquals("Maria", mapper.findById(777).join().orElseThrow(() -> new AssertionError(detailMessage)).getName());
+        } finally {
+            writeBehindUnit.rollback().join();
+        }
+    }
+
+    @Test
+    public void testUpdateWhereKeepsDetectedChanges() {
+        UnitOfWork detectingUnit = new UnitOfWork(connectionSupplier, false, true);
+        try {
+            DataMapper<Dog, Dog.DogPK> mapper = (DataMapper<Dog, Dog.DogPK>) MapperRegistry.getMapper(Dog.class, detectingUnit);
+            mapper.findById(new Dog.DogPK("Doggy", "Bulldog")).join().orElseThrow(() -> new AssertionError(detailMessage)).setAge(6);
+
+            //The change is written before, so the statement matches it
+            int updated = mapper.updateWhere(Collections.singletonMap("age", 7), new EqualAndCondition<>("age", 6)).join();
+
+            assertEquals(1, updated);
+            assertEquals(7, mapper.findById(new Dog.DogPK("Doggy", "Bulldog")).join().orElseThrow(() -> new AssertionError(detailMessage)).getAge());
+        } finally {
+            detectingUnit.rollback().join();
+        }
+    }
+
+    @Test
+    public void testUpdateWhereOfParentColumn() {
+        try {
+            topStudentMapper.updateWhere(Collections.singletonMap("name", "Maria"));
+            fail("The columns of the parents can't be updated");
+        } catch (DataMapperException e) {
+            assertTrue(e.getMessage().contains("name"));
+        }
+    }
+
+    //-----------------------------------DeleteWhere-----------------------------------//
+    @Test
+    public void testDeleteWhere() {
+        Company loaded = companyMapper.findById(new Company.PrimaryKey(1, 7)).join().orElseThrow(() -> new AssertionError(detailMessage));
+
+        int deleted = companyMapper.deleteWhere(new Condition<>("cid", ">", 5)).join();
+
+        assertEquals(6, deleted);
+        assertEquals(5, (long) companyMapper.getNumberOfEntries().join());
+        assertTrue(!unit.getIdentityMap(Company.class).containsKey(loaded.getIdentityKey()));
+    }
+
+    @Test
+    public void testHierarchyDeleteWhere() {
+        SQLConnection con = unit.getConnection().join();
+
+        int deleted = topStudentMapper.deleteWhere(new EqualAndCondition<>("topGrade", 20)).join();
+
+        assertEquals(1, deleted);
+        assertNotFound(topStudentSelectQuery, new JsonArray().add(454), con);
+        assertNotFound(personSelectQuery, new JsonArray().add(454), con);
+    }
+
     //-----------------------------------DeleteById-----------------------------------//
     @Test
     public void testSimpleDeleteById() {
@@ -436,6 +1259,41 @@ public class DataMapperTests {
         assertNotFound(employeeSelectQuery, new JsonArray().add("Bob"), con);
     }
 
+    //-----------------------------------DeleteAll-----------------------------------//
+    @Test
+    public void testEmbeddedIdDeleteAll() {
+        SQLConnection con = unit.getConnection().join();
+        Company loaded = companyMapper.findById(new Company.PrimaryKey(1, 3)).join().orElseThrow(() -> new AssertionError(detailMessage));
+        List<Company.PrimaryKey> keys = Arrays.asList(new Company.PrimaryKey(1, 3), new Company.PrimaryKey(1, 4), new Company.PrimaryKey(1, 5));
+
+        companyMapper.deleteAll(keys).join();
+
+        for (Company.PrimaryKey key : keys)
+            assertNotFound(companySelectQuery, new JsonArray().add(key.getId()).add(key.getCid()), con);
+        assertEquals(8, (long) companyMapper.getNumberOfEntries().join());
+
+        unit.rollback().join();
+        assertEquals(loaded, unit.getIdentityMap(Company.class).get(loaded.getIdentityKey()).join());
+    }
+
+    @Test
+    public void testHierarchyDeleteAll() {
+        SQLConnection con = unit.getConnection().join();
+        topStudentMapper.deleteAll(Collections.singletonList(454)).join();
+        assertNotFound(topStudentSelectQuery, new JsonArray().add(454), con);
+        assertNotFound(personSelectQuery, new JsonArray().add(454), con);
+    }
+
+    @Test
+    public void testNotFoundDeleteAll() {
+        try {
+            personMapper.deleteAll(Arrays.asList(321, 999)).join();
+            fail("The delete of a missing key should fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DataMapperException);
+        }
+    }
+
     //-----------------------------------Delete-----------------------------------//
     @Test
     public void testSimpleDelete() {
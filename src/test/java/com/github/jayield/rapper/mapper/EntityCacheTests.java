@@ -0,0 +1,108 @@
+package com.github.jayield.rapper.mapper;
+
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class EntityCacheTests {
+
+    private static EntityCache.Row row(int id, long version) {
+        return new EntityCache.Row(Collections.singletonList("id"), new JsonArray().add(id), version);
+    }
+
+    private final AtomicLong time = new AtomicLong();
+
+    @Test
+    public void testGetPutObject() {
+        EntityCache<Integer> cache = new EntityCache<>(10, 1, TimeUnit.SECONDS, time::get);
+        EntityCache.Row row = row(1, 0);
+        assertTrue(cache.put(1, row, EntityCache.currentEpoch()));
+        assertSame(row, cache.get(1));
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    public void testObjectExpires() {
+        EntityCache<Integer> cache = new EntityCache<>(10, 1, TimeUnit.SECONDS, time::get);
+        cache.put(1, row(1, 0), EntityCache.currentEpoch());
+        time.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOlderVersionIsRejected() {
+        EntityCache<Integer> cache = new EntityCache<>(10, 1, TimeUnit.SECONDS, time::get);
+        EntityCache.Row newer = row(1, 2);
+        cache.put(1, newer, EntityCache.currentEpoch());
+        assertFalse(cache.put(1, row(1, 1), EntityCache.currentEpoch()));
+        assertSame(newer, cache.get(1));
+
+        EntityCache.Row sameVersion = row(1, 2);
+        assertTrue(cache.put(1, sameVersion, EntityCache.currentEpoch()));
+        assertSame(sameVersion, cache.get(1));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        EntityCache<Integer> cache = new EntityCache<>(10, 1, TimeUnit.SECONDS, time::get);
+        for (int i = 0; i < 100; i++) cache.put(i, row(i, 0), EntityCache.currentEpoch());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testFrequentObjectsSurviveScan() {
+        EntityCache<Integer> cache = new EntityCache<>(100, 1, TimeUnit.SECONDS, time::get);
+        for (int i = 0; i < 50; i++) cache.put(i, row(i, 0), EntityCache.currentEpoch());
+        for (int j = 0; j < 3; j++)
+            for (int i = 0; i < 50; i++) assertNotNull(cache.get(i));
+
+        //Each of these is used once, so none of them is worth more than the frequent ones
+        for (int i = 1000; i < 2000; i++) cache.put(i, row(i, 0), EntityCache.currentEpoch());
+
+        for (int i = 0; i < 50; i++) assertNotNull(cache.get(i));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        EntityCache<Integer> cache = new EntityCache<>(10, 1, TimeUnit.SECONDS, time::get);
+        cache.put(1, row(1, 0), EntityCache.currentEpoch());
+        cache.put(2, row(2, 0), EntityCache.currentEpoch());
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRowsReadBeforeInvalidationAreRejected() {
+        EntityCache<Integer> cache = new EntityCache<>(2, 1, TimeUnit.SECONDS, time::get);
+        long epoch = EntityCache.currentEpoch();
+        cache.invalidate(1);
+        assertFalse(cache.put(1, row(1, 0), epoch));
+        assertTrue(cache.put(2, row(2, 0), epoch));
+        assertTrue(cache.put(1, row(1, 0), EntityCache.currentEpoch()));
+
+        epoch = EntityCache.currentEpoch();
+        cache.invalidateAll();
+        assertFalse(cache.put(2, row(2, 0), epoch));
+    }
+
+    @Test
+    public void testForgottenInvalidationsStillRejectOlderRows() {
+        EntityCache<Integer> cache = new EntityCache<>(2, 1, TimeUnit.SECONDS, time::get);
+        long epoch = EntityCache.currentEpoch();
+        for (int i = 0; i < 3; i++) cache.invalidate(i);
+        //Only 2 invalidations are kept, the one of 0 is forgotten, so no row read before it is put
+        assertFalse(cache.put(5, row(5, 0), epoch));
+        assertTrue(cache.put(5, row(5, 0), EntityCache.currentEpoch()));
+    }
+}
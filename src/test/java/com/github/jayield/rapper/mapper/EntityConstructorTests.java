@@ -0,0 +1,228 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.annotations.ColumnName;
+import com.github.jayield.rapper.annotations.EmbeddedId;
+import com.github.jayield.rapper.annotations.Id;
+import com.github.jayield.rapper.annotations.MapperConstructor;
+import com.github.jayield.rapper.annotations.Version;
+import com.github.jayield.rapper.connections.ConnectionManager;
+import com.github.jayield.rapper.domainModel.Company;
+import com.github.jayield.rapper.exceptions.DataMapperException;
+import com.github.jayield.rapper.mapper.conditions.EqualAndCondition;
+import com.github.jayield.rapper.mapper.externals.Foreign;
+import com.github.jayield.rapper.unitofwork.UnitOfWork;
+import com.github.jayield.rapper.utils.EmbeddedIdClass;
+import com.github.jayield.rapper.utils.SqlUtils;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Maps the tables Employee, Dog and Person into immutable classes, which are only created through their constructors
+ */
+public class EntityConstructorTests {
+
+    public static class Employee implements DomainObject<Integer> {
+        @Id(isIdentity = true)
+        private final int id;
+        private final String name;
+        @Version
+        private final long version;
+        @ColumnName(name = {"companyId", "companyCid"})
+        private final Foreign<Company, Company.PrimaryKey> company;
+
+        @MapperConstructor({"id", "name", "version", "company"})
+        public Employee(int id, String name, long version, Foreign<Company, Company.PrimaryKey> company) {
+            this.id = id;
+            this.name = name;
+            this.version = version;
+            this.company = company;
+        }
+
+        @Override
+        public Integer getIdentityKey() {
+            return id;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    public static class Dog implements DomainObject<DogPK> {
+        @EmbeddedId
+        private final DogPK pk;
+        private final int age;
+
+        @MapperConstructor({"pk", "age"})
+        public Dog(DogPK pk, int age) {
+            this.pk = pk;
+            this.age = age;
+        }
+
+        @Override
+        public DogPK getIdentityKey() {
+            return pk;
+        }
+
+        @Override
+        public long getVersion() {
+            return 0;
+        }
+    }
+
+    public static class DogPK extends EmbeddedIdClass {
+        private final String name;
+        private final String race;
+
+        @MapperConstructor({"name", "race"})
+        public DogPK(String name, String race) {
+            super(name, race);
+            this.name = name;
+            this.race = race;
+        }
+    }
+
+    public static class Unnamed implements DomainObject<Integer> {
+        @Id
+        private final int id;
+
+        @MapperConstructor
+        public Unnamed(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getIdentityKey() {
+            return id;
+        }
+
+        @Override
+        public long getVersion() {
+            return 0;
+        }
+    }
+
+    //The components are declared in another order than the columns of Person, so they can only be matched by name
+    private static final String PERSON_RECORD =
+            "import com.github.jayield.rapper.DomainObject;\n" +
+            "import com.github.jayield.rapper.annotations.Id;\n" +
+            "import com.github.jayield.rapper.annotations.Version;\n" +
+            "public record Person(@Version long version, String name, @Id int nif) implements DomainObject<Integer> {\n" +
+            "    public Integer getIdentityKey() { return nif; }\n" +
+            "    public long getVersion() { return version; }\n" +
+            "}\n";
+
+    private UnitOfWork unit;
+
+    @Before
+    public void start() {
+        ConnectionManager manager = ConnectionManager.getConnectionManager(
+                "jdbc:hsqldb:file:" + URLDecoder.decode(this.getClass().getClassLoader().getResource("testdb").getPath()) + "/testdb",
+                "SA", "");
+        Supplier<CompletableFuture<SQLConnection>> connectionSupplier = manager::getConnection;
+
+        unit = new UnitOfWork(connectionSupplier);
+        SQLConnection con = unit.getConnection().join();
+        SqlUtils.<ResultSet>callbackToPromise(ar -> con.call("{call deleteDB()}", ar)).join();
+        SqlUtils.<ResultSet>callbackToPromise(ar -> con.call("{call populateDB()}", ar)).join();
+        unit.commit().join();
+    }
+
+    @After
+    public void after() {
+        unit.rollback().join();
+    }
+
+    @Test
+    public void testFind() {
+        Mapper<Employee, Integer> employeeMapper = MapperRegistry.getMapper(Employee.class, unit);
+        Employee employee = employeeMapper.find(new EqualAndCondition<>("name", "Bob")).join().get(0);
+
+        assertEquals("Bob", employee.name);
+        assertNotEquals(0, employee.id);
+        assertEquals(1, employee.version);
+        assertEquals(new Company.PrimaryKey(1, 1), employee.company.getForeignKey());
+        assertEquals("Living la vida loca", employee.company.getForeignObject(unit).join().getMotto());
+    }
+
+    @Test
+    public void testFindByIdWithEmbeddedId() {
+        Mapper<Dog, DogPK> dogMapper = MapperRegistry.getMapper(Dog.class, unit);
+        Dog dog = dogMapper.findById(new DogPK("Doggy", "Bulldog")).join().orElseThrow(AssertionError::new);
+
+        assertEquals(5, dog.age);
+        assertEquals("Doggy", dog.pk.name);
+        assertEquals("Bulldog", dog.pk.race);
+        assertEquals(new DogPK("Doggy", "Bulldog"), dog.pk);
+    }
+
+    @Test
+    public void testCreateAndUpdate() {
+        Mapper<Dog, DogPK> dogMapper = MapperRegistry.getMapper(Dog.class, unit);
+        dogMapper.create(new Dog(new DogPK("Bobby", "Pitbull"), 3)).join();
+        dogMapper.update(new Dog(new DogPK("Bobby", "Pitbull"), 4)).join();
+
+        unit.invalidate(Dog.class, new DogPK("Bobby", "Pitbull"));
+        Dog dog = dogMapper.findById(new DogPK("Bobby", "Pitbull")).join().orElseThrow(AssertionError::new);
+        assertEquals(4, dog.age);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFindRecord() throws Exception {
+        Class<DomainObject<Integer>> type = (Class<DomainObject<Integer>>) compileRecord("Person", PERSON_RECORD);
+        Mapper<DomainObject<Integer>, Integer> personMapper = MapperRegistry.getMapper(type, unit);
+        DomainObject<Integer> person = personMapper.findById(321).join().orElseThrow(AssertionError::new);
+
+        assertEquals(Integer.valueOf(321), person.getIdentityKey());
+        assertEquals(1, person.getVersion());
+        assertEquals("Jose", type.getMethod("name").invoke(person));
+    }
+
+    /**
+     * Records can't be declared at the source level of the tests, so the record is compiled with --release 16 when the tests run on Java 16+
+     */
+    private static Class<?> compileRecord(String name, String source) throws IOException, ClassNotFoundException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue("Records need Java 16+", compiler != null && compiler.isSupportedOption("--release") >= 0
+                && Stream.of(Class.class.getMethods()).anyMatch(method -> method.getName().equals("getRecordComponents")));
+
+        Path dir = Files.createTempDirectory("records");
+        Path file = Files.write(dir.resolve(name + ".java"), source.getBytes(StandardCharsets.UTF_8));
+        int result = compiler.run(null, null, null, "--release", "16", "-cp", System.getProperty("java.class.path"),
+                "-d", dir.toString(), file.toString());
+        assertEquals("The record " + name + " doesn't compile", 0, result);
+        return new URLClassLoader(new URL[]{dir.toUri().toURL()}, EntityConstructorTests.class.getClassLoader()).loadClass(name);
+    }
+
+    @Test
+    public void testParameterNamesAreRequired() {
+        try {
+            EntityConstructor.of(Unnamed.class);
+            fail("The names of the parameters should be unavailable");
+        } catch (DataMapperException e) {
+            assertTrue(e.getMessage().contains("-parameters"));
+        }
+    }
+}
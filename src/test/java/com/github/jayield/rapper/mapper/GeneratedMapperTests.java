@@ -0,0 +1,95 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.annotations.Id;
+import com.github.jayield.rapper.domainModel.*;
+import com.github.jayield.rapper.mapper.conversions.TypeConverter;
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The test sources are compiled with rapper-processor, so every DomainObject in domainModel has a generated mapper
+ */
+public class GeneratedMapperTests {
+
+    private final List<Class<?>> types = Arrays.asList(Person.class, Student.class, TopStudent.class, Car.class, Company.class,
+            Employee.class, Book.class, Author.class, Dog.class, Chat.class);
+
+    @Test
+    public void testGeneratedQueriesMatchReflection() throws ReflectiveOperationException {
+        for (Class<?> type : types) {
+            GeneratedMapper<?, ?> generatedMapper = getGeneratedMapper(type);
+            MapperSettings expected = new MapperSettings(type);
+            MapperSettings actual = new MapperSettings(type, generatedMapper);
+
+            assertEquals(expected.getSelectQuery(), actual.getSelectQuery());
+            assertEquals(expected.getSelectCountQuery(), actual.getSelectCountQuery());
+            assertEquals(expected.getSelectByIdQuery(), actual.getSelectByIdQuery());
+            assertEquals(expected.getInsertQuery(), actual.getInsertQuery());
+            assertEquals(expected.getUpdateQuery(), actual.getUpdateQuery());
+            assertEquals(expected.getDeleteQuery(), actual.getDeleteQuery());
+            assertEquals(expected.getPagination(), actual.getPagination());
+            assertEquals(expected.getColumns().size(), actual.getColumns().size());
+        }
+    }
+
+    @Test
+    public void testMapEmbeddedId() throws ReflectiveOperationException {
+        GeneratedMapper<Company, Company.PrimaryKey> generatedMapper = (GeneratedMapper<Company, Company.PrimaryKey>) getGeneratedMapper(Company.class);
+
+        Company company = generatedMapper.map(new JsonArray().add(1).add(2).add("Living la vida loca").add(3L));
+
+        assertEquals(new Company.PrimaryKey(1, 2), company.getIdentityKey());
+        assertEquals("Living la vida loca", company.getMotto());
+        assertEquals(3, company.getVersion());
+        assertEquals(new JsonArray().add("Living la vida loca").add(1).add(2).add(3L), generatedMapper.prepareUpdate(company));
+    }
+
+    @Test
+    public void testGeneratedMapperOfRuntimeConvertedField() throws ReflectiveOperationException {
+        GeneratedMapper<?, ?> generatedMapper = getGeneratedMapper(Player.class);
+        assertSame(generatedMapper, new MapperSettings(Player.class, generatedMapper).getGeneratedMapper());
+
+        //The processor didn't know the converter of Points, so its mapper doesn't map that field
+        MapperRegistry.registerTypeConverter(Points.class, TypeConverter.of(value -> new Points(((Number) value).intValue()), points -> points.value));
+        MapperSettings settings = new MapperSettings(Player.class, generatedMapper);
+        assertNull(settings.getGeneratedMapper());
+        assertTrue(settings.getSelectQuery().contains("points"));
+    }
+
+    private static GeneratedMapper<?, ?> getGeneratedMapper(Class<?> type) throws ReflectiveOperationException {
+        return (GeneratedMapper<?, ?>) Class.forName(GeneratedMapper.getGeneratedName(type)).getConstructor().newInstance();
+    }
+
+    public static class Points {
+        private final int value;
+
+        Points(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class Player implements DomainObject<Integer> {
+        @Id
+        private int id;
+        private Points points;
+
+        public Player() {
+        }
+
+        @Override
+        public Integer getIdentityKey() {
+            return id;
+        }
+
+        @Override
+        public long getVersion() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.jayield.rapper.mapper;
+
+import com.github.jayield.rapper.DomainObject;
+import com.github.jayield.rapper.annotations.Id;
+import com.github.jayield.rapper.annotations.Version;
+import com.github.jayield.rapper.connections.ConnectionManager;
+import com.github.jayield.rapper.mapper.ids.HiLoIdGenerator;
+import com.github.jayield.rapper.mapper.ids.UuidV7Generator;
+import com.github.jayield.rapper.unitofwork.UnitOfWork;
+import com.github.jayield.rapper.utils.SqlUtils;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Maps the tables Person and Student into classes whose nif is given by a hi/lo generator
+ */
+public class IdGeneratorTests {
+
+    public static class PersonIds extends HiLoIdGenerator {
+        public PersonIds() {
+            super("Person_seq", 10);
+        }
+    }
+
+    public static class Person implements DomainObject<Integer> {
+        @Id(generator = PersonIds.class)
+        private int nif;
+        private String name;
+        @Version
+        private long version;
+
+        public Person(String name) {
+            this.name = name;
+        }
+
+        public Person() {
+        }
+
+        @Override
+        public Integer getIdentityKey() {
+            return nif;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    public static class Student extends Person {
+        private int studentNumber;
+        @Version
+        private long version;
+
+        public Student(String name, int studentNumber) {
+            super(name);
+            this.studentNumber = studentNumber;
+        }
+
+        public Student() {
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    private UnitOfWork unit;
+
+    @Before
+    public void start() {
+        ConnectionManager manager = ConnectionManager.getConnectionManager(
+                "jdbc:hsqldb:file:" + URLDecoder.decode(this.getClass().getClassLoader().getResource("testdb").getPath()) + "/testdb",
+                "SA", "");
+        Supplier<CompletableFuture<SQLConnection>> connectionSupplier = manager::getConnection;
+
+        unit = new UnitOfWork(connectionSupplier);
+        SQLConnection con = unit.getConnection().join();
+        SqlUtils.<ResultSet>callbackToPromise(ar -> con.call("{call deleteDB()}", ar)).join();
+        SqlUtils.<ResultSet>callbackToPromise(ar -> con.call("{call populateDB()}", ar)).join();
+        unit.commit().join();
+    }
+
+    @After
+    public void after() {
+        unit.rollback().join();
+    }
+
+    @Test
+    public void testCreateAllWithHiLoIds() {
+        Mapper<Person, Integer> personMapper = MapperRegistry.getMapper(Person.class, unit);
+        List<Person> people = new ArrayList<>();
+        for (int i = 0; i < 25; i++) people.add(new Person("Person " + i));
+
+        personMapper.createAll(people).join();
+
+        Set<Integer> nifs = new HashSet<>();
+        people.forEach(person -> {
+            assertTrue(person.nif >= 100000);
+            nifs.add(person.nif);
+        });
+        assertEquals(25, nifs.size());
+        unit.invalidate(Person.class, people.get(24).nif);
+        Person read = personMapper.findById(people.get(24).nif).join().orElseThrow(AssertionError::new);
+        assertEquals("Person 24", read.name);
+    }
+
+    @Test
+    public void testHierarchyCreateWithHiLoIds() {
+        Mapper<Student, Integer> studentMapper = MapperRegistry.getMapper(Student.class, unit);
+        Student student = new Student("Ana", 7);
+        Student given = new Student("Rui", 8);
+        ((Person) given).nif = 5;
+
+        studentMapper.createAll(Arrays.asList(student, given)).join();
+
+        assertNotEquals(0, student.getIdentityKey().intValue());
+        assertEquals(5, given.getIdentityKey().intValue());
+        unit.invalidate(Student.class, student.getIdentityKey());
+        Student read = studentMapper.findById(student.getIdentityKey()).join().orElseThrow(AssertionError::new);
+        assertEquals(7, read.studentNumber);
+    }
+
+    @Test
+    public void testUuidV7IdsAreOrdered() {
+        UuidV7Generator generator = new UuidV7Generator();
+        List<UUID> ids = generator.nextIds(unit, 5000).join();
+
+        for (int i = 1; i < ids.size(); i++) {
+            UUID previous = ids.get(i - 1), id = ids.get(i);
+            assertTrue(Long.compareUnsigned(previous.getMostSignificantBits(), id.getMostSignificantBits()) < 0);
+        }
+        UUID id = ids.get(0);
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertTrue(Math.abs((id.getMostSignificantBits() >>> 16) - System.currentTimeMillis()) < 60000);
+    }
+}
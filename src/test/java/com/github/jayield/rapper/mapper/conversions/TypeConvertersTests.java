@@ -0,0 +1,83 @@
+package com.github.jayield.rapper.mapper.conversions;
+
+import com.github.jayield.rapper.mapper.MapperRegistry;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.*;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TypeConvertersTests {
+
+    private enum Color { RED, GREEN }
+
+    private static class Money {
+        private final long cents;
+
+        Money(long cents) {
+            this.cents = cents;
+        }
+    }
+
+    @Test
+    public void testDates() {
+        TypeConverter<Instant> instantConverter = MapperRegistry.getTypeConverter(Instant.class);
+        Instant instant = Instant.parse("2018-05-20T10:15:30Z");
+        assertEquals(instant, instantConverter.fromColumn("2018-05-20T10:15:30Z"));
+        assertEquals(LocalDate.of(2018, 5, 20).atStartOfDay(ZoneId.systemDefault()).toInstant(), instantConverter.fromColumn("2018-05-20"));
+
+        TypeConverter<LocalDate> localDateConverter = MapperRegistry.getTypeConverter(LocalDate.class);
+        assertEquals(LocalDate.of(2018, 5, 20), localDateConverter.fromColumn("2018-05-20"));
+        assertEquals("2018-05-20", localDateConverter.toColumn(LocalDate.of(2018, 5, 20)));
+
+        TypeConverter<LocalTime> localTimeConverter = MapperRegistry.getTypeConverter(LocalTime.class);
+        assertEquals(LocalTime.of(10, 15, 30), localTimeConverter.fromColumn("10:15:30"));
+
+        TypeConverter<OffsetDateTime> offsetConverter = MapperRegistry.getTypeConverter(OffsetDateTime.class);
+        assertEquals(instant, offsetConverter.toColumn(offsetConverter.fromColumn("2018-05-20T10:15:30Z")));
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEquals(5L, (long) MapperRegistry.getTypeConverter(long.class).fromColumn(5));
+        assertEquals(5, (int) MapperRegistry.getTypeConverter(Integer.class).fromColumn(5L));
+        assertEquals((short) 5, (short) MapperRegistry.getTypeConverter(short.class).fromColumn(5));
+        assertTrue(MapperRegistry.getTypeConverter(boolean.class).fromColumn(1));
+
+        TypeConverter<BigDecimal> bigDecimalConverter = MapperRegistry.getTypeConverter(BigDecimal.class);
+        assertEquals(new BigDecimal("12"), bigDecimalConverter.fromColumn(BigInteger.valueOf(12)));
+        assertEquals("12.50", bigDecimalConverter.toColumn(new BigDecimal("12.50")));
+    }
+
+    @Test
+    public void testUUIDAndBinary() {
+        UUID uuid = UUID.randomUUID();
+        TypeConverter<UUID> uuidConverter = MapperRegistry.getTypeConverter(UUID.class);
+        assertEquals(uuid, uuidConverter.fromColumn(uuidConverter.toColumn(uuid)));
+
+        byte[] bytes = {1, 2, 3};
+        assertArrayEquals(bytes, MapperRegistry.getTypeConverter(byte[].class).fromColumn(Base64.getEncoder().encodeToString(bytes)));
+    }
+
+    @Test
+    public void testEnums() {
+        TypeConverter<Color> colorConverter = MapperRegistry.getTypeConverter(Color.class);
+        assertSame(colorConverter, MapperRegistry.getTypeConverter(Color.class));
+        assertEquals(Color.GREEN, colorConverter.fromColumn("GREEN"));
+        assertEquals(Color.GREEN, colorConverter.fromColumn(1));
+        assertEquals("RED", colorConverter.toColumn(Color.RED));
+    }
+
+    @Test
+    public void testCustomConverter() {
+        assertNull(MapperRegistry.getTypeConverter(Money.class));
+        MapperRegistry.registerTypeConverter(Money.class, TypeConverter.of(value -> new Money(((Number) value).longValue()), money -> money.cents));
+
+        assertEquals(150L, TypeConverters.toColumn(MapperRegistry.getTypeConverter(Money.class), new Money(150)));
+        assertNull(TypeConverters.fromColumn(MapperRegistry.getTypeConverter(Money.class), null));
+    }
+}
@@ -3,11 +3,13 @@ package com.github.jayield.rapper.unitofwork;
 import com.github.jayield.rapper.*;
 import com.github.jayield.rapper.connections.ConnectionManager;
 import com.github.jayield.rapper.domainModel.*;
+import com.github.jayield.rapper.exceptions.ConcurrencyException;
 import com.github.jayield.rapper.mapper.DataMapper;
 import com.github.jayield.rapper.mapper.MapperRegistry;
 import com.github.jayield.rapper.sql.SqlSupplier;
 import com.github.jayield.rapper.AssertUtils;
 import com.github.jayield.rapper.mapper.conditions.EqualAndCondition;
+import com.github.jayield.rapper.mapper.externals.Foreign;
 import com.github.jayield.rapper.utils.SqlUtils;
 import io.vertx.core.json.JsonArray;
 import io.vertx.ext.sql.ResultSet;
@@ -23,6 +25,7 @@ import java.lang.reflect.Field;
 import java.net.URLDecoder;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiConsumer;
 
@@ -176,6 +179,126 @@ public class UnitOfWorkTests {
         unitOfWork.rollback().join();
     }
 
+    @Test
+    public void testWriteBehindCommit() {
+        UnitOfWork writeBehindUnit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection, true);
+        DataMapper<Employee, Integer> employeeMapper = getMapper(Employee.class, writeBehindUnit);
+        DataMapper<Company, Company.PrimaryKey> companyMapper = getMapper(Company.class, writeBehindUnit);
+        DataMapper<Person, Integer> personMapper = getMapper(Person.class, writeBehindUnit);
+        int bobId = employeeMapper.find(new EqualAndCondition<>("name", "Bob")).join().get(0).getIdentityKey();
+
+        //The Employees are created before the Company they reference, which must be inserted first
+        Company company = new Company(new Company.PrimaryKey(2, 1), "Write behind", null, 0);
+        Employee ana = new Employee(0, "Ana", 0, new Foreign<>(company.getIdentityKey(), unit -> CompletableFuture.completedFuture(company)));
+        Employee rui = new Employee(0, "Rui", 0, new Foreign<>(company.getIdentityKey(), unit -> CompletableFuture.completedFuture(company)));
+        employeeMapper.createAll(Arrays.asList(ana, rui)).join();
+        companyMapper.create(company).join();
+
+        //The Company is removed before the Employees that reference it, which must be deleted first
+        companyMapper.deleteById(new Company.PrimaryKey(1, 1)).join();
+        employeeMapper.deleteAll(Arrays.asList(bobId, objectsContainer.getOriginalEmployee().getIdentityKey())).join();
+
+        //Only the last update is written
+        Person person = objectsContainer.getUpdatedPerson();
+        personMapper.update(new Person(person.getNif(), "First", person.getBirthday(), person.getVersion())).join();
+        personMapper.update(new Person(person.getNif(), "Last", person.getBirthday(), person.getVersion())).join();
+
+        //A Person created and removed is never written
+        personMapper.create(objectsContainer.getInsertedPerson()).join();
+        personMapper.delete(objectsContainer.getInsertedPerson()).join();
+
+        assertEquals(11, (long) companyMapper.getNumberOfEntries().join());
+        writeBehindUnit.commit().join();
+
+        assertNotEquals(0, (int) ana.getIdentityKey());
+        assertNotEquals(ana.getIdentityKey(), rui.getIdentityKey());
+
+        UnitOfWork unit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection);
+        SQLConnection con = unit.getConnection().join();
+        assertSingleRow(company, companySelectQuery, new JsonArray().add(2).add(1), AssertUtils::assertCompany, con);
+        assertNotFound(companySelectQuery, new JsonArray().add(1).add(1), con);
+        assertNotFound(employeeSelectQuery, new JsonArray().add("Bob"), con);
+        assertNotFound(employeeSelectQuery, new JsonArray().add("Charles"), con);
+        assertEquals(2, executeQuery("select id from Employee where companyId = 2 and companyCid = 1", new JsonArray(), con).getNumRows());
+        assertEquals("Last", executeQuery(personSelectQuery, new JsonArray().add(person.getNif()), con).getRows(true).get(0).getString("name"));
+        assertNotFound(personSelectQuery, new JsonArray().add(objectsContainer.getInsertedPerson().getNif()), con);
+        unit.rollback().join();
+    }
+
+    @Test
+    public void testWriteBehindRollback() {
+        UnitOfWork writeBehindUnit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection, true);
+        DataMapper<Person, Integer> personMapper = getMapper(Person.class, writeBehindUnit);
+        personMapper.create(objectsContainer.getInsertedPerson()).join();
+        writeBehindUnit.rollback().join();
+        writeBehindUnit.commit().join();
+
+        UnitOfWork unit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection);
+        assertNotFound(personSelectQuery, new JsonArray().add(objectsContainer.getInsertedPerson().getNif()), unit.getConnection().join());
+        unit.rollback().join();
+    }
+
+    @Test
+    public void testFailedFlushKeepsDeferredWrites() {
+        UnitOfWork writeBehindUnit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection, true);
+        try {
+            DataMapper<Person, Integer> personMapper = getMapper(Person.class, writeBehindUnit);
+            DataMapper<Company, Company.PrimaryKey> companyMapper = getMapper(Company.class, writeBehindUnit);
+            Person person = objectsContainer.getUpdatedPerson();
+            personMapper.update(new Person(person.getNif(), "Stale", person.getBirthday(), person.getVersion() + 1)).join();
+            companyMapper.deleteById(new Company.PrimaryKey(1, 5)).join();
+
+            //The stale update fails, so the delete after it isn't written, and both are kept for the next flush
+            for (int i = 0; i < 2; i++) {
+                try {
+                    writeBehindUnit.flush().join();
+                    fail("The version of the update is stale");
+                } catch (CompletionException e) {
+                    assertTrue(e.getCause() instanceof ConcurrencyException);
+                }
+            }
+            assertEquals(11, (long) companyMapper.getNumberOfEntries().join());
+        } finally {
+            writeBehindUnit.rollback().join();
+        }
+    }
+
+    @Test
+    public void testDetectChangesCommit() {
+        UnitOfWork detectingUnit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection, false, true);
+        DataMapper<Dog, Dog.DogPK> dogMapper = getMapper(Dog.class, detectingUnit);
+        DataMapper<Person, Integer> personMapper = getMapper(Person.class, detectingUnit);
+        Dog doggy = dogMapper.findById(new Dog.DogPK("Doggy", "Bulldog")).join().orElseThrow(AssertionError::new);
+        long personVersion = personMapper.findById(321).join().orElseThrow(AssertionError::new).getVersion();
+
+        //Only the Dog is changed, without calling update, so the Person isn't written
+        doggy.setAge(doggy.getAge() + 1);
+        detectingUnit.commit().join();
+
+        UnitOfWork unit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection);
+        SQLConnection con = unit.getConnection().join();
+        assertEquals(doggy.getAge(), (int) executeQuery("select age from Dog where name = ? and race = ?",
+                new JsonArray().add("Doggy").add("Bulldog"), con).getResults().get(0).getInteger(0));
+        assertEquals(personVersion, (long) executeQuery("select CAST(version as bigint) version from Person where nif = ?",
+                new JsonArray().add(321), con).getResults().get(0).getLong(0));
+        unit.rollback().join();
+    }
+
+    @Test
+    public void testDetectChangesOfRemovedObject() {
+        UnitOfWork detectingUnit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection, true, true);
+        DataMapper<Dog, Dog.DogPK> dogMapper = getMapper(Dog.class, detectingUnit);
+        Dog doggy = dogMapper.findById(new Dog.DogPK("Doggy", "Bulldog")).join().orElseThrow(AssertionError::new);
+
+        doggy.setAge(doggy.getAge() + 1);
+        dogMapper.delete(doggy).join();
+        detectingUnit.commit().join();
+
+        UnitOfWork unit = new UnitOfWork(ConnectionManager.getConnectionManager()::getConnection);
+        assertNotFound("select age from Dog where name = ? and race = ?", new JsonArray().add("Doggy").add("Bulldog"), unit.getConnection().join());
+        unit.rollback().join();
+    }
+
     private void assertIdentityMaps(List<DomainObject> objectList, BiConsumer<ConcurrentMap, DomainObject> assertion) {
         for (DomainObject domainObject : objectList) {
             ConcurrentMap identityMap = unit.getIdentityMap(domainObject.getClass());
@@ -0,0 +1,62 @@
+package com.github.jayield.rapper.utils;
+
+import com.github.jayield.rapper.domainModel.Car;
+import com.github.jayield.rapper.domainModel.CarKey;
+import com.github.jayield.rapper.domainModel.Person;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class FieldAccessorTests {
+
+    @Test
+    public void testPrimitiveAccessors() throws NoSuchFieldException {
+        Person person = new Person(1, "Jose", Instant.now(), 2);
+
+        FieldAccessor nif = FieldAccessor.of(Person.class.getDeclaredField("nif"));
+        FieldAccessor version = FieldAccessor.of(Person.class.getDeclaredField("version"));
+        assertTrue(version instanceof FieldAccessor.LongAccessor);
+
+        assertEquals(1, nif.get(person));
+        assertEquals(2, ((FieldAccessor.LongAccessor) version).getLong(person));
+        nif.set(person, 321);
+        assertEquals(321, person.getNif());
+
+        //Integer values coming from the DB must be widened into long fields
+        version.set(person, 5);
+        assertEquals(5, person.getVersion());
+    }
+
+    @Test
+    public void testObjectAccessors() throws NoSuchFieldException {
+        Person person = new Person(1, "Jose", Instant.now(), 2);
+
+        FieldAccessor name = FieldAccessor.of(Person.class.getDeclaredField("name"));
+        assertEquals("Jose", name.get(person));
+        name.set(person, "Nuno");
+        assertEquals("Nuno", person.getName());
+        name.set(person, null);
+        assertNull(person.getName());
+    }
+
+    @Test
+    public void testIllegalArguments() throws NoSuchFieldException {
+        Car car = new Car(2, "23we45", "Mitsubishi", "lancer", 1);
+        FieldAccessor owner = FieldAccessor.of(CarKey.class.getDeclaredField("owner"));
+        FieldAccessor brand = FieldAccessor.of(Car.class.getDeclaredField("brand"));
+
+        assertEquals(2, owner.get(car.getIdentityKey()));
+        assertIllegalArgument(() -> owner.set(car, 3));
+        assertIllegalArgument(() -> owner.set(car.getIdentityKey(), "3"));
+        assertIllegalArgument(() -> brand.set(car, 3));
+    }
+
+    private void assertIllegalArgument(Runnable runnable) {
+        try {
+            runnable.run();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ignored) { }
+    }
+}
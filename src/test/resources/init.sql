@@ -80,6 +80,8 @@ create table Dog (
   PRIMARY KEY (name, race)
 );
 
+create sequence Person_seq as int start with 10000;
+
 CREATE PROCEDURE populateDB()
 MODIFIES SQL DATA
 begin atomic
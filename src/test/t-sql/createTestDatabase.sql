@@ -128,4 +128,10 @@ create table Dog (
 
   PRIMARY KEY (name, race)
 )
-go
\ No newline at end of file
+go
+
+if OBJECT_ID('Person_seq') is not null
+  drop sequence Person_seq
+go
+create sequence Person_seq as int start with 10000
+go